@@ -0,0 +1,98 @@
+/*****************************************************************************
+ *
+ *  AntitheticRandom
+ *
+ *  Random number generator giving the antithetic stream of a seed for
+ *  dwgrid simulation
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+import java.util.Random;
+
+/**
+ * A java.util.Random which, when flipped, gives the mirror image of
+ * the stream from the same seed: every uniform u drawn by nextFloat()
+ * or nextDouble() comes out as (very nearly) 1 - u.  A fleet built
+ * from the flipped stream is the antithetic partner of the one built
+ * from the plain stream, so the average of the two has less variance
+ * than two fleets built from independent seeds.
+ *
+ * Unflipped it gives exactly the same numbers as java.util.Random.
+ *
+ * @author trevorm
+ *
+ */
+public class AntitheticRandom extends Random {
+
+	private static final long serialVersionUID = 1L;
+
+	protected boolean flip;		// give the mirror image stream?
+
+	/**
+	 * Constructor for an AntitheticRandom
+	 *
+	 * @param seed		the seed
+	 * @param flip		true for the mirror image stream
+	 */
+	public AntitheticRandom(long seed, boolean flip) {
+		super(seed);
+		this.flip = flip;
+	}
+
+	/**
+	 * @return true if this is the mirror image stream
+	 */
+	public boolean isFlipped() {
+		return flip;
+	}
+
+	/**
+	 * Start again from a new seed
+	 *
+	 * @param seed		the seed
+	 * @param flip		true for the mirror image stream
+	 */
+	public void reset(long seed, boolean flip) {
+		setSeed(seed);
+		this.flip = flip;
+	}
+
+	/**
+	 * The bits of the plain stream, complemented when flipped
+	 */
+	protected int next(int bits) {
+		int r = super.next(bits);
+		if (!flip) {
+			return r;
+		}
+		return bits == 32 ? ~r : ~r & ((1 << bits) - 1);
+	}
+
+	/**
+	 * A long from the plain stream whether flipped or not, for use
+	 * as a seed which must be the same for both partners
+	 *
+	 * @return the same value java.util.Random.nextLong() would give
+	 */
+	public long nextPlainLong() {
+		return ((long) super.next(32) << 32) + super.next(32);
+	}
+}
@@ -0,0 +1,94 @@
+/*****************************************************************************
+ *
+ *  ApplianceFleet
+ *
+ *  Base class for a 'fleet' of similar appliances for dwgrid simulation
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+/**
+ * A class to represent a 'fleet' of appliances of one kind as a
+ * single load on the grid.
+ *
+ * Each subclass owns the state of all of its appliances, laid out
+ * however suits it best, and updates the whole fleet in one call
+ * to calcLoad() - there are no per-appliance calls between the
+ * simulation driver and the fleet.
+ *
+ * @author trevorm
+ *
+ */
+public abstract class ApplianceFleet {
+
+	public String name = "appliances";	// name used in output headers
+	public int numAppliances;			// number of appliances in the fleet
+	protected float pcOnLoad;			// percentage of appliances on heating (or main) load
+	protected float pcDelay;			// percentage of appliances delayed by dynamic demand
+	protected double maxtotdelay;		// longest accumulated delay in the fleet
+
+	/**
+	 * method to step the whole fleet forward and calculate its total load
+	 *
+	 * @param dT		simulation step time
+	 * @param freq		grid frequency
+	 * @return			total load of 'fleet' in Watts
+	 */
+	public abstract double calcLoad(double dT, double freq);
+
+	/**
+	 * set the turn-off frequency of the 'fleet', fleets without
+	 * a turn-off frequency ignore this.
+	 *
+	 * @param f		turn-off frequency
+	 */
+	public void setTurnOffFreq(float f) {
+	}
+
+	/**
+	 * set the turn-on frequency of the 'fleet', fleets without
+	 * a turn-on frequency ignore this.
+	 *
+	 * @param f		turn-on frequency
+	 */
+	public void setTurnOnFreq(float f) {
+	}
+
+	/**
+	 * @return percentage of appliances on load
+	 */
+	public float getPcOnLoad() {
+		return pcOnLoad;
+	}
+
+	/**
+	 * @return percentage of appliances delayed
+	 */
+	public float getPcDelay() {
+		return pcDelay;
+	}
+
+	/**
+	 * @return longest accumulated delay in the fleet in seconds
+	 */
+	public double getMaxTotDelay() {
+		return maxtotdelay;
+	}
+}
@@ -0,0 +1,331 @@
+/*****************************************************************************
+ *
+ *  ApplianceTracer
+ *
+ *  Class recording what sampled appliances of a fleet do, step by step
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A class to record the state changes of a sample of the appliances in
+ * a fleet - programme steps, the start of each delay, each retry, and
+ * each release, whether the frequency recovered or the delay limit was
+ * reached - for following single appliances through a run.
+ *
+ * The fleet only asks isTraced() of an appliance when it changes
+ * state, which is a test of one bit, and only records events for
+ * those traced.  Events go into ring buffers made up front, one for
+ * each shard of the fleet (a block of appliance numbers), and a
+ * daemon thread drains them to the output as text.  Nothing is
+ * allocated or written on the simulation's thread.  A shard must only
+ * be written by one thread at a time.  If the flusher falls so far
+ * behind that a ring fills, further events for that shard are dropped
+ * and counted rather than holding the simulation up.
+ *
+ * Events are in time order within a shard, but not between shards.
+ *
+ * @author trevorm
+ *
+ */
+public class ApplianceTracer {
+
+	// Events
+	public static final int STEP = 0;		// new programme step, detail is its power (W)
+	public static final int DELAY = 1;		// delay started, detail is ticks to the first retry
+	public static final int RETRY = 2;		// still too low, detail is ticks to the next retry
+	public static final int RELEASE = 3;	// frequency recovered, detail is total delay (ticks)
+	public static final int FORCED = 4;		// delay limit reached, detail is total delay (ticks)
+	public static final String EVENT_NAMES[] = {"step", "delay", "retry", "release", "forced"};
+
+	protected int numAppliances;
+	protected double tick;				// length of one tick in seconds
+	protected long traced[];			// one bit per appliance
+	public int numTraced;
+
+	protected int shardSize;			// appliances in each shard
+	protected Shard shards[];
+	protected long flushNanos = 10000000;	// time between flushes when not woken
+
+	protected PrintStream out;
+	protected Thread flusher;
+	protected volatile boolean closing;
+
+	/**
+	 * A single writer, single reader ring of events, two longs each:
+	 * the clock and appliance, then the event, step and detail
+	 */
+	protected static class Shard {
+		long ring[];
+		int mask;					// events held, less one
+		volatile long head;			// events written, by the simulation
+		volatile long tail;			// events read, by the flusher
+		long cachedTail;			// tail last seen by the writer
+		long dropped;				// events lost to a full ring
+
+		Shard(int capacity) {
+			ring = new long[capacity * 2];
+			mask = capacity - 1;
+		}
+	}
+
+	/**
+	 * Constructor for an ApplianceTracer tracing nothing until told to
+	 *
+	 * @param numAppliances		appliances in the fleet
+	 * @param tick				fleet tick length in seconds
+	 * @param numShards			number of ring buffers
+	 * @param capacity			events each ring holds, a power of 2
+	 * @param out				where the events go, closed by close()
+	 */
+	public ApplianceTracer(int numAppliances, double tick, int numShards, int capacity, PrintStream out) {
+		if (Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("Ring capacity " + capacity + " is not a power of 2");
+		}
+		this.numAppliances = numAppliances;
+		this.tick = tick;
+		this.out = out;
+		traced = new long[(numAppliances + 63) >>> 6];
+		shardSize = (numAppliances + numShards - 1) / numShards;
+		shards = new Shard[numShards];
+		for (int s = 0; s < numShards; s++) {
+			shards[s] = new Shard(capacity);
+		}
+		out.println("Time (s), Appliance, Event, Step, Detail");
+		flusher = new Thread(new Runnable() {
+			public void run() {
+				flushLoop();
+			}
+		}, "ApplianceTracer flusher");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Trace a random sample of the fleet, the same for the same seed
+	 *
+	 * @param fraction		fraction of appliances to trace
+	 * @param seed			seed choosing them
+	 */
+	public void sample(double fraction, long seed) {
+		// top 53 bits of each appliance's hash as a uniform number
+		for (int n = 0; n < numAppliances; n++) {
+			if ((Scenario.mix(seed, n) >>> 11) * 0x1.0p-53 < fraction) {
+				trace(n);
+			}
+		}
+	}
+
+	/**
+	 * Trace one appliance
+	 *
+	 * @param n		appliance number
+	 */
+	public void trace(int n) {
+		if (!isTraced(n)) {
+			traced[n >>> 6] |= 1L << n;
+			numTraced++;
+		}
+	}
+
+	/**
+	 * @param n		appliance number
+	 * @return		true if its events are recorded
+	 */
+	public final boolean isTraced(int n) {
+		return (traced[n >>> 6] & (1L << n)) != 0;
+	}
+
+	/**
+	 * Record an event of a traced appliance
+	 *
+	 * @param clock		fleet clock in ticks
+	 * @param n			appliance number
+	 * @param event		what happened
+	 * @param step		its programme step
+	 * @param detail	as the event
+	 */
+	public void record(int clock, int n, int event, int step, int detail) {
+		Shard sh = shards[n / shardSize];
+		long h = sh.head;
+		if (h - sh.cachedTail > sh.mask) {
+			sh.cachedTail = sh.tail;
+			if (h - sh.cachedTail > sh.mask) {
+				sh.dropped++;
+				return;
+			}
+		}
+		int i = (int) (h & sh.mask) << 1;
+		sh.ring[i] = ((long) clock << 32) | (n & 0xFFFFFFFFL);
+		sh.ring[i + 1] = ((long) event << 40) | ((long) (step & 0xFF) << 32) | (detail & 0xFFFFFFFFL);
+		sh.head = h + 1;
+		if (h - sh.cachedTail == (sh.mask >>> 1)) {
+			// half full, don't wait for the next flush
+			LockSupport.unpark(flusher);
+		}
+	}
+
+	/**
+	 * Drain the rings until closed
+	 */
+	protected void flushLoop() {
+		while (!closing) {
+			LockSupport.parkNanos(flushNanos);
+			drain();
+		}
+		drain();
+	}
+
+	/**
+	 * Write out every event waiting in the rings
+	 */
+	protected void drain() {
+		for (Shard sh : shards) {
+			long h = sh.head;
+			long t = sh.tail;
+			for (; t < h; t++) {
+				int i = (int) (t & sh.mask) << 1;
+				long a = sh.ring[i];
+				long b = sh.ring[i + 1];
+				int event = (int) (b >>> 40);
+				int detail = (int) b;
+				out.print((int) (a >>> 32) * tick);
+				out.print(", ");
+				out.print((int) a);
+				out.print(", ");
+				out.print(EVENT_NAMES[event]);
+				out.print(", ");
+				out.print((int) (b >>> 32) & 0xFF);
+				out.print(", ");
+				if (event == STEP) {
+					out.println(detail);
+				} else {
+					out.println(detail * tick);
+				}
+			}
+			sh.tail = t;
+		}
+	}
+
+	/**
+	 * Flush what is left and close the output.  No events may be
+	 * recorded after this.
+	 *
+	 * @throws InterruptedException	if interrupted waiting for the flusher
+	 */
+	public void close() throws InterruptedException {
+		closing = true;
+		LockSupport.unpark(flusher);
+		flusher.join();
+		out.close();
+	}
+
+	/**
+	 * @return events lost to full rings
+	 */
+	public long getDropped() {
+		long d = 0;
+		for (Shard sh : shards) {
+			d += sh.dropped;
+		}
+		return d;
+	}
+
+	/**
+	 * Step a large fleet through a frequency dip with and without
+	 * tracing 0.1% of it, for the cost, and write the events to
+	 * appliances.dat.  Untraced and traced runs are made in pairs, after
+	 * two pairs to warm up the JIT, and the median cost of ten pairs
+	 * is given.
+	 * @param args	optional number of dishwashers and fraction traced
+	 */
+	public static void main(String[] args) {
+		int numdws = 200000;
+		double fraction = 0.001;
+		if (args.length > 0) {
+			numdws = Integer.parseInt(args[0]);
+		}
+		if (args.length > 1) {
+			fraction = Double.parseDouble(args[1]);
+		}
+		double dT = 0.1;
+		int numTicks = 30000;
+		int pairs = 10;
+		DishwasherFleet df = new DishwasherFleet(numdws, 40, dT, 1);
+		df.setTurnOffFreq(49.8F);
+		try {
+			double sum[] = new double[2];
+			long time[][] = new long[2][pairs];
+			double cost[] = new double[pairs];
+			boolean same = true;
+			ApplianceTracer tr = null;
+			for (int pair = -2; pair < pairs; pair++) {
+				for (int traced = 0; traced < 2; traced++) {
+					df.reset(40, 1, false);
+					if (traced == 1) {
+						if (tr != null) {
+							tr.close();
+						}
+						tr = new ApplianceTracer(numdws, dT, 16, 1 << 14,
+								new PrintStream(new BufferedOutputStream(new FileOutputStream("appliances.dat"), 1 << 16)));
+						tr.sample(fraction, 1);
+					}
+					df.setTracer(traced == 1 ? tr : null);
+					long start = System.nanoTime();
+					double s = 0;
+					for (int i = 0; i < numTicks; i++) {
+						// 31 minutes at 49.7Hz from the 5 minute mark, just past the delay limit
+						double freq = (i >= 3000 && i < 21600) ? 49.7 : 50.0;
+						s += df.calcLoad(dT, freq);
+					}
+					if (pair >= 0) {
+						time[traced][pair] = System.nanoTime() - start;
+					}
+					sum[traced] = s;
+				}
+				same &= sum[0] == sum[1];
+				if (pair >= 0) {
+					cost[pair] = 100.0 * (time[1][pair] - time[0][pair]) / time[0][pair];
+				}
+			}
+			tr.close();
+			Arrays.sort(time[0]);
+			Arrays.sort(time[1]);
+			Arrays.sort(cost);
+			System.out.println(tr.numTraced + " of " + numdws + " traced, " + tr.getDropped() + " events dropped");
+			System.out.println("Medians of " + pairs + " pairs: untraced " + time[0][pairs / 2] / 1000000 + " ms, traced "
+					+ time[1][pairs / 2] / 1000000 + " ms, cost " + (cost[pairs / 2 - 1] + cost[pairs / 2]) / 2
+					+ "% (" + cost[0] + "% to " + cost[pairs - 1] + "%), same load " + same);
+		}
+		catch (IOException ie) {
+			System.err.println("IOException: appliances.dat " + ie);
+		}
+		catch (InterruptedException ie) {
+			System.err.println("Interrupted: " + ie);
+		}
+	}
+}
@@ -0,0 +1,57 @@
+/*****************************************************************************
+ *
+ *  BaselineLoad
+ *
+ *  Class holding the undisturbed load curve of a fleet for dwgrid
+ *  simulation
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+/**
+ * The load a fleet would draw, tick by tick, if the grid frequency
+ * never caused any appliance to turn off.  It depends only on the
+ * fleet's programmes and starting points, not on any Dynamic Demand
+ * setting, so it can be worked out once and shared by every run of
+ * the same fleet.
+ *
+ * @author trevorm
+ *
+ */
+public class BaselineLoad {
+
+	public String fleetKey;		// describes the fleet the curve belongs to
+	public int numTicks;		// number of ticks covered
+	public double load[];		// load after each tick, load[0] is the start
+	public int onLoad[];		// number of appliances on heating load after each tick
+
+	/**
+	 * Constructor for an empty BaselineLoad
+	 *
+	 * @param fleetKey		describes the fleet
+	 * @param numTicks		number of ticks to cover
+	 */
+	public BaselineLoad(String fleetKey, int numTicks) {
+		this.fleetKey = fleetKey;
+		this.numTicks = numTicks;
+		load = new double[numTicks + 1];
+		onLoad = new int[numTicks + 1];
+	}
+}
@@ -54,6 +54,11 @@ public class Dishwasher {
 	protected Programme p;
 	protected int minheatload = 1000;
 
+	// Water temperature, for the regimes that go by it
+	protected ThermalModel thermal;
+	protected float targetTemp = DishwasherLoad.STANDARD_TEMP;	// wash temperature
+	protected float temp;				// water temperature now
+
 	/**
 	 * Constructor for the Dishwasher class
 	 * 
@@ -69,6 +74,8 @@ public class Dishwasher {
 		rngen = new Random();
 		p = new Programme(prog, randpc);
 		totruntime = p.totalRunTime;
+		thermal = new ThermalModel();
+		temp = (float) thermal.ambient;
 	}
 	
 	/**
@@ -131,6 +138,52 @@ public class Dishwasher {
 		}
 		p.stepNumber = step;
 		p.stepRunTime = (float) t - passedtime;
+
+		// the water as it would be having run from cold to here
+		temp = (float) thermal.ambient;
+		for (int i = 0; i < step; i++) {
+			temp = thermal.advance(temp, heatPower(i), p.steps[i].stepTime);
+		}
+		temp = thermal.advance(temp, heatPower(step), p.stepRunTime);
+	}
+
+	/**
+	 * Share a ThermalModel, as a fleet does, before setRuntime()
+	 *
+	 * @param thermal		the model
+	 * @param targetTemp	wash temperature of this dishwasher's programme
+	 */
+	public void setThermalModel(ThermalModel thermal, float targetTemp) {
+		this.thermal = thermal;
+		this.targetTemp = targetTemp;
+		temp = (float) thermal.ambient;
+	}
+
+	/**
+	 * @param step		programme step
+	 * @return			power going into the water while on it
+	 */
+	protected float heatPower(int step) {
+		return p.steps[step].power > minheatload ? p.steps[step].power : 0;
+	}
+
+	/**
+	 * Bring the water temperature on by one time step
+	 *
+	 * @param heat		true if the element is on
+	 * @param dT		step time
+	 */
+	protected void updateTemp(boolean heat, double dT) {
+		thermal.setTimeStep(dT);
+		temp = thermal.step(temp, heat ? heatPower(p.stepNumber) : 0);
+	}
+
+	/**
+	 * @return		how far the water has got from ambient towards the
+	 * 				wash temperature, 0 to 1
+	 */
+	public float getWarmth() {
+		return thermal.warmth(temp, targetTemp);
 	}
 	
 	/**
@@ -0,0 +1,1374 @@
+/*****************************************************************************
+ *
+ *  DishwasherFleet
+ *
+ *  Class modelling a fleet of dishwashers in column form for dwgrid
+ *  simulation
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A class to model a fleet of dishwashers running the PropFreqRandomDelay
+ * Dynamic Demand regime, or the RandomDelay regime for comparison.
+ *
+ * Unlike DishwasherLoad, which holds one Dishwasher object per machine,
+ * the state of every machine is held in a set of arrays, one per field,
+ * and the whole fleet is stepped by a single loop over those arrays.
+ * Times are held as whole numbers of ticks, so the step time passed
+ * to calcLoad() must be a multiple of the tick the fleet was built with.
+ *
+ * The Dynamic Demand tests are not made on every machine every step.
+ * Machines on a heating step are held in a ThresholdIndex by their
+ * turn-off frequency, which can only fall as the step goes on, and
+ * only those whose turn-off frequency may be above the grid frequency
+ * are tested.  Delayed machines are held in a TimerQueue by the tick
+ * at which their retry time or delay limit arrives, and are only
+ * looked at then.  At nominal frequency the fleet does no more than
+ * count down the programme steps.
+ *
+ * With a BaselineLoad set (see useBaseline()) the fleet runs in delta
+ * mode: the load is the cached undisturbed load plus the difference
+ * made by the machines which have been delayed at some time.  Only
+ * those machines are stepped while the frequency is too high for any
+ * machine to turn off; the rest are brought up to date from their
+ * programme tables when it falls, and stepped until it recovers.
+ *
+ * A fleet may draw its machines' programmes from a ProgrammeLibrary
+ * of measured programmes instead of DishwasherLoad's two.  They are
+ * copied into the fleet's tables like those, so a long measured
+ * programme costs more per machine than the 5 step 'Eco' one.
+ *
+ * A fleet built with antithetic set draws 1 - u wherever the fleet
+ * built from the same seed without it draws u, for pairing the two.
+ *
+ * The Proportional regimes go by each machine's water temperature,
+ * from a ThermalModel.  It is only brought up to date when the
+ * machine is looked at, over however many ticks have gone by since,
+ * with the decay factors for up to DECAY_TABLE ticks worked out when
+ * the fleet is built.
+ *
+ * With an ApplianceTracer set, the state changes of the machines it
+ * traces are recorded.  In delta mode those machines are simulated on
+ * their own from the start, as if already disturbed, so that their
+ * steps are seen; the load is the same either way.
+ *
+ * @author trevorm
+ *
+ */
+public class DishwasherFleet extends ApplianceFleet {
+
+	protected double tick;				// length of one tick in seconds
+	protected float pcEco = 40;			// percentage of dishwashers running an 'Eco' programme
+	protected ProgrammeLibrary library;	// programmes to draw from, null for DishwasherLoad's two
+	protected float randPc = 0.2F;		// default randomisation: 0.2 = 20% ie., +10/-10
+
+	// Dynamic Demand parameters, defaults as PropFreqRandomDelay
+	protected boolean proportional = true;	// PropFreqRandomDelay, or RandomDelay if false
+	protected float turnofffreq = 49.5F;	// lowest turn-off frequency
+	protected float turnonfreq  = 49.95F;	// turn-on frequency
+	protected float minofftime  = 90;		// minimum time for any one RandomDelay delay
+	protected float maxofftime  = 600;		// maximum time for any one delay
+	protected double maxdelaytime = 1800;	// maximum total delay per programme
+	protected int minheatload = 1000;		// a step using more than this is heating
+
+	// Programme tables - each machine has its own randomised programme,
+	// all of them stored end to end
+	protected int progStart[];		// index of each machine's first step
+	protected int progSteps[];		// number of steps in each machine's programme
+	protected int stepTicks[];		// step times in ticks
+	protected int stepPower[];		// step powers in Watts
+	protected int stepEnd[];		// ticks from start of programme to end of step
+	protected int numTableSteps;	// number of entries used in the tables
+	protected int phase0[];			// ticks into the programme when the fleet was built
+
+	// Machine state, one array per field.  What is looked at every
+	// tick is packed into one int per machine: bit 31 is set while
+	// delayed by Dynamic Demand, bits 24 to 30 hold the step number
+	// and bits 0 to 23 the ticks remaining in the step.
+	public static final int DELAYED = 0x80000000;
+	public static final int STEP_SHIFT = 24;
+	public static final int STEP_BITS = 0x7F;
+	public static final int REMAIN_BITS = 0xFFFFFF;
+	protected int state[];			// packed step, ticks remaining and delay flag
+	protected int totDelay[];		// ticks delayed during this run of the programme,
+									// not counting any delay in progress
+	protected int delayZero[];		// while delayed, the clock at which the total
+									// delay would have been zero
+	protected int retryAt[];		// while delayed, clock of the next frequency test
+
+	protected long rseed[];			// state of each machine's random number stream
+	protected AntitheticRandom rngen;	// for programme choice and phase, constructor only
+	protected boolean antithetic;	// draw 1 - u rather than u?
+
+	// Indexes of machines waiting on the frequency or the clock
+	protected ThresholdIndex heating;	// machines on a heating step, by turn-off frequency
+	protected TimerQueue delayed;		// delayed machines, by next tick due
+	protected int released[];			// machines released this step
+	protected StepKernel kernel;		// counts down the running machines
+	protected int ended[];				// machines whose step ended this step
+	protected int numReleased;
+
+	// Fleet statistics, updated only when a machine changes state
+	protected double load;			// total load of the fleet
+	protected double tripLoad;		// load this step of the machines delayed in it, which
+									// draw their first step's power then as PropFreqRandomDelay
+	protected int numOnLoad;		// number of machines on heating load
+	protected int numDelay;			// number of machines delayed
+	protected int clock;			// ticks simulated
+	protected MaxDelayTracker delays;	// for maxtotdelay
+
+	// Delta mode, when baseline is set the statistics above only
+	// cover disturbed machines
+	protected String fleetKey;		// describes how the fleet was built
+	protected BaselineLoad baseline;	// undisturbed load, null if not in delta mode
+	protected boolean disturbed[];	// is the machine simulated on its own?
+	protected int disturbedList[];	// the disturbed machines
+	protected int numDisturbed;
+	protected boolean live;			// are undisturbed machines being stepped?
+	protected double shadowLoad;	// undisturbed load of the disturbed machines
+	protected int shadowOnLoad;		// and how many would be on heating load
+
+	protected ApplianceTracer tracer;	// records what sampled machines do, or null
+
+	// Water temperatures, each as it was at tempClock
+	public static final int DECAY_TABLE = 4096;
+	protected ThermalModel thermal = new ThermalModel();
+	protected float decay[];		// thermal decay over 0 to DECAY_TABLE - 1 ticks
+	protected float temp[];			// water temperature of each machine
+	protected int tempClock[];		// clock its temperature is for
+	protected float target[];		// wash temperature of its programme
+
+	// Machines built together by one task of build()
+	protected static final int BUILD_BLOCK = 1 << 16;
+	protected int buildThreads;		// threads build() used, or 0 if built by a constructor
+
+	// Baselines already worked out, by fleet, least recently used
+	// dropped first as every seed of an ensemble needs its own
+	protected static final int MAX_BASELINES = 16;
+	protected static LinkedHashMap<String, BaselineLoad> baselines = new LinkedHashMap<String, BaselineLoad>(16, 0.75F, true) {
+		protected boolean removeEldestEntry(Map.Entry<String, BaselineLoad> eldest) {
+			return size() > MAX_BASELINES;
+		}
+	};
+
+	/**
+	 * Constructor for DishwasherFleet class
+	 *
+	 * @param numWashers	number of dishwashers in 'fleet'
+	 * @param ecoPc			percentage running an 'Eco' programme
+	 * @param tick			tick length in seconds
+	 * @param seed			seed for the fleet's random number generator
+	 */
+	public DishwasherFleet(int numWashers, float ecoPc, double tick, long seed) {
+		this(numWashers, ecoPc, tick, seed, false);
+	}
+
+	/**
+	 * Constructor for DishwasherFleet class, or for the antithetic
+	 * partner of the fleet built from the same seed
+	 *
+	 * @param numWashers	number of dishwashers in 'fleet'
+	 * @param ecoPc			percentage running an 'Eco' programme
+	 * @param tick			tick length in seconds
+	 * @param seed			seed for the fleet's random number generator
+	 * @param antithetic	true for the antithetic partner
+	 */
+	public DishwasherFleet(int numWashers, float ecoPc, double tick, long seed, boolean antithetic) {
+		this.name = "dishwashers";
+		this.numAppliances = numWashers;
+		this.pcEco = ecoPc;
+		this.tick = tick;
+		this.antithetic = antithetic;
+		rngen = new AntitheticRandom(seed, antithetic);
+		allocate(numWashers, numWashers * 5);
+		buildMachines(seed);
+	}
+
+	/**
+	 * Constructor for a DishwasherFleet whose machines each run a
+	 * programme drawn from a library
+	 *
+	 * @param numWashers	number of dishwashers in 'fleet'
+	 * @param library		the programmes
+	 * @param tick			tick length in seconds
+	 * @param seed			seed for the fleet's random number generator
+	 * @param antithetic	true for the antithetic partner
+	 * @throws IllegalArgumentException	if the library is empty
+	 */
+	public DishwasherFleet(int numWashers, ProgrammeLibrary library, double tick, long seed, boolean antithetic) {
+		if (library.size() == 0) {
+			throw new IllegalArgumentException("Programme library " + library.getKey() + " is empty");
+		}
+		this.name = "dishwashers";
+		this.numAppliances = numWashers;
+		this.library = library;
+		this.tick = tick;
+		this.antithetic = antithetic;
+		rngen = new AntitheticRandom(seed, antithetic);
+		allocate(numWashers, numWashers * 5);
+		buildMachines(seed);
+	}
+
+	/**
+	 * Build the fleet again in place, as the constructor or build()
+	 * that made it would from the given seed.  The tables and indexes
+	 * already allocated are reused, the Dynamic Demand settings are
+	 * kept and delta mode is left.
+	 *
+	 * @param ecoPc			percentage running an 'Eco' programme, unless
+	 * 						drawn from a library
+	 * @param seed			seed for the fleet's random number generator
+	 * @param antithetic	true for the antithetic partner
+	 */
+	public void reset(float ecoPc, long seed, boolean antithetic) {
+		this.pcEco = ecoPc;
+		this.antithetic = antithetic;
+		numTableSteps = 0;
+		Arrays.fill(state, 0);
+		Arrays.fill(totDelay, 0);
+		Arrays.fill(disturbed, false);
+		numDisturbed = 0;
+		baseline = null;
+		live = false;
+		shadowLoad = 0;
+		shadowOnLoad = 0;
+		tripLoad = 0;
+		delayed.clear();
+		numReleased = 0;
+		if (buildThreads > 0) {
+			buildBlocks(seed, buildThreads);
+		} else {
+			if (rngen == null) {
+				rngen = new AntitheticRandom(seed, antithetic);
+			} else {
+				rngen.reset(seed, antithetic);
+			}
+			buildMachines(seed);
+		}
+	}
+
+	/**
+	 * Give every machine its programme and place in it from rngen
+	 *
+	 * @param seed		seed rngen was started from, for the fleet key
+	 */
+	protected void buildMachines(long seed) {
+		for (int n = 0; n < numAppliances; n++) {
+			int totalRunTime;
+			if (library != null) {
+				int k = Math.min((int) (rngen.nextDouble() * library.size()), library.size() - 1);
+				totalRunTime = addProgramme(n, library.getSteps(k), rngen);
+				target[n] = library.getTarget(k);
+			} else {
+				int prog[];
+				if ((rngen.nextDouble() * 100) < pcEco) {
+					prog = DishwasherLoad.ECO_PROGRAMME;
+				} else {
+					prog = DishwasherLoad.STANDARD_PROGRAMME;
+				}
+				totalRunTime = addProgramme(n, IntBuffer.wrap(prog), rngen);
+				target[n] = DishwasherLoad.targetTemp(prog);
+			}
+			setRuntime(n, rngen.nextDouble() * totalRunTime);
+			phase0[n] = stepEnd[tableStep(n)] - remain(n);
+			// the same stream for both partners, nextFloat() mirrors it
+			rseed[n] = rngen.nextPlainLong();
+		}
+		fleetKey = "DishwasherFleet " + numAppliances + " " + (library != null ? library.getKey() : pcEco) + " " + tick + " " + seed
+				+ (antithetic ? " antithetic" : "");
+		initStats();
+	}
+
+	/**
+	 * Constructor for a DishwasherFleet whose machines are set up
+	 * by the caller
+	 *
+	 * @param numWashers	number of dishwashers in 'fleet'
+	 * @param ecoPc			percentage running an 'Eco' programme
+	 * @param tick			tick length in seconds
+	 * @param antithetic	true for the antithetic partner
+	 */
+	protected DishwasherFleet(int numWashers, float ecoPc, double tick, boolean antithetic) {
+		this.name = "dishwashers";
+		this.numAppliances = numWashers;
+		this.pcEco = ecoPc;
+		this.tick = tick;
+		this.antithetic = antithetic;
+		// build() sizes the programme tables itself
+		allocate(numWashers, 0);
+	}
+
+	/**
+	 * Build a fleet on several threads.  Each machine draws its
+	 * programme, its phase and then its running decisions from its own
+	 * stream, seeded by mixing its number into the fleet seed, so the
+	 * fleet is the same however many threads build it.  It is not the
+	 * fleet the constructor builds from the same seed.
+	 *
+	 * The programme tables are filled in three passes over blocks of
+	 * machines: count each block's steps, add up the counts to give
+	 * each block its place in the tables, then fill the blocks.  No
+	 * Programme objects are made.
+	 *
+	 * @param numWashers	number of dishwashers in 'fleet'
+	 * @param ecoPc			percentage running an 'Eco' programme
+	 * @param tick			tick length in seconds
+	 * @param seed			seed for the fleet
+	 * @param antithetic	true for the antithetic partner
+	 * @param threads		number of threads to build it with
+	 * @return				the fleet
+	 */
+	public static DishwasherFleet build(int numWashers, float ecoPc, double tick, long seed, boolean antithetic, int threads) {
+		DishwasherFleet df = new DishwasherFleet(numWashers, ecoPc, tick, antithetic);
+		df.buildThreads = Math.max(1, threads);
+		df.buildBlocks(seed, df.buildThreads);
+		return df;
+	}
+
+	/**
+	 * Give every machine its programme and place in it as build()
+	 * does, reusing the programme tables if they are big enough
+	 *
+	 * @param seed		seed for the fleet
+	 * @param threads	number of threads to build it with
+	 */
+	protected void buildBlocks(final long seed, int threads) {
+		final int numBlocks = (numAppliances + BUILD_BLOCK - 1) / BUILD_BLOCK;
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, numBlocks)));
+		try {
+			ArrayList<Callable<Integer>> count = new ArrayList<Callable<Integer>>();
+			for (int b = 0; b < numBlocks; b++) {
+				final int block = b;
+				count.add(new Callable<Integer>() {
+					public Integer call() {
+						return countBlock(block, seed);
+					}
+				});
+			}
+			List<Future<Integer>> counted = pool.invokeAll(count);
+			final int blockStart[] = new int[numBlocks];
+			int total = 0;
+			for (int b = 0; b < numBlocks; b++) {
+				blockStart[b] = total;
+				total += counted.get(b).get();
+			}
+			if (stepTicks.length < total) {
+				stepTicks = new int[total];
+				stepPower = new int[total];
+				stepEnd = new int[total];
+			}
+			numTableSteps = total;
+
+			ArrayList<Callable<Integer>> fill = new ArrayList<Callable<Integer>>();
+			for (int b = 0; b < numBlocks; b++) {
+				final int block = b;
+				fill.add(new Callable<Integer>() {
+					public Integer call() {
+						fillBlock(block, blockStart[block], seed);
+						return block;
+					}
+				});
+			}
+			for (Future<Integer> f : pool.invokeAll(fill)) {
+				f.get();
+			}
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted building fleet", ie);
+		}
+		catch (ExecutionException ee) {
+			if (ee.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ee.getCause();
+			}
+			throw new RuntimeException("Fleet build failed", ee.getCause());
+		}
+		finally {
+			pool.shutdown();
+		}
+		fleetKey = "DishwasherFleet built " + numAppliances + " " + pcEco + " " + tick + " " + seed
+				+ (antithetic ? " antithetic" : "");
+		initStats();
+	}
+
+	/**
+	 * Start a machine's own stream and choose its programme
+	 *
+	 * @param n		machine number
+	 * @param seed	seed for the fleet
+	 * @return		the programme, as DishwasherLoad
+	 */
+	protected int[] chooseProgramme(int n, long seed) {
+		rseed[n] = Scenario.mix(seed, n);
+		return (nextFloat(n) * 100) < pcEco ? DishwasherLoad.ECO_PROGRAMME : DishwasherLoad.STANDARD_PROGRAMME;
+	}
+
+	/**
+	 * First pass of build(): the number of steps of each machine
+	 *
+	 * @param block		block of machines
+	 * @param seed		seed for the fleet
+	 * @return			steps in the block
+	 */
+	protected int countBlock(int block, long seed) {
+		int end = Math.min(numAppliances, (block + 1) * BUILD_BLOCK);
+		int count = 0;
+		for (int n = block * BUILD_BLOCK; n < end; n++) {
+			progSteps[n] = chooseProgramme(n, seed).length / 2;
+			if (progSteps[n] > STEP_BITS + 1) {
+				throw new IllegalArgumentException("Programme has more than " + (STEP_BITS + 1) + " steps");
+			}
+			count += progSteps[n];
+		}
+		return count;
+	}
+
+	/**
+	 * Last pass of build(): randomise each machine's programme into
+	 * the tables, as Programme does, and place it in its programme
+	 *
+	 * @param block		block of machines
+	 * @param start		index in the tables of the block's first step
+	 * @param seed		seed for the fleet
+	 */
+	protected void fillBlock(int block, int start, long seed) {
+		int end = Math.min(numAppliances, (block + 1) * BUILD_BLOCK);
+		int pos = start;
+		for (int n = block * BUILD_BLOCK; n < end; n++) {
+			// start the stream again, the count pass kept only the length
+			int prog[] = chooseProgramme(n, seed);
+			progStart[n] = pos;
+			target[n] = DishwasherLoad.targetTemp(prog);
+			int totalRunTime = 0;
+			for (int i = 0; i < progSteps[n]; i++, pos++) {
+				int time = prog[i*2] - (int)(prog[i*2] * (randPc/2)) + (int)(prog[i*2] * randPc * nextFloat(n));
+				int power = prog[i*2 + 1] - (int)(prog[i*2 + 1] * (randPc/2)) + (int)(prog[i*2 + 1] * randPc * nextFloat(n));
+				stepTicks[pos] = Math.max(1, (int) Math.round(time / tick));
+				if (stepTicks[pos] > REMAIN_BITS) {
+					throw new IllegalArgumentException("Programme step of " + time + "s is too many ticks");
+				}
+				stepPower[pos] = power;
+				stepEnd[pos] = stepTicks[pos] + (i > 0 ? stepEnd[pos - 1] : 0);
+				totalRunTime += time;
+			}
+			setRuntime(n, nextFloat(n) * (double) totalRunTime);
+			phase0[n] = stepEnd[tableStep(n)] - remain(n);
+		}
+	}
+
+	/**
+	 * Make the arrays for the machines and the indexes
+	 *
+	 * @param numWashers	number of dishwashers in 'fleet'
+	 * @param tableSteps	room to make in the programme tables, which
+	 * 						grow as needed
+	 */
+	protected void allocate(int numWashers, int tableSteps) {
+		progStart = new int[numWashers];
+		progSteps = new int[numWashers];
+		stepTicks = new int[tableSteps];
+		stepPower = new int[tableSteps];
+		stepEnd = new int[tableSteps];
+		numTableSteps = 0;
+		phase0 = new int[numWashers];
+
+		state = new int[numWashers];
+		totDelay = new int[numWashers];
+		delayZero = new int[numWashers];
+		retryAt = new int[numWashers];
+		rseed = new long[numWashers];
+		disturbed = new boolean[numWashers];
+		disturbedList = new int[numWashers];
+
+		heating = new ThresholdIndex(numWashers, turnofffreq - 0.5F, turnofffreq + 0.2F, 0.001F);
+		delayed = new TimerQueue(numWashers);
+		released = new int[numWashers];
+		kernel = StepKernel.create();
+		ended = new int[numWashers];
+
+		temp = new float[numWashers];
+		tempClock = new int[numWashers];
+		target = new float[numWashers];
+		decay = new float[DECAY_TABLE];
+		for (int k = 0; k < DECAY_TABLE; k++) {
+			decay[k] = thermal.decay(k * tick);
+		}
+	}
+
+	/**
+	 * Constructor for DishwasherFleet class using the repeatable
+	 * seed and 0.1s tick of DishwasherLoad
+	 *
+	 * @param numWashers	number of dishwashers in 'fleet'
+	 * @param ecoPc			percentage running an 'Eco' programme
+	 */
+	public DishwasherFleet(int numWashers, float ecoPc) {
+		this(numWashers, ecoPc, 0.1, 987654321L);
+	}
+
+	/**
+	 * Set up the fleet statistics and the heating index from the
+	 * current state of every machine, which must not be delayed
+	 */
+	protected void initStats() {
+		if (delays == null) {
+			delays = new MaxDelayTracker();
+		} else {
+			delays.clear();
+		}
+		clock = 0;
+		load = 0;
+		numOnLoad = 0;
+		numDelay = 0;
+		for (int n = 0; n < numAppliances; n++) {
+			addLoad(n, stepPower[tableStep(n)]);
+			delays.addFixed(totDelay[n]);
+			// the water as it would be having run from cold to here
+			temp[n] = (float) thermal.ambient;
+			tempClock[n] = -phase0[n];
+			replayTemp(n, 0);
+		}
+		updatePercentages();
+		indexHeating();
+	}
+
+	/**
+	 * Rebuild the heating index for the current turn-off frequency
+	 */
+	protected void indexHeating() {
+		heating.setRange(turnofffreq - 0.5F, turnofffreq + 0.2F, 0.001F);
+		for (int n = 0; n < numAppliances; n++) {
+			int s = tableStep(n);
+			if (state[n] >= 0 && stepPower[s] > minheatload) {
+				heating.put(n, propTurnOff(n));
+			}
+		}
+	}
+
+	/**
+	 * Add a machine's power to the fleet statistics.  In delta mode
+	 * only disturbed machines are counted.
+	 *
+	 * @param n			machine number
+	 * @param power		power in Watts, negative to remove it
+	 */
+	protected final void addLoad(int n, int power) {
+		if (baseline != null && !disturbed[n]) {
+			return;
+		}
+		load += power;
+		if (power > 200) {
+			numOnLoad++;
+		} else if (power < -200) {
+			numOnLoad--;
+		}
+	}
+
+	/**
+	 * Turn the fleet counters into percentages for output
+	 */
+	protected void updatePercentages() {
+		int on = numOnLoad;
+		if (baseline != null) {
+			on += baseline.onLoad[clock] - shadowOnLoad;
+		}
+		pcOnLoad = 100 * ((float) on / (float) numAppliances);
+		pcDelay  = 100 * ((float) numDelay / (float) numAppliances);
+		maxtotdelay = delays.getMax(clock) * tick;
+	}
+
+	/**
+	 * Copy a machine's programme into the programme tables
+	 *
+	 * @param n		machine number
+	 * @param p		its programme
+	 */
+	protected void addProgramme(int n, Programme p) {
+		if (p.numSteps > STEP_BITS + 1) {
+			throw new IllegalArgumentException("Programme has more than " + (STEP_BITS + 1) + " steps");
+		}
+		if (numTableSteps + p.numSteps > stepTicks.length) {
+			int size = Math.max(stepTicks.length * 2, numTableSteps + p.numSteps);
+			stepTicks = Arrays.copyOf(stepTicks, size);
+			stepPower = Arrays.copyOf(stepPower, size);
+			stepEnd = Arrays.copyOf(stepEnd, size);
+		}
+		progStart[n] = numTableSteps;
+		progSteps[n] = p.numSteps;
+		target[n] = DishwasherLoad.STANDARD_TEMP;	// a Programme does not say which it is
+		for (int i = 0; i < p.numSteps; i++) {
+			stepTicks[numTableSteps] = Math.max(1, (int) Math.round(p.steps[i].stepTime / tick));
+			if (stepTicks[numTableSteps] > REMAIN_BITS) {
+				throw new IllegalArgumentException("Programme step of " + p.steps[i].stepTime + "s is too many ticks");
+			}
+			stepPower[numTableSteps] = p.steps[i].power;
+			stepEnd[numTableSteps] = stepTicks[numTableSteps] + (i > 0 ? stepEnd[numTableSteps - 1] : 0);
+			numTableSteps++;
+		}
+	}
+
+	/**
+	 * Copy a machine's programme into the programme tables,
+	 * randomised as Programme does without making one.  Each step is
+	 * randomised on its own, so every machine has its own copy, 12
+	 * bytes a step, whether the programme is one of DishwasherLoad's
+	 * or read from a library.
+	 *
+	 * @param n			machine number
+	 * @param prog		the programme's time/power pairs, as DishwasherLoad
+	 * @param rgen		random number generator to use
+	 * @return			total run time in seconds
+	 */
+	protected int addProgramme(int n, IntBuffer prog, Random rgen) {
+		int numSteps = prog.limit() / 2;
+		if (numSteps > STEP_BITS + 1) {
+			throw new IllegalArgumentException("Programme has more than " + (STEP_BITS + 1) + " steps");
+		}
+		if (numTableSteps + numSteps > stepTicks.length) {
+			int size = Math.max(stepTicks.length * 2, numTableSteps + numSteps);
+			stepTicks = Arrays.copyOf(stepTicks, size);
+			stepPower = Arrays.copyOf(stepPower, size);
+			stepEnd = Arrays.copyOf(stepEnd, size);
+		}
+		progStart[n] = numTableSteps;
+		progSteps[n] = numSteps;
+		int totalRunTime = 0;
+		for (int i = 0; i < numSteps; i++) {
+			int t = prog.get(i*2);
+			int p = prog.get(i*2 + 1);
+			int time = t - (int)(t * (randPc/2)) + (int)(t * randPc * rgen.nextFloat());
+			int power = p - (int)(p * (randPc/2)) + (int)(p * randPc * rgen.nextFloat());
+			stepTicks[numTableSteps] = Math.max(1, (int) Math.round(time / tick));
+			if (stepTicks[numTableSteps] > REMAIN_BITS) {
+				throw new IllegalArgumentException("Programme step of " + time + "s is too many ticks");
+			}
+			stepPower[numTableSteps] = power;
+			stepEnd[numTableSteps] = stepTicks[numTableSteps] + (i > 0 ? stepEnd[numTableSteps - 1] : 0);
+			totalRunTime += time;
+			numTableSteps++;
+		}
+		return totalRunTime;
+	}
+
+	/**
+	 * Draw from a machine's own random number stream (SplitMix64), so
+	 * that the draws a machine gets do not depend on the order in
+	 * which machines are visited.
+	 *
+	 * @param n		machine number
+	 * @return		uniform random number in [0, 1)
+	 */
+	protected final float nextFloat(int n) {
+		long z = (rseed[n] += 0x9E3779B97F4A7C15L);
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		z = z ^ (z >>> 31);
+		if (antithetic) {
+			z = ~z;
+		}
+		return (z >>> 40) * 0x1.0p-24f;
+	}
+
+	/**
+	 * Set a machine's progress through its programme
+	 *
+	 * @param n		machine number
+	 * @param t		elapsed runtime in seconds
+	 */
+	protected void setRuntime(int n, double t) {
+		int elapsed = (int) (t / tick);
+		int s = 0;
+		while (s < progSteps[n] - 1 && elapsed >= stepTicks[progStart[n] + s]) {
+			elapsed -= stepTicks[progStart[n] + s];
+			s++;
+		}
+		setStep(n, s, Math.max(1, stepTicks[progStart[n] + s] - elapsed));
+	}
+
+	/**
+	 * @param n		machine number
+	 * @return		its current step in the programme tables
+	 */
+	protected final int tableStep(int n) {
+		return progStart[n] + ((state[n] >>> STEP_SHIFT) & STEP_BITS);
+	}
+
+	/**
+	 * @param n		machine number
+	 * @return		its current step number
+	 */
+	protected final int step(int n) {
+		return (state[n] >>> STEP_SHIFT) & STEP_BITS;
+	}
+
+	/**
+	 * @param n		machine number
+	 * @return		ticks remaining in its current step
+	 */
+	protected final int remain(int n) {
+		return state[n] & REMAIN_BITS;
+	}
+
+	/**
+	 * Set a machine's step, keeping its delay flag
+	 *
+	 * @param n			machine number
+	 * @param step		step number
+	 * @param remain	ticks remaining in the step
+	 */
+	protected final void setStep(int n, int step, int remain) {
+		state[n] = (state[n] & DELAYED) | (step << STEP_SHIFT) | remain;
+	}
+
+	/**
+	 * @param s		step in the programme tables
+	 * @return		power going into the water while on it
+	 */
+	protected final float heatPower(int s) {
+		return stepPower[s] > minheatload ? stepPower[s] : 0;
+	}
+
+	/**
+	 * @param k		ticks
+	 * @return		thermal decay over that many ticks
+	 */
+	protected final float decayTicks(int k) {
+		return k < DECAY_TABLE ? decay[k] : thermal.decay(k * tick);
+	}
+
+	/**
+	 * A machine's water temperature at a clock time.  It is heated
+	 * by its step unless delayed.  In delta mode a machine which has
+	 * never been delayed may not have been stepped, so it is followed
+	 * through its programme instead.
+	 *
+	 * The temperature held is only moved on when the machine changes
+	 * state, so that a machine which is not delayed gets the same
+	 * temperatures whether it is stepped or followed, and delta mode
+	 * stays exact.
+	 *
+	 * @param n		machine number
+	 * @param c		clock, not before its temperature's
+	 * @return		temperature
+	 */
+	protected final float tempAt(int n, int c) {
+		float heat;
+		if (baseline != null && !disturbed[n]) {
+			heat = heatPower(replayTemp(n, c));
+		} else {
+			heat = state[n] < 0 ? 0 : heatPower(tableStep(n));
+		}
+		int k = c - tempClock[n];
+		if (k <= 0) {
+			return temp[n];
+		}
+		float tss = thermal.steady(heat);
+		return tss + (temp[n] - tss) * decayTicks(k);
+	}
+
+	/**
+	 * Move a machine's temperature on to a clock time, before it
+	 * changes state
+	 *
+	 * @param n		machine number
+	 * @param c		clock, not before its temperature's
+	 */
+	protected final void commitTemp(int n, int c) {
+		temp[n] = tempAt(n, c);
+		tempClock[n] = Math.max(c, tempClock[n]);
+	}
+
+	/**
+	 * Move the temperature of a machine which has never been delayed
+	 * on to the start of the step it is on at a clock time, a
+	 * programme step at a time
+	 *
+	 * @param n		machine number
+	 * @param c		clock
+	 * @return		the step it is on, in the programme tables
+	 */
+	protected int replayTemp(int n, int c) {
+		int first = progStart[n];
+		int cycle = stepEnd[first + progSteps[n] - 1];
+		int c0 = tempClock[n];
+		float t = temp[n];
+		while (true) {
+			int e = (int) ((phase0[n] + (long) c0) % cycle);
+			int s = first;
+			while (stepEnd[s] <= e) {
+				s++;
+			}
+			int end = c0 + stepEnd[s] - e;
+			if (end > c) {
+				temp[n] = t;
+				tempClock[n] = c0;
+				return s;
+			}
+			float tss = thermal.steady(heatPower(s));
+			t = tss + (t - tss) * decayTicks(end - c0);
+			c0 = end;
+		}
+	}
+
+	/**
+	 * How warm the water is, the temperature PropFreqRandomDelay
+	 * goes by
+	 *
+	 * @param n		machine number
+	 * @return		0 at ambient to 1 at the wash temperature
+	 */
+	protected final float warmth(int n) {
+		return thermal.warmth(tempAt(n, clock), target[n]);
+	}
+
+	/**
+	 * The PropFreqRandomDelay turn-off frequency, which falls as the
+	 * water heats.  For RandomDelay it is fixed.
+	 *
+	 * @param n		machine number
+	 * @return		turn-off frequency
+	 */
+	protected final float propTurnOff(int n) {
+		return turnOff(warmth(n));
+	}
+
+	/**
+	 * @param warmth		how warm the water is
+	 * @return				turn-off frequency
+	 */
+	protected final float turnOff(float warmth) {
+		if (!proportional) {
+			return turnofffreq;
+		}
+		return turnofffreq + (0.1F * (1.0F - warmth));
+	}
+
+	/**
+	 * Draw the time to a delayed machine's next frequency test
+	 *
+	 * @param n				machine number
+	 * @param warmth		how warm the water is now, scaling the delay; on a
+	 * 						retry it has cooled since the delay started
+	 * @param maxOffTicks	maximum time for any one delay in ticks
+	 * @return				ticks from now
+	 */
+	protected final int retryTicks(int n, float warmth, float maxOffTicks) {
+		if (!proportional) {
+			return (int) (nextFloat(n) * maxOffTicks + (float) (minofftime / tick)) + 1;
+		}
+		return (int) (nextFloat(n) * maxOffTicks * (1 - warmth)) + 1;
+	}
+
+	/**
+	 * Choose the regime the fleet runs
+	 *
+	 * @param proportional	true for PropFreqRandomDelay, false for RandomDelay
+	 */
+	public void setProportional(boolean proportional) {
+		this.proportional = proportional;
+		indexHeating();
+	}
+
+	/**
+	 * method to step every machine and calculate the total load of
+	 * the 'fleet'
+	 *
+	 * @param dT		simulation step time, a multiple of the tick
+	 * @param freq		grid frequency
+	 * @return			total load of 'fleet'
+	 */
+	public double calcLoad(double dT, double freq) {
+		int t = (int) Math.round(dT / tick);
+		int maxDelayTicks = (int) Math.round(maxdelaytime / tick);
+		float maxOffTicks = (float) (maxofftime / tick);
+
+		if (baseline != null) {
+			if (t != 1 || clock + t > baseline.numTicks) {
+				leaveDeltaMode();
+			} else if (freq < turnofffreq + 0.1F) {
+				// some machine may turn off
+				if (!live) {
+					goLive();
+				}
+			} else {
+				live = false;
+			}
+		}
+		clock += t;
+		tripLoad = 0;
+
+		// Delayed machines due a frequency test or at their delay limit.
+		// A released machine does not run until the next step, so the
+		// releases are held back until the others have been stepped.
+		numReleased = 0;
+		while (!delayed.isEmpty() && delayed.peekDue() <= clock) {
+			int n = delayed.pop();
+			if (clock - delayZero[n] >= maxDelayTicks || freq >= turnonfreq) {
+				released[numReleased++] = n;
+				if (tracer != null && tracer.isTraced(n)) {
+					tracer.record(clock, n, clock - delayZero[n] >= maxDelayTicks ? ApplianceTracer.FORCED : ApplianceTracer.RELEASE,
+							step(n), clock - delayZero[n]);
+				}
+			} else {
+				retryAt[n] = clock + retryTicks(n, warmth(n), maxOffTicks);
+				schedule(n, maxDelayTicks);
+				if (tracer != null && tracer.isTraced(n)) {
+					tracer.record(clock, n, ApplianceTracer.RETRY, step(n), retryAt[n] - clock);
+				}
+			}
+		}
+
+		// Count down every running machine's programme step
+		if (baseline == null || live) {
+			int numEnded = kernel.countDown(state, numAppliances, t, ended);
+			for (int i = 0; i < numEnded; i++) {
+				int n = ended[i];
+				nextStep(n, remain(n) - t, freq, maxOffTicks, maxDelayTicks);
+			}
+		} else {
+			for (int i = 0; i < numDisturbed; i++) {
+				int n = disturbedList[i];
+				int st = state[n];
+				if (st >= 0) {
+					if ((st & REMAIN_BITS) <= t) {
+						nextStep(n, (st & REMAIN_BITS) - t, freq, maxOffTicks, maxDelayTicks);
+					} else {
+						state[n] = st - t;
+					}
+				}
+			}
+		}
+
+		// Test only those heating machines whose turn-off frequency
+		// may be above the grid frequency
+		for (int b = heating.firstBucket(freq); b < heating.numBuckets; b++) {
+			int n = heating.head[b];
+			while (n >= 0) {
+				int next = heating.next[n];
+				int s = tableStep(n);
+				// machines that started heating this step were tested then
+				if (remain(n) < stepTicks[s]) {
+					float warmth = warmth(n);
+					float propturnoff = turnOff(warmth);
+					if (freq < propturnoff) {
+						heating.remove(n);
+						startDelay(n, s, warmth, maxOffTicks, maxDelayTicks);
+					} else {
+						heating.put(n, propturnoff);
+					}
+				}
+				n = next;
+			}
+		}
+
+		for (int i = 0; i < numReleased; i++) {
+			release(released[i]);
+		}
+
+		if (baseline != null) {
+			calcShadow();
+			updatePercentages();
+			return baseline.load[clock] + load - shadowLoad + tripLoad;
+		}
+		updatePercentages();
+		return load + tripLoad;
+	}
+
+	/**
+	 * Work out the undisturbed load of the disturbed machines, which
+	 * is included in the baseline and must be taken off it
+	 */
+	protected void calcShadow() {
+		shadowLoad = 0;
+		shadowOnLoad = 0;
+		for (int i = 0; i < numDisturbed; i++) {
+			int n = disturbedList[i];
+			int p = stepPower[undisturbedStep(n, clock)];
+			shadowLoad += p;
+			if (p > 200) {
+				shadowOnLoad++;
+			}
+		}
+	}
+
+	/**
+	 * Find the step an undisturbed machine would be on
+	 *
+	 * @param n		machine number
+	 * @param c		clock
+	 * @return		step in the programme tables
+	 */
+	protected final int undisturbedStep(int n, int c) {
+		int first = progStart[n];
+		int last = first + progSteps[n] - 1;
+		int e = (int) ((phase0[n] + (long) c) % stepEnd[last]);
+		int s = first;
+		while (stepEnd[s] <= e) {
+			s++;
+		}
+		return s;
+	}
+
+	/**
+	 * Bring an undisturbed machine's state up to date
+	 *
+	 * @param n		machine number
+	 */
+	protected void syncUndisturbed(int n) {
+		replayTemp(n, clock);
+		int first = progStart[n];
+		int last = first + progSteps[n] - 1;
+		int e = (int) ((phase0[n] + (long) clock) % stepEnd[last]);
+		int s = undisturbedStep(n, clock);
+		setStep(n, s - first, stepEnd[s] - e);
+	}
+
+	/**
+	 * Start stepping the undisturbed machines, as the frequency has
+	 * fallen far enough for some of them to turn off
+	 */
+	protected void goLive() {
+		for (int n = 0; n < numAppliances; n++) {
+			if (!disturbed[n]) {
+				syncUndisturbed(n);
+				int s = tableStep(n);
+				if (stepPower[s] > minheatload) {
+					heating.put(n, propTurnOff(n));
+				} else {
+					heating.remove(n);
+				}
+			}
+		}
+		live = true;
+	}
+
+	/**
+	 * Leave delta mode and step every machine from now on
+	 */
+	protected void leaveDeltaMode() {
+		load = 0;
+		numOnLoad = 0;
+		for (int n = 0; n < numAppliances; n++) {
+			if (!disturbed[n]) {
+				syncUndisturbed(n);
+			}
+			if (state[n] >= 0) {
+				int p = stepPower[tableStep(n)];
+				load += p;
+				if (p > 200) {
+					numOnLoad++;
+				}
+			}
+		}
+		baseline = null;
+		live = false;
+		indexHeating();
+	}
+
+	/**
+	 * Work out the undisturbed load of the fleet, tick by tick, from
+	 * the state it was built in.  Each machine only needs looking at
+	 * when it changes step.
+	 *
+	 * @param numTicks	number of ticks to cover
+	 * @return			the baseline
+	 */
+	public BaselineLoad calcBaseline(int numTicks) {
+		BaselineLoad bl = new BaselineLoad(fleetKey, numTicks);
+		double start = 0;
+		int startOn = 0;
+		double dLoad[] = bl.load;	// changes in load, summed below
+		int dOn[] = bl.onLoad;
+		for (int n = 0; n < numAppliances; n++) {
+			int first = progStart[n];
+			int s = undisturbedStep(n, 0);
+			int c = stepEnd[s] - (phase0[n] % stepEnd[first + progSteps[n] - 1]);
+			int p = stepPower[s];
+			start += p;
+			if (p > 200) {
+				startOn++;
+			}
+			while (c <= numTicks) {
+				s = (s == first + progSteps[n] - 1) ? first : s + 1;
+				dLoad[c] += stepPower[s] - p;
+				dOn[c] += (stepPower[s] > 200 ? 1 : 0) - (p > 200 ? 1 : 0);
+				p = stepPower[s];
+				c += stepTicks[s];
+			}
+		}
+		dLoad[0] += start;
+		dOn[0] += startOn;
+		for (int c = 1; c <= numTicks; c++) {
+			dLoad[c] += dLoad[c - 1];
+			dOn[c] += dOn[c - 1];
+		}
+		return bl;
+	}
+
+	/**
+	 * Run in delta mode against a baseline.  Only allowed before the
+	 * first step, and every step must then be one tick.
+	 *
+	 * @param bl		baseline worked out for an identical fleet
+	 */
+	public void setBaseline(BaselineLoad bl) {
+		if (!bl.fleetKey.equals(fleetKey)) {
+			throw new IllegalArgumentException("Baseline is for " + bl.fleetKey + ", not " + fleetKey);
+		}
+		if (clock != 0) {
+			throw new IllegalStateException("Baseline must be set before the fleet is stepped");
+		}
+		baseline = bl;
+		load = 0;
+		numOnLoad = 0;
+		live = false;
+		disturbTraced();
+	}
+
+	/**
+	 * Run in delta mode, using the baseline already worked out for
+	 * an identical fleet if there is one
+	 *
+	 * @param numTicks	number of ticks the baseline should cover
+	 */
+	public void useBaseline(int numTicks) {
+		BaselineLoad bl;
+		synchronized (baselines) {
+			bl = baselines.get(fleetKey);
+			if (bl == null || bl.numTicks < numTicks) {
+				bl = calcBaseline(numTicks);
+				baselines.put(fleetKey, bl);
+			}
+		}
+		setBaseline(bl);
+	}
+
+	/**
+	 * Move a machine on to the next step of its programme, testing
+	 * the frequency if the new step is a heating step
+	 *
+	 * @param n				machine number
+	 * @param left			ticks left in the old step, zero or less
+	 * @param freq			grid frequency
+	 * @param maxOffTicks	maximum time for any one delay in ticks
+	 * @param maxDelayTicks	maximum total delay in ticks
+	 */
+	protected void nextStep(int n, int left, double freq, float maxOffTicks, int maxDelayTicks) {
+		int s = tableStep(n);
+		// PropFreqRandomDelay tests the new step against the
+		// temperature the old one left the water at
+		commitTemp(n, clock + left);
+		float warmth = thermal.warmth(temp[n], target[n]);
+		float propturnoff = turnOff(warmth);
+		heating.remove(n);
+		addLoad(n, -stepPower[s]);
+		int st = step(n) + 1;
+		if (st >= progSteps[n]) {
+			st = 0;
+			delays.changeFixed(totDelay[n], 0);
+			totDelay[n] = 0;
+		}
+		s = progStart[n] + st;
+		setStep(n, st, stepTicks[s]);
+		addLoad(n, stepPower[s]);
+		if (tracer != null && tracer.isTraced(n)) {
+			tracer.record(clock, n, ApplianceTracer.STEP, st, stepPower[s]);
+		}
+		if (stepPower[s] > minheatload) {
+			if (freq < propturnoff) {
+				startDelay(n, s, warmth, maxOffTicks, maxDelayTicks);
+			} else {
+				heating.put(n, propTurnOff(n));
+			}
+		}
+	}
+
+	/**
+	 * Delay a machine
+	 *
+	 * @param n				machine number
+	 * @param s				its current step in the programme tables
+	 * @param warmth		how warm the water is, scaling the delay
+	 * @param maxOffTicks	maximum time for any one delay in ticks
+	 * @param maxDelayTicks	maximum total delay in ticks
+	 */
+	protected void startDelay(int n, int s, float warmth, float maxOffTicks, int maxDelayTicks) {
+		if (baseline != null && !disturbed[n]) {
+			disturb(n);
+		}
+		commitTemp(n, clock);
+		state[n] |= DELAYED;
+		addLoad(n, -stepPower[s]);
+		tripLoad += stepPower[progStart[n]];
+		numDelay++;
+		delays.removeFixed(totDelay[n]);
+		delays.addRunning(clock, totDelay[n]);
+		delayZero[n] = clock - totDelay[n];
+		retryAt[n] = clock + retryTicks(n, warmth, maxOffTicks);
+		schedule(n, maxDelayTicks);
+		if (tracer != null && tracer.isTraced(n)) {
+			tracer.record(clock, n, ApplianceTracer.DELAY, step(n), retryAt[n] - clock);
+		}
+	}
+
+	/**
+	 * From now on simulate a machine on its own in delta mode.  It
+	 * must not be delayed.
+	 *
+	 * @param n		machine number
+	 */
+	protected void disturb(int n) {
+		int s;
+		replayTemp(n, clock);
+		if (!live) {
+			// not stepped since the fleet went quiet
+			syncUndisturbed(n);
+			s = tableStep(n);
+			if (stepPower[s] > minheatload) {
+				heating.put(n, propTurnOff(n));
+			} else {
+				heating.remove(n);
+			}
+		}
+		s = tableStep(n);
+		disturbed[n] = true;
+		disturbedList[numDisturbed++] = n;
+		addLoad(n, stepPower[s]);
+	}
+
+	/**
+	 * In delta mode, simulate every traced machine on its own
+	 */
+	protected void disturbTraced() {
+		if (tracer == null || baseline == null) {
+			return;
+		}
+		for (int n = 0; n < numAppliances; n++) {
+			if (!disturbed[n] && tracer.isTraced(n) && state[n] >= 0) {
+				disturb(n);
+			}
+		}
+	}
+
+	/**
+	 * Record what the machines an ApplianceTracer traces do
+	 *
+	 * @param tracer	the tracer, or null to stop tracing
+	 */
+	public void setTracer(ApplianceTracer tracer) {
+		this.tracer = tracer;
+		disturbTraced();
+	}
+
+	/**
+	 * Queue a delayed machine for its next frequency test or its
+	 * delay limit, whichever comes first
+	 *
+	 * @param n				machine number
+	 * @param maxDelayTicks	maximum total delay in ticks
+	 */
+	protected void schedule(int n, int maxDelayTicks) {
+		delayed.push(n, Math.min(retryAt[n], delayZero[n] + maxDelayTicks));
+	}
+
+	/**
+	 * End a machine's delay
+	 *
+	 * @param n		machine number
+	 */
+	protected void release(int n) {
+		commitTemp(n, clock);
+		int s = tableStep(n);
+		state[n] &= ~DELAYED;
+		addLoad(n, stepPower[s]);
+		numDelay--;
+		delays.removeRunning(delayZero[n]);
+		totDelay[n] = clock - delayZero[n];
+		delays.addFixed(totDelay[n]);
+		if (stepPower[s] > minheatload) {
+			heating.put(n, propTurnOff(n));
+		}
+	}
+
+	/**
+	 * set the turn-off frequency of the 'fleet'
+	 * @param f		turn-off frequency
+	 */
+	public void setTurnOffFreq(float f) {
+		turnofffreq = f;
+		indexHeating();
+	}
+
+	/**
+	 * set the turn-on frequency of the 'fleet'
+	 * @param f		turn-on frequency
+	 */
+	public void setTurnOnFreq(float f) {
+		turnonfreq = f;
+	}
+
+	/**
+	 * set the delay times of the 'fleet', taking effect from the next
+	 * delay
+	 * @param minofftime	minimum time for any one RandomDelay delay
+	 * @param maxofftime	maximum time for any one delay
+	 * @param maxdelaytime	maximum total delay per programme
+	 */
+	public void setDelayTimes(float minofftime, float maxofftime, double maxdelaytime) {
+		this.minofftime = minofftime;
+		this.maxofftime = maxofftime;
+		this.maxdelaytime = maxdelaytime;
+	}
+
+	/**
+	 * main entry for testing only
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		DishwasherFleet df = new DishwasherFleet(1000, 40);
+
+		double dT = 0.1;		// Simulate at 10Hz
+		double t  = 0;			// initialise time
+		double load = 0;		// initialise the load
+		double freq = 50.0;		// default 50Hz (so no dynamic demand)
+
+		while (t < 12000) {
+			// Dip the frequency for 10 minutes to exercise the delays
+			freq = (t > 6000 && t < 6600) ? 49.45 : 50.0;
+			load = df.calcLoad(dT, freq);
+			System.out.println(t + " " + load + " " + df.pcOnLoad + " " + df.pcDelay);
+			t += dT;
+		}
+	}
+}
@@ -24,6 +24,7 @@
  ****************************************************************************/
 package net.trevorm.simulation.dwgrid;
 
+import java.util.Arrays;
 import java.util.Random;
 
 /**
@@ -32,17 +33,67 @@ import java.util.Random;
  * @author trevorm
  *
  */
-public class DishwasherLoad {
+public class DishwasherLoad extends ApplianceFleet {
 
 	public int numWashers;			// The number of dishwashers active
 	protected Dishwasher   ds[];	// some dishwashers..
-	protected float	loads[];		// some loads
-	protected float pcOnLoad;		// percentage of dishwashers on heating load.
-	protected float pcDelay;		// percentage of dishwahsers delayed
-	protected double maxtotdelay;	// some measure of the delay...
+	protected float	loads[];		// load of each dishwasher last step
 	protected float pcEco = 40;		// default percentage of dishwashers running an 'Eco' programme
 	protected float randPc = 0.2F;	// default randomisation: 0.2 = 20% ie., +10/-10
-		
+
+	// Fleet statistics, updated only when a dishwasher changes state
+	protected double totalLoad;		// sum of loads[]
+	protected int numOnLoad;		// number of dishwashers on heating load
+	protected int numDelay;			// number of dishwashers delayed
+	protected int steps[];			// programme step of each dishwasher last step
+	protected boolean delayed[];	// delay state of each dishwasher last step
+	protected long delayKeys[];		// what each dishwasher is held by in delays, in steps
+	protected MaxDelayTracker delays;	// for maxtotdelay
+	protected long clock;			// steps simulated
+	protected double delaySums[];	// a dishwasher's totdelaytime after each number of delayed steps
+	protected double sumStep;		// the dT they were summed with
+	protected ThermalModel thermal = new ThermalModel();	// water temperature, shared by every dishwasher
+
+	// "Eco" 50C Programme
+	// 	Cold pre-wash
+	//	Main wash at up to 50C
+	//	Cold rinse
+	//  Hot rinse
+	//	Drying
+	// (Modelled on Electrolux ESL 6115 using data from CurrentCost sensor)
+	public static final int[] ECO_PROGRAMME = {23*60, 100,
+			14 * 60, 2200,
+			28 *60, 100,
+			15 * 60, 2200,
+			15 * 60, 0};
+	public static final float ECO_TEMP = 50;
+
+	// Standard 65C wash programme
+	//	Cold pre-wash
+	// 	Main wash at up to 65C
+	//	2 warm rinses
+	// 	1 hot rinse
+	//	Drying
+	// (Modelled on Electrolux ESL 6115 using data from CurrentCost sensor)
+	public static final int[] STANDARD_PROGRAMME = {10*60, 100,
+			12*60, 2200,
+			4*60, 100,
+			5*60, 2200,
+			5*60, 100,
+			4*60, 2200,
+			3*60, 100,
+			4*60, 2200,
+			3*60, 100,
+			15*60, 2200,
+			2*60, 100,
+			1*60, 2200,
+			2*60, 100,
+			1*60, 2200,
+			2*60, 100,
+			1*60, 2200,
+			15*60, 0};
+	public static final float STANDARD_TEMP = 65;
+
 	/**
 	 * Constructor for DishwasherLoad class
 	 * 
@@ -50,11 +101,24 @@ public class DishwasherLoad {
 	 * @param ecoPc				percentage running an 'Eco' programme
 	 */
 	public DishwasherLoad(int numWashers, float ecoPc) {
+		this(numWashers, ecoPc, 987654321L);	// repeatable seed for Random generator...
+	}
+
+	/**
+	 * Constructor for DishwasherLoad class with a given seed, so
+	 * that separate fleets start from different states
+	 *
+	 * @param numWashers		number of Dishwashers in 'fleet'
+	 * @param ecoPc				percentage running an 'Eco' programme
+	 * @param seed				seed for choosing programmes and start times
+	 */
+	public DishwasherLoad(int numWashers, float ecoPc, long seed) {
 		// Set the percentage running the 'eco' programme
 		pcEco = ecoPc;
-		long seed = 987654321L;		// repeatable seed for Random generator...
 		Random rngen = new Random(seed);
 		this.numWashers = numWashers;
+		this.numAppliances = numWashers;
+		this.name = "dishwashers";
 		ds = new Dishwasher[numWashers];
 		loads = new float[numWashers];
 		for (int n = 0; n < numWashers; n++) {
@@ -62,52 +126,68 @@ public class DishwasherLoad {
 			// Assign "Eco" or Standard programme
 			if ((rngen.nextDouble() * 100) < pcEco) {	// Should this one run an 'Eco' programme?
 				// Yes, set the programme accordingly
-				// "Eco" 50C Programme
-				// 	Cold pre-wash
-				//	Main wash at up to 50C
-				//	Cold rinse
-				//  Hot rinse
-				//	Drying
-				// (Modelled on Electrolux ESL 6115 using data from CurrentCost sensor)
-				prog = new int[]{23*60, 100, 
-						14 * 60, 2200, 
-						28 *60, 100, 
-						15 * 60, 2200, 
-						15 * 60, 0};
+				prog = ECO_PROGRAMME;
 			} else {
 				// No, run the 'standard' programme
-				// Standard 65C wash programme
-				//	Cold pre-wash
-				// 	Main wash at up to 65C
-				//	2 warm rinses
-				// 	1 hot rinse
-				//	Drying
-				// (Modelled on Electrolux ESL 6115 using data from CurrentCost sensor)
-				prog = new int[]{10*60, 100,
-			              12*60, 2200,
-			              4*60, 100,
-			              5*60, 2200,
-			              5*60, 100,
-			              4*60, 2200,
-			              3*60, 100,
-			              4*60, 2200,
-			              3*60, 100,
-			              15*60, 2200,
-			              2*60, 100,
-			              1*60, 2200,
-			              2*60, 100,
-			              1*60, 2200,
-			              2*60, 100,
-			              1*60, 2200,
-			              15*60, 0};
+				prog = STANDARD_PROGRAMME;
 			}
-			                
-			ds[n] = new PropFreqRandomDelay(prog, randPc);
+
+			ds[n] = createDishwasher(prog, randPc);
+			ds[n].setThermalModel(thermal, targetTemp(prog));
 			ds[n].setRuntime(rngen.nextDouble() * ds[n].totruntime);
 		}
+		initStats();
+	}
+
+	/**
+	 * Set up the fleet statistics from the current state of
+	 * every dishwasher
+	 */
+	protected void initStats() {
+		steps = new int[numWashers];
+		delayed = new boolean[numWashers];
+		delayKeys = new long[numWashers];
+		delays = new MaxDelayTracker();
+		clock = 0;
+		delaySums = new double[] {0};
+		sumStep = 0;
+		totalLoad = 0;
+		numOnLoad = 0;
+		numDelay = 0;
+		for (int n = 0; n < numWashers; n++) {
+			totalLoad += loads[n];
+			if (loads[n] > 200.0) {
+				numOnLoad++;
+			}
+			steps[n] = ds[n].p.stepNumber;
+			// a new dishwasher has never been delayed
+			delayed[n] = false;
+			delayKeys[n] = 0;
+			delays.addFixed(0);
+		}
 	}
 	
 	
+	/**
+	 * Create a single dishwasher for the 'fleet'.  Override this to
+	 * model a fleet using a different Dynamic Demand regime.
+	 *
+	 * @param prog		programme, time/power pairs
+	 * @param randpc	float percentage randomisation
+	 * @return			a new dishwasher
+	 */
+	protected Dishwasher createDishwasher(int[] prog, float randpc) {
+		return new PropFreqRandomDelay(prog, randpc);
+	}
+
+	/**
+	 * @param prog		programme, time/power pairs
+	 * @return			the wash temperature it heats to
+	 */
+	public static float targetTemp(int[] prog) {
+		return prog == ECO_PROGRAMME ? ECO_TEMP : STANDARD_TEMP;
+	}
+
 	/**
 	 * method to calculate the total load of the 'fleet'
 	 * 
@@ -116,29 +196,74 @@ public class DishwasherLoad {
 	 * @return			total load of 'fleet'
 	 */
 	public double calcLoad(double dT, double freq) {
-		double load = 0;
-		int numOnLoad = 0;
-		int numDelay  = 0;
-		maxtotdelay = 0;
-		pcOnLoad = 0F;		// keep track of number of machines on heating load for display
+		clock++;
+		thermal.setTimeStep(dT);
 		for (int n = 0; n < numWashers; n++) {
-			loads[n] = ds[n].runProgramme(freq, dT);
-			load += loads[n];
-			if (loads[n] > 200.0) {		// Allow for random element..
-				numOnLoad++;
-			}
-			if (ds[n].totdelaytime > maxtotdelay) {
-				maxtotdelay = ds[n].totdelaytime;
+			Dishwasher d = ds[n];
+			float load = d.runProgramme(freq, dT);
+			if (load != loads[n]) {
+				totalLoad += load - loads[n];
+				if ((load > 200.0) != (loads[n] > 200.0)) {		// Allow for random element..
+					numOnLoad += load > 200.0 ? 1 : -1;
+				}
+				loads[n] = load;
 			}
-			if( ds[n].delay) {
-				numDelay++;
+			// Accumulated delay only changes while delayed, or
+			// when the programme restarts
+			// counted in steps: a delayed step adds one, and a
+			// restart takes it back to zero
+			if (d.delay != delayed[n]) {
+				if (d.delay) {
+					numDelay++;
+					delays.removeFixed(delayKeys[n]);
+					delayKeys[n] = delays.addRunning(clock, d.totdelaytime == 0 ? 0 : delayKeys[n]);
+				} else {
+					numDelay--;
+					delays.removeRunning(delayKeys[n]);
+					delayKeys[n] = clock - delayKeys[n];
+					delays.addFixed(delayKeys[n]);
+				}
+				delayed[n] = d.delay;
+				steps[n] = d.p.stepNumber;
+			} else if (d.p.stepNumber != steps[n]) {
+				if (!d.delay && d.totdelaytime == 0) {
+					delays.changeFixed(delayKeys[n], 0);
+					delayKeys[n] = 0;
+				}
+				steps[n] = d.p.stepNumber;
 			}
 		}
 		pcOnLoad = 100 * ((float)numOnLoad / (float)numWashers);
 		pcDelay  = 100 * ((float)numDelay / (float)numWashers);
-		return load;		
+		maxtotdelay = delaySum(delays.getMax(clock), dT);
+		return totalLoad;
 	}
-	
+
+	/**
+	 * A dishwasher's totdelaytime after some delayed steps.  It only
+	 * ever adds dT to it, so this is the same sum, made the same way,
+	 * and maxtotdelay is exactly the largest totdelaytime.
+	 *
+	 * @param k		delayed steps
+	 * @param dT	simulation step time
+	 * @return		totdelaytime
+	 */
+	protected double delaySum(long k, double dT) {
+		if (dT != sumStep) {
+			// every driver keeps dT fixed through a run
+			delaySums = new double[] {0};
+			sumStep = dT;
+		}
+		if (k >= delaySums.length) {
+			int n = delaySums.length;
+			delaySums = Arrays.copyOf(delaySums, (int) Math.max(k + 1, n * 2));
+			for (int i = n; i < delaySums.length; i++) {
+				delaySums[i] = delaySums[i - 1] + dT;
+			}
+		}
+		return delaySums[(int) k];
+	}
+
 	/**
 	 * set the turn-off frequency of the 'fleet'
 	 * @param f		turn-off frequency
@@ -182,5 +307,29 @@ public class DishwasherLoad {
 			System.out.println(t + " " + load + " " + dl.pcOnLoad);
 			t += dT;
 		}
+
+		// maxtotdelay against a scan of every dishwasher, through a
+		// day of repeated dips with the default Scenario's fleet
+		Scenario sc = new Scenario();
+		DishwasherLoad dc = new DishwasherLoad(numdws, sc.pcEco, sc.dwSeed);
+		dc.setTurnOffFreq(sc.turnofffreq);
+		dc.setTurnOnFreq(sc.turnonfreq);
+		int differ = 0;
+		double longest = 0;
+		int steps = (int) Math.round(86400 / sc.dT);
+		for (int i = 0; i < steps; i++) {
+			double f = (i / 6000) % 3 == 1 ? 49.7 : 50.0;
+			dc.calcLoad(sc.dT, f);
+			double scan = 0;
+			for (int n = 0; n < dc.numWashers; n++) {
+				scan = Math.max(scan, dc.ds[n].totdelaytime);
+			}
+			if (scan != dc.maxtotdelay) {
+				differ++;
+			}
+			longest = Math.max(longest, scan);
+		}
+		System.out.println("maxtotdelay differed from a full scan on " + differ + " of " + steps
+				+ " steps, longest delay " + longest + " s");
 	}
 }
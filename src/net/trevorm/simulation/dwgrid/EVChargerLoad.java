@@ -0,0 +1,224 @@
+/*****************************************************************************
+ *
+ *  EVChargerLoad
+ *
+ *  Class modelling a fleet of electric vehicle chargers for dwgrid
+ *  simulation
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A class to model a fleet of domestic electric vehicle chargers.
+ *
+ * Each charger alternates between idle periods of random length and
+ * charging sessions delivering a random amount of energy at a fixed
+ * power.  Dynamic Demand pauses a charging session when frequency
+ * drops below turnofffreq, for a random delay, in the same way as
+ * the RandomDelay dishwasher.
+ *
+ * @author trevorm
+ *
+ */
+public class EVChargerLoad extends ApplianceFleet {
+
+	protected float power = 7000;			// charging power in Watts
+	protected float minSession = 5;			// smallest session in kWh
+	protected float maxSession = 30;		// largest session in kWh
+	protected float meanIdle = 20 * 3600;	// mean idle time in seconds
+
+	protected float turnofffreq = 49.8F;	// pause if freq < 49.8 Hz
+	protected float turnonfreq  = 49.95F;	// resume when freq >= 49.95 Hz
+	protected float minofftime  = 90;		// minimum pause is 1.5 minutes
+	protected float maxofftime  = 600;		// random part of any one pause
+	protected float maxdelaytime = 1800;	// longest total pause per session
+
+	protected float energyLeft[];	// energy still to deliver in J, 0 when idle
+	protected float idleLeft[];		// idle time remaining in seconds
+	protected boolean paused[];		// paused by Dynamic Demand?
+	protected float wait[];			// time waited since the last frequency test
+	protected float retry[];		// time to wait before the next frequency test
+	protected float totpause[];		// time paused during this session
+
+	protected Random rngen;
+
+	/**
+	 * Constructor for EVChargerLoad class.  Chargers start part way
+	 * through either an idle period or a session.
+	 *
+	 * @param num		number of chargers in 'fleet'
+	 * @param seed		seed for the fleet's random number generator
+	 */
+	public EVChargerLoad(int num, long seed) {
+		this(num, new Random(seed));
+	}
+
+	/**
+	 * Constructor for EVChargerLoad class using a given generator
+	 * for the initial state and every later draw
+	 *
+	 * @param num		number of chargers in 'fleet'
+	 * @param rngen		the fleet's random number generator
+	 */
+	public EVChargerLoad(int num, Random rngen) {
+		this.name = "evchargers";
+		this.numAppliances = num;
+		energyLeft = new float[num];
+		idleLeft = new float[num];
+		paused = new boolean[num];
+		wait = new float[num];
+		retry = new float[num];
+		totpause = new float[num];
+		reset(rngen);
+	}
+
+	/**
+	 * Start every charger again part way through an idle period or
+	 * a session, in the arrays already allocated
+	 *
+	 * @param rngen		the fleet's random number generator from now on
+	 */
+	public void reset(Random rngen) {
+		this.rngen = rngen;
+		Arrays.fill(energyLeft, 0);
+		Arrays.fill(idleLeft, 0);
+		Arrays.fill(paused, false);
+		Arrays.fill(wait, 0);
+		Arrays.fill(retry, 0);
+		Arrays.fill(totpause, 0);
+
+		float meanSession = (minSession + maxSession) / 2 * 3600000 / power;
+		for (int n = 0; n < numAppliances; n++) {
+			if (rngen.nextFloat() * (meanSession + meanIdle) < meanSession) {
+				energyLeft[n] = rngen.nextFloat() * newSession();
+			} else {
+				idleLeft[n] = rngen.nextFloat() * newIdle();
+			}
+		}
+	}
+
+	/**
+	 * @return energy for a new charging session in J
+	 */
+	protected float newSession() {
+		return (minSession + rngen.nextFloat() * (maxSession - minSession)) * 3600000;
+	}
+
+	/**
+	 * @return length of a new idle period in seconds
+	 */
+	protected float newIdle() {
+		return (float) (-meanIdle * Math.log(1 - rngen.nextDouble()));
+	}
+
+	/**
+	 * method to step every charger and calculate the total load
+	 * of the 'fleet'
+	 *
+	 * @param dT		simulation step time
+	 * @param freq		grid frequency
+	 * @return			total load of 'fleet'
+	 */
+	public double calcLoad(double dT, double freq) {
+		float dt = (float) dT;
+		float energy = power * dt;
+		int numOn = 0;
+		int numPaused = 0;
+		float maxPause = 0;
+
+		for (int n = 0; n < numAppliances; n++) {
+			if (energyLeft[n] <= 0) {
+				idleLeft[n] -= dt;
+				if (idleLeft[n] <= 0) {
+					energyLeft[n] = newSession();
+					totpause[n] = 0;
+				}
+			} else if (paused[n]) {
+				wait[n] += dt;
+				totpause[n] += dt;
+				if (totpause[n] >= maxdelaytime) {
+					paused[n] = false;
+				} else if (wait[n] > retry[n]) {
+					if (freq < turnonfreq) {
+						wait[n] = 0;
+						retry[n] = rngen.nextFloat() * maxofftime + minofftime;
+					} else {
+						paused[n] = false;
+					}
+				}
+			} else if (freq < turnofffreq) {
+				paused[n] = true;
+				wait[n] = 0;
+				retry[n] = rngen.nextFloat() * maxofftime + minofftime;
+			} else {
+				energyLeft[n] -= energy;
+				numOn++;
+				if (energyLeft[n] <= 0) {
+					energyLeft[n] = 0;
+					idleLeft[n] = newIdle();
+				}
+			}
+
+			if (paused[n]) {
+				numPaused++;
+			}
+			if (totpause[n] > maxPause) {
+				maxPause = totpause[n];
+			}
+		}
+		pcOnLoad = 100 * ((float) numOn / (float) numAppliances);
+		pcDelay  = 100 * ((float) numPaused / (float) numAppliances);
+		maxtotdelay = maxPause;
+		return numOn * (double) power;
+	}
+
+	/**
+	 * set the turn-off frequency of the 'fleet'
+	 * @param f		turn-off frequency
+	 */
+	public void setTurnOffFreq(float f) {
+		turnofffreq = f;
+	}
+
+	/**
+	 * set the turn-on frequency of the 'fleet'
+	 * @param f		turn-on frequency
+	 */
+	public void setTurnOnFreq(float f) {
+		turnonfreq = f;
+	}
+
+	/**
+	 * main entry for testing only
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		EVChargerLoad ev = new EVChargerLoad(1000, 1);
+		double dT = 1.0;
+		double freq;
+		for (double t = 0; t < 24 * 3600; t += dT) {
+			freq = (t > 12 * 3600 && t < 12 * 3600 + 600) ? 49.7 : 50.0;
+			System.out.println(t + " " + ev.calcLoad(dT, freq) + " " + ev.pcOnLoad + " " + ev.pcDelay);
+		}
+	}
+}
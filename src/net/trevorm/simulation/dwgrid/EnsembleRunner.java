@@ -0,0 +1,287 @@
+/*****************************************************************************
+ *
+ *  EnsembleRunner
+ *
+ *  Driver class for Monte Carlo ensembles of dwgrid simulation runs
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Class to run a Scenario many times, each run with the fleets built
+ * from a different seed, and gather the spread of the results.
+ *
+ * Runs are made in parallel, each worker keeping one SimulationEngine,
+ * but added to the statistics in the order of their seeds, so an
+ * ensemble is repeatable.  For every sampled
+ * time the frequency and dishwasher load are kept as a running mean
+ * and variance and as estimated quantile bands, all in constant
+ * memory however many runs are made.  The ensemble stops once the
+ * 95% confidence interval on the mean frequency is narrower than a
+ * target at every sample and for the nadir.
+ *
+ * With a ResultCache set, runs already made are read from it instead,
+ * and new runs are kept in it with their traces.
+ *
+ * @author trevorm
+ *
+ */
+public class EnsembleRunner {
+
+	protected Scenario base;		// parameters of every run
+	protected int threads;			// runs made at once
+	public long baseSeed = 1;		// seed k of the ensemble is mixed from this
+	public int numRuns;				// runs added to the statistics
+	public ResultCache cache;		// results of runs already made, or null
+
+	// Each worker's engine, kept from run to run so that its fleets
+	// are reset in place rather than built again
+	protected ThreadLocal<SimulationEngine> engines = new ThreadLocal<SimulationEngine>() {
+		protected SimulationEngine initialValue() {
+			return new SimulationEngine();
+		}
+	};
+
+	// Statistics for each sample
+	public int numSamples;
+	public double time[];
+	public RunningStats freqStats[];
+	public P2Quantile freqLo[];
+	public P2Quantile freqHi[];
+	public RunningStats dwStats[];
+	public P2Quantile dwLo[];
+	public P2Quantile dwHi[];
+
+	// Statistics for each run as a whole
+	public RunningStats nadir;
+	public P2Quantile nadirLo;
+	public P2Quantile nadirHi;
+	public RunningStats maxDwDelay;
+
+	public static final double LOW_Q = 0.05;	// lower band quantile
+	public static final double HIGH_Q = 0.95;	// upper band quantile
+
+	/**
+	 * Constructor for an EnsembleRunner
+	 *
+	 * @param base		parameters of every run, the seeds are replaced
+	 * @param threads	number of runs to make at once
+	 */
+	public EnsembleRunner(Scenario base, int threads) {
+		this.base = base;
+		this.threads = threads;
+		numSamples = base.numSamples();
+		time = new double[numSamples];
+		freqStats = new RunningStats[numSamples];
+		freqLo = new P2Quantile[numSamples];
+		freqHi = new P2Quantile[numSamples];
+		dwStats = new RunningStats[numSamples];
+		dwLo = new P2Quantile[numSamples];
+		dwHi = new P2Quantile[numSamples];
+		for (int s = 0; s < numSamples; s++) {
+			freqStats[s] = new RunningStats();
+			freqLo[s] = new P2Quantile(LOW_Q);
+			freqHi[s] = new P2Quantile(HIGH_Q);
+			dwStats[s] = new RunningStats();
+			dwLo[s] = new P2Quantile(LOW_Q);
+			dwHi[s] = new P2Quantile(HIGH_Q);
+		}
+		nadir = new RunningStats();
+		nadirLo = new P2Quantile(LOW_Q);
+		nadirHi = new P2Quantile(HIGH_Q);
+		maxDwDelay = new RunningStats();
+	}
+
+	/**
+	 * @param k		run number
+	 * @return		the scenario for that run of the ensemble
+	 */
+	public Scenario getScenario(int k) {
+		Scenario sc = base.copy();
+		sc.threads = 1;
+		sc.setSeed(Scenario.mix(baseSeed, k));
+		return sc;
+	}
+
+	/**
+	 * Add a run to the statistics
+	 *
+	 * @param r		what the run did
+	 */
+	public void add(Scenario.Result r) {
+		for (int s = 0; s < numSamples; s++) {
+			time[s] = r.time[s];
+			freqStats[s].add(r.freq[s]);
+			freqLo[s].add(r.freq[s]);
+			freqHi[s].add(r.freq[s]);
+			dwStats[s].add(r.dwLoad[s]);
+			dwLo[s].add(r.dwLoad[s]);
+			dwHi[s].add(r.dwLoad[s]);
+		}
+		nadir.add(r.nadir);
+		nadirLo.add(r.nadir);
+		nadirHi.add(r.nadir);
+		maxDwDelay.add(r.maxDwDelay);
+		numRuns++;
+	}
+
+	/**
+	 * @return the widest 95% confidence half-width on the mean
+	 * 			frequency, over every sample and the nadir
+	 */
+	public double getMaxHalfWidth() {
+		double w = nadir.getHalfWidth();
+		for (int s = 0; s < numSamples; s++) {
+			w = Math.max(w, freqStats[s].getHalfWidth());
+		}
+		return w;
+	}
+
+	/**
+	 * Make runs until the confidence intervals are narrow enough
+	 *
+	 * @param minRuns		fewest runs to make
+	 * @param maxRuns		most runs to make
+	 * @param target		confidence half-width wanted in Hz
+	 * @return				number of runs made
+	 * @throws InterruptedException		if interrupted while waiting
+	 * @throws ExecutionException		if a run fails
+	 */
+	public int run(int minRuns, int maxRuns, double target) throws InterruptedException, ExecutionException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ArrayDeque<Future<Scenario.Result>> running = new ArrayDeque<Future<Scenario.Result>>();
+		int next = numRuns;
+		int last = numRuns + maxRuns;
+		try {
+			while (next < last && running.size() < threads) {
+				running.add(pool.submit(task(next++)));
+			}
+			while (!running.isEmpty()) {
+				add(running.poll().get());
+				if (numRuns >= minRuns && getMaxHalfWidth() <= target) {
+					break;
+				}
+				if (next < last) {
+					running.add(pool.submit(task(next++)));
+				}
+			}
+		}
+		finally {
+			for (Future<Scenario.Result> f : running) {
+				f.cancel(true);
+			}
+			pool.shutdown();
+		}
+		return numRuns;
+	}
+
+	private Callable<Scenario.Result> task(final int k) {
+		return new Callable<Scenario.Result>() {
+			public Scenario.Result call() {
+				Scenario sc = getScenario(k);
+				Scenario.Result r = cache == null ? null : cache.get(sc, true);
+				if (r == null) {
+					SimulationEngine engine = engines.get();
+					engine.reset(sc);
+					// the engine's next run reuses its Result
+					r = engine.run(null).copy();
+					if (cache != null) {
+						cache.put(sc, r, true);
+					}
+				}
+				return r;
+			}
+		};
+	}
+
+	/**
+	 * Write the ensemble statistics
+	 *
+	 * @param p		stream to write to
+	 */
+	public void write(PrintStream p) {
+		p.println("Runs = " + numRuns);
+		p.println("Nadir (Hz) = " + nadir.getMean() + " +/- " + nadir.getHalfWidth()
+				+ ", band " + nadirLo.get() + " to " + nadirHi.get());
+		p.println("Max dishwasher delay (s) = " + maxDwDelay.getMean() + " +/- " + maxDwDelay.getHalfWidth());
+		p.println("Time (s), Frequency (Hz), sd, " + LOW_Q + ", " + HIGH_Q
+				+ ", Pdw (MW), sd, " + LOW_Q + ", " + HIGH_Q);
+		for (int s = 0; s < numSamples; s++) {
+			p.println(time[s] + ", " + freqStats[s].getMean() + ", " + freqStats[s].getStdDev()
+					+ ", " + freqLo[s].get() + ", " + freqHi[s].get()
+					+ ", " + dwStats[s].getMean()/1000000 + ", " + dwStats[s].getStdDev()/1000000
+					+ ", " + dwLo[s].get()/1000000 + ", " + dwHi[s].get()/1000000);
+		}
+	}
+
+	/**
+	 * Run an ensemble of the default Scenario
+	 * @param args	confidence half-width wanted in Hz, most runs
+	 */
+	public static void main(String[] args) {
+		double target = 0.002;		// confidence half-width wanted
+		int minRuns = 10;			// fewest runs for the interval to mean much
+		int maxRuns = 200;
+
+		if (args.length > 0) {
+			target = Double.parseDouble(args[0]);
+		}
+		if (args.length > 1) {
+			maxRuns = Integer.parseInt(args[1]);
+		}
+
+		Scenario sc = new Scenario();
+		sc.recordEvery = 10;		// keep one sample a second
+		EnsembleRunner er = new EnsembleRunner(sc, Runtime.getRuntime().availableProcessors());
+
+		try {
+			er.cache = new ResultCache(new File("results.cache"), 1L << 30);
+			long start = System.currentTimeMillis();
+			er.run(minRuns, maxRuns, target);
+			System.out.println(er.numRuns + " runs in " + (System.currentTimeMillis() - start)
+					+ " ms, half-width " + er.getMaxHalfWidth() + " Hz, " + er.cache.hits + " from cache");
+
+			FileOutputStream out = new FileOutputStream("ensemble.dat");
+			PrintStream p = new PrintStream(out);
+			er.write(p);
+			out.close();
+		}
+		catch (IOException ie) {
+			System.err.println("IOException: ensemble.dat " + ie);
+		}
+		catch (InterruptedException ie) {
+			System.err.println("Interrupted: " + ie);
+		}
+		catch (ExecutionException ee) {
+			System.err.println("Run failed: " + ee.getCause());
+		}
+	}
+}
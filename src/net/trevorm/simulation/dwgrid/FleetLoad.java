@@ -0,0 +1,301 @@
+/*****************************************************************************
+ *
+ *  FleetLoad
+ *
+ *  Class aggregating several appliance fleets for dwgrid simulation
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A class to aggregate fleets of different kinds of appliance as a
+ * single load on the grid.
+ *
+ * Each fleet is simulated at its own size and its load scaled up by
+ * a multiplier, in the same way as the dishwasher multiplier in
+ * Simulation.  The scaled load of each fleet is kept in classLoads
+ * after every call to calcLoad() for the per-class breakdown.
+ *
+ * Real appliances measure the frequency some time after the grid
+ * reaches it.  With a measurement delay of D ticks set, every fleet
+ * sees the frequency from D ticks earlier, so the load for the next
+ * D ticks only depends on frequencies already known.  Each fleet then
+ * works out D ticks at a time on its own thread, and the fleets only
+ * meet once every D ticks rather than on every tick.  The threads are
+ * daemons shared by every FleetLoad and end once left idle, so a
+ * FleetLoad needs no closing.
+ *
+ * @author trevorm
+ *
+ */
+public class FleetLoad {
+
+	public int numFleets;					// number of fleets
+	protected ApplianceFleet fleets[];		// the fleets
+	protected double multipliers[];			// scaling of each fleet's load
+	public double classLoads[];				// each fleet's scaled load last step
+	public float classOnLoad[];				// each fleet's percentage on load last step
+
+	// Measurement delay
+	protected int delayTicks;				// ticks of delay, 0 for none
+	protected double history[];				// last delayTicks frequencies, by tick number
+	protected double measured[];			// frequencies seen during the current block
+	protected double ahead[][];				// each fleet's scaled load for the block
+	protected float aheadOn[][];			// and its percentage on load
+	protected int aheadPos;					// next tick of the block to use
+	protected int numTicks;					// ticks simulated
+	protected int workers = 1;				// threads the fleets are run on, 1 for this thread only
+	protected static ExecutorService pool;	// threads shared by every FleetLoad, made when first wanted
+
+	/**
+	 * Constructor for an empty FleetLoad
+	 */
+	public FleetLoad() {
+		numFleets = 0;
+		fleets = new ApplianceFleet[0];
+		multipliers = new double[0];
+		classLoads = new double[0];
+		classOnLoad = new float[0];
+		delayTicks = 0;
+	}
+
+	/**
+	 * Add a fleet
+	 *
+	 * @param fleet		the fleet
+	 * @param mult		multiplier applied to its load
+	 */
+	public void addFleet(ApplianceFleet fleet, double mult) {
+		fleets = Arrays.copyOf(fleets, numFleets + 1);
+		multipliers = Arrays.copyOf(multipliers, numFleets + 1);
+		classLoads = Arrays.copyOf(classLoads, numFleets + 1);
+		classOnLoad = Arrays.copyOf(classOnLoad, numFleets + 1);
+		fleets[numFleets] = fleet;
+		multipliers[numFleets] = mult;
+		numFleets++;
+	}
+
+	/**
+	 * Start again from the first tick.  The fleets, which must be
+	 * reset separately, and the measurement delay are kept.
+	 */
+	public void reset() {
+		numTicks = 0;
+		aheadPos = delayTicks;
+		Arrays.fill(classLoads, 0);
+		Arrays.fill(classOnLoad, 0);
+	}
+
+	/**
+	 * @param i		fleet number
+	 * @return		the fleet
+	 */
+	public ApplianceFleet getFleet(int i) {
+		return fleets[i];
+	}
+
+	/**
+	 * method to calculate the total scaled load of all the fleets
+	 *
+	 * @param dT		simulation step time
+	 * @param freq		grid frequency
+	 * @return			total load
+	 */
+	public double calcLoad(double dT, double freq) {
+		double load = 0;
+		if (delayTicks == 0) {
+			for (int i = 0; i < numFleets; i++) {
+				classLoads[i] = fleets[i].calcLoad(dT, freq) * multipliers[i];
+				classOnLoad[i] = fleets[i].pcOnLoad;
+				load += classLoads[i];
+			}
+			numTicks++;
+			return load;
+		}
+
+		if (numTicks == 0) {
+			// the frequency was steady before the start
+			Arrays.fill(history, freq);
+		}
+		if (aheadPos == delayTicks) {
+			// tick numTicks + j sees the frequency from tick numTicks + j - delayTicks
+			for (int j = 0; j < delayTicks; j++) {
+				measured[j] = history[(numTicks + j) % delayTicks];
+			}
+			runAhead(dT);
+			aheadPos = 0;
+		}
+		history[numTicks % delayTicks] = freq;
+		numTicks++;
+
+		for (int i = 0; i < numFleets; i++) {
+			classLoads[i] = ahead[i][aheadPos];
+			classOnLoad[i] = aheadOn[i][aheadPos];
+			load += classLoads[i];
+		}
+		aheadPos++;
+		return load;
+	}
+
+	/**
+	 * @return the threads shared by every FleetLoad
+	 */
+	protected static synchronized ExecutorService pool() {
+		if (pool == null) {
+			pool = Executors.newCachedThreadPool(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "fleet");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return pool;
+	}
+
+	/**
+	 * Work out every fleet's load for the next block of ticks, the
+	 * fleets shared out between the workers, this thread one of them
+	 *
+	 * @param dT		simulation step time
+	 */
+	protected void runAhead(final double dT) {
+		List<Future<?>> done = new ArrayList<Future<?>>();
+		for (int w = 1; w < workers; w++) {
+			final int worker = w;
+			done.add(pool().submit(new Runnable() {
+				public void run() {
+					for (int i = worker; i < numFleets; i += workers) {
+						runAhead(i, dT);
+					}
+				}
+			}));
+		}
+		for (int i = 0; i < numFleets; i += workers) {
+			runAhead(i, dT);
+		}
+		try {
+			for (Future<?> f : done) {
+				f.get();
+			}
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted waiting for fleets", ie);
+		}
+		catch (ExecutionException ee) {
+			throw new RuntimeException("Fleet failed", ee.getCause());
+		}
+	}
+
+	/**
+	 * Work out one fleet's load for the next block of ticks
+	 *
+	 * @param i			fleet number
+	 * @param dT		simulation step time
+	 */
+	protected void runAhead(int i, double dT) {
+		for (int j = 0; j < delayTicks; j++) {
+			ahead[i][j] = fleets[i].calcLoad(dT, measured[j]) * multipliers[i];
+			aheadOn[i][j] = fleets[i].pcOnLoad;
+		}
+	}
+
+	/**
+	 * Make the fleets see the frequency a number of ticks late.  Must
+	 * be set after every fleet is added and before the first step.
+	 *
+	 * @param ticks		measurement delay in ticks, 0 for none
+	 * @param threads	number of threads to run the fleets on, 1 to
+	 * 					run them on the caller's thread
+	 */
+	public void setMeasurementDelay(int ticks, int threads) {
+		if (ticks < 0) {
+			throw new IllegalArgumentException("Measurement delay must not be negative: " + ticks);
+		}
+		if (numTicks != 0) {
+			throw new IllegalStateException("Measurement delay must be set before the first step");
+		}
+		delayTicks = ticks;
+		history = new double[ticks];
+		measured = new double[ticks];
+		ahead = new double[numFleets][ticks];
+		aheadOn = new float[numFleets][ticks];
+		aheadPos = ticks;
+		workers = Math.max(1, Math.min(threads, numFleets));
+	}
+
+	/**
+	 * set the turn-off frequency of every fleet
+	 * @param f		turn-off frequency
+	 */
+	public void setTurnOffFreq(float f) {
+		for (int i = 0; i < numFleets; i++) {
+			fleets[i].setTurnOffFreq(f);
+		}
+	}
+
+	/**
+	 * set the turn-on frequency of every fleet
+	 * @param f		turn-on frequency
+	 */
+	public void setTurnOnFreq(float f) {
+		for (int i = 0; i < numFleets; i++) {
+			fleets[i].setTurnOnFreq(f);
+		}
+	}
+
+	/**
+	 * @return column headings for the per-class breakdown
+	 */
+	public String getHeader() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < numFleets; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append("P").append(fleets[i].name).append(" (MW), %").append(fleets[i].name).append(" on");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return the per-class breakdown for the last step
+	 */
+	public String getBreakdown() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < numFleets; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append(classLoads[i] / 1000000).append(", ").append(classOnLoad[i]);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,158 @@
+/*****************************************************************************
+ *
+ *  FrequencyTrace
+ *
+ *  Class holding a recorded grid frequency time series for dwgrid
+ *  simulation
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A grid frequency time series at fixed intervals, used to drive
+ * appliance fleets without simulating the grid.
+ *
+ * The file is read as lines of time and frequency in Hz, separated by
+ * commas or spaces; any further columns are ignored.  Lines which do
+ * not start with two numbers are skipped, so the results.dat written
+ * by a simulation can be read directly.  Time is in seconds unless a
+ * header line before the samples starts "Time (min)" or "Time (h)",
+ * as SimulationWithWind's does.
+ *
+ * @author trevorm
+ *
+ */
+public class FrequencyTrace {
+
+	public double startTime;	// time of the first sample in seconds
+	public double dT;			// interval between samples in seconds
+	public int numSamples;		// number of samples
+	public double freq[];		// frequency at each sample in Hz
+
+	/**
+	 * Constructor for a FrequencyTrace
+	 *
+	 * @param startTime		time of the first sample
+	 * @param dT			interval between samples
+	 * @param freq			frequency at each sample
+	 */
+	public FrequencyTrace(double startTime, double dT, double freq[]) {
+		this.startTime = startTime;
+		this.dT = dT;
+		this.freq = freq;
+		numSamples = freq.length;
+	}
+
+	/**
+	 * @param i		sample number
+	 * @return		time of the sample
+	 */
+	public double getTime(int i) {
+		return startTime + i * dT;
+	}
+
+	/**
+	 * Read a trace from a file
+	 *
+	 * @param path		file to read
+	 * @return			the trace
+	 * @throws IOException	if the file cannot be read, holds fewer than two
+	 * 						samples or gives time in units not known
+	 */
+	public static FrequencyTrace read(String path) throws IOException {
+		double times[] = new double[1024];
+		double freqs[] = new double[1024];
+		int n = 0;
+		double unit = 1;		// seconds in the time column's unit
+
+		BufferedReader in = new BufferedReader(new FileReader(path));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String temp[] = line.trim().split("[,\\s]+");
+				if (temp.length < 2) {
+					continue;
+				}
+				double t;
+				double f;
+				try {
+					t = Double.parseDouble(temp[0]);
+					f = Double.parseDouble(temp[1]);
+				}
+				catch (NumberFormatException ne) {
+					// a header line, which may give the time's unit
+					if (n == 0 && temp[0].equalsIgnoreCase("Time")) {
+						unit = timeUnit(path, line);
+					}
+					continue;
+				}
+				if (n == times.length) {
+					times = Arrays.copyOf(times, n * 2);
+					freqs = Arrays.copyOf(freqs, n * 2);
+				}
+				times[n] = t;
+				freqs[n] = f;
+				n++;
+			}
+		}
+		finally {
+			in.close();
+		}
+
+		if (n < 2) {
+			throw new IOException(path + ": fewer than two frequency samples");
+		}
+		double dT = (times[n - 1] - times[0]) / (n - 1);
+		if (dT <= 0) {
+			throw new IOException(path + ": sample times do not increase");
+		}
+		return new FrequencyTrace(times[0] * unit, dT * unit, Arrays.copyOf(freqs, n));
+	}
+
+	/**
+	 * @param path		file read
+	 * @param header	header line starting "Time"
+	 * @return			seconds in the unit it gives the time in
+	 * @throws IOException	if the unit is not known
+	 */
+	private static double timeUnit(String path, String header) throws IOException {
+		String h = header.trim();
+		int open = h.indexOf('(');
+		int close = h.indexOf(')');
+		if (open < 0 || close < open || h.substring(0, open).indexOf(',') >= 0) {
+			// no unit given
+			return 1;
+		}
+		String unit = h.substring(open + 1, close).trim();
+		if (unit.equals("s")) {
+			return 1;
+		} else if (unit.equals("min")) {
+			return 60;
+		} else if (unit.equals("h")) {
+			return 3600;
+		}
+		throw new IOException(path + ": time in unknown unit \"" + unit + "\"");
+	}
+}
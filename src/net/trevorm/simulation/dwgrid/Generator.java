@@ -75,6 +75,26 @@ public class Generator {
 		
 	}
 	
+	/**
+	 * Method to start again with new parameters, as the constructor
+	 * 
+	 * @param Pmax	Maximum generator power
+	 * @param Fsp	Frequency set-point
+	 * @param Fnom	Nominal frequency
+	 * @param droop	Percentage droop characteristic, 
+	 * @param gain	Governor gain
+	 * @param Pinit	Initial power output
+	 */
+	public void reset(double Pmax, double Fsp, double Fnom, double droop, double gain, double Pinit) {
+		this.Pmax = Pmax;
+		this.Fsp  = Fsp;
+		this.Fnom = Fnom;
+		this.droop = droop/100;
+		this.gain = gain;
+		this.Pdmd = this.Pcurr = Pinit;
+		this.Ptgt = 0;
+	}
+	
 	/**
 	 * Method to get the target power output using
 	 * the droop characteristic.  The target power
@@ -59,6 +59,19 @@ public class Grid {
 		I = (2 * Pgmax * H) / (omega * omega);
 	}
 	
+	/**
+	 * Method to start again with a new moment of inertia, as the
+	 * constructor
+	 * 
+	 * @param Pgmax	Grid maximum power
+	 * @param H		Inertial constant
+	 * @param Fnom	Grid nominal frequency
+	 */
+	public void reset(double Pgmax, double H, double Fnom) {
+		double omega = 2 * Math.PI * Fnom;
+		I = (2 * Pgmax * H) / (omega * omega);
+	}
+	
 	/**
 	 * Method for calculating released demand
 	 * 
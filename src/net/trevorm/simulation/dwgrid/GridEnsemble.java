@@ -0,0 +1,247 @@
+/*****************************************************************************
+ *
+ *  GridEnsemble
+ *
+ *  Class integrating many grid and governor configurations together for
+ *  dwgrid simulation
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * A class to run many configurations of the Grid and its Generators
+ * against the same fleet load profile at once.
+ *
+ * The state of configuration k - what would be held in its Grid and
+ * two Generator objects - is element k of a set of arrays, and every
+ * configuration is advanced one tick by a single loop over k with no
+ * branches or calls in it, so that the JIT can vectorise it.  The
+ * fleet load does not respond to the frequency, so the load profile
+ * is worked out once, by a Scenario run or from a recording.
+ *
+ * The arithmetic is that of Grid, Generator and Scenario.run(), so a
+ * configuration given the parameters and load of a Scenario follows
+ * its frequency exactly.
+ *
+ * @author trevorm
+ *
+ */
+public class GridEnsemble {
+
+	public int numScenarios;		// number of configurations
+
+	// Parameters of each configuration, defaults as Scenario
+	public double H[];				// Inertial constant
+	public double basegen[];		// base generating capacity
+	public double rsvgen[];			// spinning reserve capacity
+	public double loadstep[];		// step change in load
+	public double droop[];			// Generator droop in percent
+	public double gain[];			// base Generator controller gain
+
+	// Shared parameters
+	public boolean stepreq = true;	// is a step change in load required?
+	public double fnom = 50.0;		// Grid nominal frequency
+	public double baseFsp = 52.0;	// base generator set point
+	public double rsvFsp = 50.0;	// spinning reserve set point
+	public double rsvGain = 0.3;	// spinning reserve controller gain
+	public double restoreTime = 120;	// time the base capacity is restored
+
+	// State of each configuration
+	public double freq[];			// grid frequency
+	protected double inertia[];		// moment of inertia of the grid
+	protected double baseload[];	// fixed part of load
+	protected double basePmax[];	// base generator maximum power
+	protected double basePcurr[];	// base generator output
+	protected double rsvPcurr[];	// spinning reserve output
+
+	// Results for each configuration
+	public double nadir[];			// lowest frequency
+	public double nadirTime[];		// time it was reached
+
+	/**
+	 * Constructor for a GridEnsemble with every configuration set
+	 * as a default Scenario
+	 *
+	 * @param numScenarios		number of configurations
+	 */
+	public GridEnsemble(int numScenarios) {
+		this.numScenarios = numScenarios;
+		H = new double[numScenarios];
+		basegen = new double[numScenarios];
+		rsvgen = new double[numScenarios];
+		loadstep = new double[numScenarios];
+		droop = new double[numScenarios];
+		gain = new double[numScenarios];
+		freq = new double[numScenarios];
+		inertia = new double[numScenarios];
+		baseload = new double[numScenarios];
+		basePmax = new double[numScenarios];
+		basePcurr = new double[numScenarios];
+		rsvPcurr = new double[numScenarios];
+		nadir = new double[numScenarios];
+		nadirTime = new double[numScenarios];
+		Scenario sc = new Scenario();
+		for (int k = 0; k < numScenarios; k++) {
+			set(k, sc);
+		}
+	}
+
+	/**
+	 * Take the grid and generator parameters of a configuration from
+	 * a Scenario
+	 *
+	 * @param k		configuration number
+	 * @param sc	the Scenario
+	 */
+	public void set(int k, Scenario sc) {
+		H[k] = sc.H;
+		basegen[k] = sc.basegen;
+		rsvgen[k] = sc.rsvgen;
+		loadstep[k] = sc.loadstep;
+		droop[k] = sc.droop;
+		gain[k] = sc.gain;
+	}
+
+	/**
+	 * Run every configuration against the fleet load of a Scenario run
+	 *
+	 * @param sc		the Scenario run
+	 * @param r			its result, which must hold every tick
+	 */
+	public void run(Scenario sc, Scenario.Result r) {
+		if (sc.recordEvery != 1) {
+			throw new IllegalArgumentException("Fleet load sampled every " + sc.recordEvery + " ticks, not every tick");
+		}
+		run(r.initialFleetLoad, r.fleetLoad, sc.dT, sc.startTime);
+	}
+
+	/**
+	 * Run every configuration
+	 *
+	 * @param initialLoad	fleet load before the first tick
+	 * @param load			fleet load at each tick
+	 * @param dT			simulation step time
+	 * @param startTime		time before the first tick
+	 */
+	public void run(double initialLoad, double load[], double dT, double startTime) {
+		double omegaNom = 2 * Math.PI * fnom;
+		int stepTick = (int) Math.round(-startTime / dT);	// tick of the step change
+		double dk[] = new double[numScenarios];				// droop times nominal frequency
+
+		for (int k = 0; k < numScenarios; k++) {
+			freq[k] = fnom;
+			nadir[k] = fnom;
+			nadirTime[k] = startTime;
+			baseload[k] = basegen[k] - initialLoad;
+			inertia[k] = (2 * (basegen[k] + initialLoad + loadstep[k]) * H[k]) / (omegaNom * omegaNom);
+			basePmax[k] = basegen[k];
+			basePcurr[k] = basegen[k];
+			rsvPcurr[k] = 0;
+			dk[k] = (droop[k] / 100) * fnom;
+		}
+
+		double t = startTime;
+		for (int i = 0; i < load.length; i++) {
+			t += dT;
+			double Pfl = load[i];
+			for (int k = 0; k < numScenarios; k++) {
+				double f = freq[k];
+				// Base load generator
+				double Pt = Math.max(0, Math.min(((baseFsp - f) / dk[k]) * basePmax[k], basePmax[k]));
+				double Pbase = basePcurr[k] + (Pt - basePcurr[k]) * gain[k] * dT;
+				basePcurr[k] = Pbase;
+				// Spinning reserve
+				Pt = Math.max(0, Math.min(((rsvFsp - f) / dk[k]) * rsvgen[k], rsvgen[k]));
+				double Psp = rsvPcurr[k] + (Pt - rsvPcurr[k]) * rsvGain * dT;
+				rsvPcurr[k] = Psp;
+				// Released demand and "accelerating" power
+				double Pr = -1.0 * baseload[k] * ((f - fnom) / fnom);
+				double Ps = (Pbase + Psp) + Pr - (baseload[k] + Pfl);
+				// New frequency
+				double omega = 2 * Math.PI * f;
+				omega = Math.sqrt(omega * omega + (2 * Ps * dT) / inertia[k]);
+				f = omega / (2 * Math.PI);
+				freq[k] = f;
+				boolean lower = f < nadir[k];
+				nadir[k] = lower ? f : nadir[k];
+				nadirTime[k] = lower ? t : nadirTime[k];
+			}
+
+			if (stepreq && i == stepTick) {
+				// OK, fail Sizewell B... take it off the base capacity
+				for (int k = 0; k < numScenarios; k++) {
+					basePcurr[k] = basegen[k] - loadstep[k];
+					basePmax[k] = basegen[k] - loadstep[k];
+				}
+			}
+			if (t >= restoreTime) {
+				// Restore the base capacity
+				System.arraycopy(basegen, 0, basePmax, 0, numScenarios);
+			}
+		}
+	}
+
+	/**
+	 * Sweep inertia, droop and governor gain against the fleet load
+	 * of a default Scenario
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Scenario sc = new Scenario();
+		Scenario.Result r = sc.run(null);
+
+		double Hs[] = {2, 3, 4, 5, 6, 7, 8, 9, 10, 12};
+		int numDroop = 20;			// 2% to 6%
+		int numGain = 20;			// 0.002 to 0.02
+		GridEnsemble ge = new GridEnsemble(Hs.length * numDroop * numGain);
+		int k = 0;
+		for (int h = 0; h < Hs.length; h++) {
+			for (int d = 0; d < numDroop; d++) {
+				for (int g = 0; g < numGain; g++) {
+					ge.H[k] = Hs[h];
+					ge.droop[k] = 2 + 4.0 * d / (numDroop - 1);
+					ge.gain[k] = 0.002 + 0.018 * g / (numGain - 1);
+					k++;
+				}
+			}
+		}
+
+		long start = System.currentTimeMillis();
+		ge.run(sc, r);
+		System.out.println(ge.numScenarios + " configurations in " + (System.currentTimeMillis() - start) + " ms");
+
+		try {
+			FileOutputStream out = new FileOutputStream("sweep.dat");
+			PrintStream p = new PrintStream(out);
+			p.println("H, Droop (%), Gain, Nadir (Hz), Nadir time (s)");
+			for (k = 0; k < ge.numScenarios; k++) {
+				p.println(ge.H[k] + ", " + ge.droop[k] + ", " + ge.gain[k] + ", " + ge.nadir[k] + ", " + ge.nadirTime[k]);
+			}
+			out.close();
+		}
+		catch (IOException ie) {
+			System.err.println("IOException: sweep.dat " + ie);
+		}
+	}
+}
@@ -0,0 +1,152 @@
+/*****************************************************************************
+ *
+ *  MaxDelayTracker
+ *
+ *  Class keeping track of the longest appliance delay in a fleet for
+ *  dwgrid simulation
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+import java.util.TreeMap;
+
+/**
+ * A class to keep the maximum accumulated delay of a fleet up to date
+ * without looking at every appliance on every step.
+ *
+ * Delays and the clock are counted in whole steps, so keys are exact
+ * however long the run.  An appliance which is not delayed keeps a
+ * fixed accumulated delay, so it is held by that value.  Every delayed
+ * appliance accumulates delay at the same rate as the simulation
+ * clock, so it is held by the clock step at which its accumulated
+ * delay would have been zero - that key does not change until the
+ * delay ends.  The maximum is then the larger of the biggest fixed
+ * value and the clock less the smallest key.  Appliances only move
+ * between the two sets when they change state.
+ *
+ * @author trevorm
+ *
+ */
+public class MaxDelayTracker {
+
+	protected TreeMap<Long, Integer> fixed;		// accumulated delays of appliances not delayed
+	protected TreeMap<Long, Integer> running;	// zero-delay clock steps of delayed appliances
+
+	/**
+	 * Constructor for an empty MaxDelayTracker
+	 */
+	public MaxDelayTracker() {
+		fixed = new TreeMap<Long, Integer>();
+		running = new TreeMap<Long, Integer>();
+	}
+
+	/**
+	 * Add an appliance which is not delayed
+	 *
+	 * @param totdelay	its accumulated delay in steps
+	 */
+	public void addFixed(long totdelay) {
+		add(fixed, totdelay);
+	}
+
+	/**
+	 * Remove an appliance which is not delayed
+	 *
+	 * @param totdelay	the accumulated delay it was added with
+	 */
+	public void removeFixed(long totdelay) {
+		remove(fixed, totdelay);
+	}
+
+	/**
+	 * Add a delayed appliance
+	 *
+	 * @param clock		current clock step
+	 * @param totdelay	its accumulated delay in steps at that time
+	 * @return			the key it is held by, needed to remove it
+	 */
+	public long addRunning(long clock, long totdelay) {
+		long key = clock - totdelay;
+		add(running, key);
+		return key;
+	}
+
+	/**
+	 * Remove a delayed appliance
+	 *
+	 * @param key		the key returned when it was added
+	 */
+	public void removeRunning(long key) {
+		remove(running, key);
+	}
+
+	/**
+	 * Change the accumulated delay of an appliance which is not delayed
+	 *
+	 * @param from		old accumulated delay in steps
+	 * @param to		new accumulated delay in steps
+	 */
+	public void changeFixed(long from, long to) {
+		if (from != to) {
+			removeFixed(from);
+			addFixed(to);
+		}
+	}
+
+	/**
+	 * @param clock		current clock step
+	 * @return			the longest accumulated delay of any appliance, in steps
+	 */
+	public long getMax(long clock) {
+		long max = 0;
+		if (!fixed.isEmpty()) {
+			max = fixed.lastKey();
+		}
+		if (!running.isEmpty()) {
+			max = Math.max(max, clock - running.firstKey());
+		}
+		return max;
+	}
+
+	/**
+	 * Forget all appliances
+	 */
+	public void clear() {
+		fixed.clear();
+		running.clear();
+	}
+
+	private static void add(TreeMap<Long, Integer> set, long v) {
+		Integer count = set.get(v);
+		set.put(v, count == null ? 1 : count + 1);
+	}
+
+	private static void remove(TreeMap<Long, Integer> set, long v) {
+		Integer count = set.get(v);
+		if (count == null) {
+			return;
+		}
+		if (count == 1) {
+			set.remove(v);
+		} else {
+			set.put(v, count - 1);
+		}
+	}
+}
@@ -0,0 +1,146 @@
+/*****************************************************************************
+ *
+ *  P2Quantile
+ *
+ *  Class estimating a quantile of a stream of values for dwgrid
+ *  simulation
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+import java.util.Arrays;
+
+/**
+ * An estimate of one quantile of a stream of values by the P-squared
+ * algorithm of Jain and Chlamtac, which keeps five markers whatever
+ * the number of values.  The middle marker tracks the quantile; the
+ * others track the minimum, the maximum and the points half way to
+ * them, and are moved by piecewise-parabolic interpolation as values
+ * arrive.
+ *
+ * @author trevorm
+ *
+ */
+public class P2Quantile {
+
+	protected double p;				// quantile wanted, 0 to 1
+	protected int count;			// values added
+	protected double q[];			// marker heights
+	protected int n[];				// marker positions
+	protected double np[];			// desired marker positions
+	protected double dn[];			// increments of desired positions
+
+	/**
+	 * Constructor for a P2Quantile
+	 *
+	 * @param p		quantile wanted, eg 0.95
+	 */
+	public P2Quantile(double p) {
+		this.p = p;
+		q = new double[5];
+		n = new int[5];
+		np = new double[] {1, 1 + 2 * p, 1 + 4 * p, 3 + 2 * p, 5};
+		dn = new double[] {0, p / 2, p, (1 + p) / 2, 1};
+	}
+
+	/**
+	 * Add a value
+	 *
+	 * @param x		the value
+	 */
+	public void add(double x) {
+		if (count < 5) {
+			q[count++] = x;
+			if (count == 5) {
+				Arrays.sort(q);
+				for (int i = 0; i < 5; i++) {
+					n[i] = i + 1;
+				}
+			}
+			return;
+		}
+		count++;
+
+		// Find the cell holding x, stretching the ends if needed
+		int k;
+		if (x < q[0]) {
+			q[0] = x;
+			k = 0;
+		} else if (x >= q[4]) {
+			q[4] = x;
+			k = 3;
+		} else {
+			k = 0;
+			while (x >= q[k + 1]) {
+				k++;
+			}
+		}
+		for (int i = k + 1; i < 5; i++) {
+			n[i]++;
+		}
+		for (int i = 0; i < 5; i++) {
+			np[i] += dn[i];
+		}
+
+		// Move the middle markers towards where they should be
+		for (int i = 1; i < 4; i++) {
+			double d = np[i] - n[i];
+			if ((d >= 1 && n[i + 1] - n[i] > 1) || (d <= -1 && n[i - 1] - n[i] < -1)) {
+				int s = d > 0 ? 1 : -1;
+				double qp = parabolic(i, s);
+				if (q[i - 1] < qp && qp < q[i + 1]) {
+					q[i] = qp;
+				} else {
+					q[i] = q[i] + s * (q[i + s] - q[i]) / (n[i + s] - n[i]);
+				}
+				n[i] += s;
+			}
+		}
+	}
+
+	private double parabolic(int i, int s) {
+		return q[i] + (double) s / (n[i + 1] - n[i - 1])
+				* ((n[i] - n[i - 1] + s) * (q[i + 1] - q[i]) / (n[i + 1] - n[i])
+				+ (n[i + 1] - n[i] - s) * (q[i] - q[i - 1]) / (n[i] - n[i - 1]));
+	}
+
+	/**
+	 * @return number of values added
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the estimated quantile, NaN if no values have been added
+	 */
+	public double get() {
+		if (count == 0) {
+			return Double.NaN;
+		}
+		if (count < 5) {
+			// Exact from the few values there are
+			double v[] = Arrays.copyOf(q, count);
+			Arrays.sort(v);
+			return v[(int) Math.min(count - 1, Math.round(p * (count - 1)))];
+		}
+		return q[2];
+	}
+}
@@ -50,6 +50,22 @@ public class Programme {
 	 * @param randpc		float percentage randomisation
 	 */
 	public Programme(int progsteps[], float randpc) {
+		this(progsteps, randpc, rgen);
+	}
+
+	/**
+	 * Constructor for a Programme object randomised from a given
+	 * random number generator rather than the shared one, so that
+	 * a fleet can be made repeatable on its own.
+	 *
+	 * @param progsteps		an array of integers, in pairs
+	 *                      each pair represents
+	 *                      step time in seconds
+	 *                      step power in Watts
+	 * @param randpc		float percentage randomisation
+	 * @param rgen			random number generator to use
+	 */
+	public Programme(int progsteps[], float randpc, Random rgen) {
 		numSteps = progsteps.length / 2;	// array of time/power pairs
 		steps = new ProgrammeStep[numSteps];
 		stepNumber = 0;
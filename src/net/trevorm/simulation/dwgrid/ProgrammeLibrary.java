@@ -0,0 +1,539 @@
+/*****************************************************************************
+ *
+ *  ProgrammeLibrary
+ *
+ *  Class holding appliance programmes measured from power traces
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * A library of appliance programmes, each a table of steps of time
+ * and power like DishwasherLoad's two, made from measured power traces
+ * rather than entered by hand.
+ *
+ * build() reads every trace in a directory - text files of time (s)
+ * and power (W) pairs, each power held until the next time, with an
+ * optional "# target" line giving the wash temperature in C - and
+ * compresses each to at most MAX_STEPS steps (see compress()).  The
+ * tables are written end to end into one library file, which is
+ * replaced whole, never rewritten in place:
+ *
+ *   int MAGIC, int VERSION, int count, int crc of what follows,
+ *   int offset of each programme, in ints from the start,
+ *   then for each programme: int steps, float target,
+ *   int name length, name in UTF-8 padded to a whole int,
+ *   then time and power ints for each step
+ *
+ * open() maps the file read only and reads the tables where they lie,
+ * so the library itself is never copied onto the heap.  A file is only
+ * mapped once in a JVM, and worker processes mapping the same file
+ * share its pages.  A DishwasherFleet still copies each machine's
+ * programme into its own tables as it randomises the steps, 12 bytes a
+ * step per machine.
+ *
+ * @author trevorm
+ *
+ */
+public class ProgrammeLibrary {
+
+	public static final int MAGIC = 0x64777067;
+	public static final int VERSION = 1;
+	public static final int HEADER_INTS = 4;
+	public static final int MAX_STEPS = DishwasherFleet.STEP_BITS + 1;
+
+	// Compression, see compress()
+	public static double absTol = 100;		// powers closer than this (W) are one step
+	public static double relTol = 0.15;		// or closer than this fraction of the step's power
+	public static double minStep = 60;		// shortest step kept (s)
+
+	protected static HashMap<String, ProgrammeLibrary> open = new HashMap<String, ProgrammeLibrary>();
+
+	protected String path;
+	protected ByteBuffer map;
+	protected IntBuffer ints;
+	protected int count;
+	protected long crc;
+	protected long modified;		// when the file mapped was last changed
+
+	/**
+	 * Constructor for a ProgrammeLibrary on a mapped file
+	 *
+	 * @param path		the file
+	 * @param map		all of it, mapped
+	 * @throws IOException	if it is not a library or is empty
+	 */
+	protected ProgrammeLibrary(String path, ByteBuffer map) throws IOException {
+		this.path = path;
+		this.map = map;
+		ints = map.asIntBuffer();
+		if (ints.limit() < HEADER_INTS || ints.get(0) != MAGIC) {
+			throw new IOException(path + " is not a programme library");
+		}
+		if (ints.get(1) != VERSION) {
+			throw new IOException(path + " is library version " + ints.get(1) + ", not " + VERSION);
+		}
+		count = ints.get(2);
+		if (count <= 0) {
+			throw new IOException(path + " holds no programmes");
+		}
+		crc = ints.get(3) & 0xFFFFFFFFL;
+		CRC32 check = new CRC32();
+		ByteBuffer body = map.duplicate();
+		body.position(HEADER_INTS * 4);
+		check.update(body);
+		if (check.getValue() != crc) {
+			throw new IOException(path + " is corrupt");
+		}
+	}
+
+	/**
+	 * Open a library, or find it already open.  A library whose file
+	 * has been replaced since it was opened is opened again, so its key
+	 * always describes what is on disk.
+	 *
+	 * @param path		the library file
+	 * @return			the library
+	 * @throws IOException	if it cannot be read, is not a library or is empty
+	 */
+	public static synchronized ProgrammeLibrary open(String path) throws IOException {
+		String key = new File(path).getCanonicalPath();
+		ProgrammeLibrary lib = open.get(key);
+		long modified = new File(key).lastModified();
+		if (lib == null || lib.modified != modified) {
+			RandomAccessFile raf = new RandomAccessFile(key, "r");
+			try {
+				FileChannel fc = raf.getChannel();
+				lib = new ProgrammeLibrary(key, fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size()));
+				lib.modified = modified;
+			}
+			finally {
+				// the mapping outlives the channel
+				raf.close();
+			}
+			open.put(key, lib);
+		}
+		return lib;
+	}
+
+	/**
+	 * @return		number of programmes
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @param k		programme
+	 * @return		number of steps in it
+	 */
+	public int getNumSteps(int k) {
+		return ints.get(ints.get(HEADER_INTS + k));
+	}
+
+	/**
+	 * @param k		programme
+	 * @return		its wash temperature (C)
+	 */
+	public float getTarget(int k) {
+		return Float.intBitsToFloat(ints.get(ints.get(HEADER_INTS + k) + 1));
+	}
+
+	/**
+	 * @param k		programme
+	 * @return		the name of the trace it was made from
+	 */
+	public String getName(int k) {
+		int at = ints.get(HEADER_INTS + k);
+		byte b[] = new byte[ints.get(at + 2)];
+		ByteBuffer name = map.duplicate();
+		name.position((at + 3) * 4);
+		name.get(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param k		programme
+	 * @return		index in the file, in ints, of its first step's time
+	 */
+	protected int stepsAt(int k) {
+		int at = ints.get(HEADER_INTS + k);
+		return at + 3 + (ints.get(at + 2) + 3) / 4;
+	}
+
+	/**
+	 * @param k		programme
+	 * @param i		step
+	 * @return		step time in seconds
+	 */
+	public int getStepTime(int k, int i) {
+		return ints.get(stepsAt(k) + i * 2);
+	}
+
+	/**
+	 * @param k		programme
+	 * @param i		step
+	 * @return		step power in Watts
+	 */
+	public int getStepPower(int k, int i) {
+		return ints.get(stepsAt(k) + i * 2 + 1);
+	}
+
+	/**
+	 * @param k		programme
+	 * @return		its time/power pairs, as DishwasherLoad's, read from
+	 * 				the mapped file without copying
+	 */
+	public IntBuffer getSteps(int k) {
+		IntBuffer steps = ints.duplicate();
+		steps.position(stepsAt(k));
+		steps.limit(steps.position() + getNumSteps(k) * 2);
+		return steps.slice();
+	}
+
+	/**
+	 * @param k		programme
+	 * @return		a copy of it as time/power pairs, as DishwasherLoad's
+	 */
+	public int[] getProgramme(int k) {
+		int prog[] = new int[getNumSteps(k) * 2];
+		getSteps(k).get(prog);
+		return prog;
+	}
+
+	/**
+	 * @return		identifies the library and its contents
+	 */
+	public String getKey() {
+		return "ProgrammeLibrary " + path + " " + count + " " + Long.toHexString(crc);
+	}
+
+	/**
+	 * Compress a power trace to a table of steps.  Samples are taken
+	 * into a step while their power stays within tolerance of the
+	 * step's mean power, weighted by time.  Steps shorter than minStep
+	 * are then merged into whichever neighbour is closer in power, and
+	 * neighbours within tolerance of each other joined, and while
+	 * there are more than MAX_STEPS the neighbours whose joining moves
+	 * least energy are joined.  The mean power of a step is kept when
+	 * steps are joined, so the energy of the trace is kept but for
+	 * rounding.
+	 *
+	 * @param time		time of each sample (s), increasing
+	 * @param power		power from it to the next (W)
+	 * @param n			number of samples
+	 * @return			time/power pairs, as DishwasherLoad's programmes
+	 */
+	public static int[] compress(double time[], double power[], int n) {
+		if (n < 2) {
+			throw new IllegalArgumentException("A trace needs two samples");
+		}
+		// the last sample is held for a typical interval
+		double dur[] = new double[n];
+		for (int i = 0; i < n - 1; i++) {
+			dur[i] = time[i + 1] - time[i];
+			if (dur[i] <= 0) {
+				throw new IllegalArgumentException("Trace times must increase, at " + time[i + 1]);
+			}
+		}
+		double sorted[] = Arrays.copyOf(dur, n - 1);
+		Arrays.sort(sorted);
+		dur[n - 1] = sorted[(n - 1) / 2];
+
+		double stepDur[] = new double[n];
+		double stepPow[] = new double[n];
+		int m = 0;
+		for (int i = 0; i < n; i++) {
+			if (m > 0 && close(stepPow[m - 1], power[i])) {
+				double d = stepDur[m - 1] + dur[i];
+				stepPow[m - 1] = (stepPow[m - 1] * stepDur[m - 1] + power[i] * dur[i]) / d;
+				stepDur[m - 1] = d;
+			} else {
+				stepDur[m] = dur[i];
+				stepPow[m] = power[i];
+				m++;
+			}
+		}
+
+		boolean changed = true;
+		while (changed && m > 1) {
+			changed = false;
+			// the shortest step under minStep goes first
+			int s = -1;
+			for (int i = 0; i < m; i++) {
+				if (stepDur[i] < minStep && (s < 0 || stepDur[i] < stepDur[s])) {
+					s = i;
+				}
+			}
+			if (s >= 0) {
+				int into;
+				if (s == 0) {
+					into = 1;
+				} else if (s == m - 1) {
+					into = m - 2;
+				} else {
+					into = Math.abs(stepPow[s - 1] - stepPow[s]) <= Math.abs(stepPow[s + 1] - stepPow[s]) ? s - 1 : s + 1;
+				}
+				m = join(stepDur, stepPow, m, Math.min(s, into));
+				changed = true;
+				continue;
+			}
+			for (int i = 0; i < m - 1; i++) {
+				if (close(stepPow[i], stepPow[i + 1])) {
+					m = join(stepDur, stepPow, m, i);
+					changed = true;
+					break;
+				}
+			}
+		}
+		while (m > MAX_STEPS) {
+			int best = 0;
+			double bestCost = Double.MAX_VALUE;
+			for (int i = 0; i < m - 1; i++) {
+				double cost = Math.min(stepDur[i], stepDur[i + 1]) * Math.abs(stepPow[i] - stepPow[i + 1]);
+				if (cost < bestCost) {
+					bestCost = cost;
+					best = i;
+				}
+			}
+			m = join(stepDur, stepPow, m, best);
+		}
+
+		int prog[] = new int[m * 2];
+		for (int i = 0; i < m; i++) {
+			prog[i * 2] = Math.max(1, (int) Math.round(stepDur[i]));
+			prog[i * 2 + 1] = Math.max(0, (int) Math.round(stepPow[i]));
+		}
+		return prog;
+	}
+
+	/**
+	 * @return		true if two powers belong in one step
+	 */
+	protected static boolean close(double a, double b) {
+		return Math.abs(a - b) <= Math.max(absTol, relTol * Math.max(Math.abs(a), Math.abs(b)));
+	}
+
+	/**
+	 * Join step i to step i + 1, keeping the energy
+	 *
+	 * @return		number of steps left
+	 */
+	protected static int join(double stepDur[], double stepPow[], int m, int i) {
+		double d = stepDur[i] + stepDur[i + 1];
+		stepPow[i] = (stepPow[i] * stepDur[i] + stepPow[i + 1] * stepDur[i + 1]) / d;
+		stepDur[i] = d;
+		System.arraycopy(stepDur, i + 2, stepDur, i + 1, m - i - 2);
+		System.arraycopy(stepPow, i + 2, stepPow, i + 1, m - i - 2);
+		return m - 1;
+	}
+
+	/**
+	 * Build a library from every trace in a directory, in name order
+	 *
+	 * @param dir		directory of traces
+	 * @param lib		library file to write
+	 * @return			number of programmes written
+	 * @throws IOException	if there are no traces, one cannot be read or
+	 * 						the library cannot be written
+	 */
+	public static int build(File dir, File lib) throws IOException {
+		File files[] = dir.listFiles();
+		if (files == null) {
+			throw new IOException(dir + " is not a directory");
+		}
+		Arrays.sort(files);
+		ArrayList<int[]> progs = new ArrayList<int[]>();
+		ArrayList<Float> targets = new ArrayList<Float>();
+		ArrayList<byte[]> names = new ArrayList<byte[]>();
+		for (File f : files) {
+			if (!f.isFile() || f.getName().startsWith(".")) {
+				continue;
+			}
+			float target[] = {DishwasherLoad.STANDARD_TEMP};
+			double trace[][] = readTrace(f, target);
+			try {
+				progs.add(compress(trace[0], trace[1], trace[0].length));
+			}
+			catch (IllegalArgumentException iae) {
+				throw new IOException(f + ": " + iae.getMessage());
+			}
+			targets.add(target[0]);
+			String name = f.getName();
+			int dot = name.lastIndexOf('.');
+			names.add((dot > 0 ? name.substring(0, dot) : name).getBytes(StandardCharsets.UTF_8));
+		}
+
+		if (progs.isEmpty()) {
+			throw new IOException(dir + " holds no traces");
+		}
+
+		// lay the programmes out after the header and offsets
+		int count = progs.size();
+		int offset[] = new int[count];
+		int at = HEADER_INTS + count;
+		for (int k = 0; k < count; k++) {
+			offset[k] = at;
+			at += 3 + (names.get(k).length + 3) / 4 + progs.get(k).length;
+		}
+		ByteBuffer body = ByteBuffer.allocate((at - HEADER_INTS) * 4);
+		for (int k = 0; k < count; k++) {
+			body.putInt(offset[k]);
+		}
+		for (int k = 0; k < count; k++) {
+			body.putInt(progs.get(k).length / 2);
+			body.putFloat(targets.get(k));
+			byte name[] = names.get(k);
+			body.putInt(name.length);
+			body.put(name);
+			body.put(new byte[(4 - name.length % 4) % 4]);
+			for (int v : progs.get(k)) {
+				body.putInt(v);
+			}
+		}
+		CRC32 crc = new CRC32();
+		crc.update(body.array());
+
+		// written beside it and moved into place, never truncated, as
+		// other JVMs may have the old file mapped
+		File parent = lib.getAbsoluteFile().getParentFile();
+		File tmp = File.createTempFile(lib.getName(), ".tmp", parent);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(count);
+				out.writeInt((int) crc.getValue());
+				out.write(body.array());
+			}
+			finally {
+				out.close();
+			}
+			Files.move(tmp.toPath(), lib.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally {
+			tmp.delete();
+		}
+		synchronized (ProgrammeLibrary.class) {
+			// a new file under the same name
+			open.remove(lib.getCanonicalPath());
+		}
+		return count;
+	}
+
+	/**
+	 * Read a power trace
+	 *
+	 * @param f			the trace
+	 * @param target	set to the wash temperature if the trace gives one
+	 * @return			times and powers
+	 * @throws IOException	if it cannot be read
+	 */
+	protected static double[][] readTrace(File f, float target[]) throws IOException {
+		double time[] = new double[1024];
+		double power[] = new double[1024];
+		int n = 0;
+		BufferedReader in = new BufferedReader(new FileReader(f));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.startsWith("#")) {
+					String words[] = line.substring(1).trim().split("\\s+");
+					if (words.length == 2 && words[0].equalsIgnoreCase("target")) {
+						target[0] = Float.parseFloat(words[1]);
+					}
+					continue;
+				}
+				String v[] = line.split("[,\\s]+");
+				if (v.length < 2 || v[0].isEmpty() || !(Character.isDigit(v[0].charAt(0)) || v[0].charAt(0) == '-' || v[0].charAt(0) == '.')) {
+					// a header, or blank
+					continue;
+				}
+				if (n == time.length) {
+					time = Arrays.copyOf(time, n * 2);
+					power = Arrays.copyOf(power, n * 2);
+				}
+				try {
+					time[n] = Double.parseDouble(v[0]);
+					power[n] = Double.parseDouble(v[1]);
+				}
+				catch (NumberFormatException nfe) {
+					throw new IOException(f + ": cannot read \"" + line + "\"");
+				}
+				n++;
+			}
+		}
+		finally {
+			in.close();
+		}
+		return new double[][] {Arrays.copyOf(time, n), Arrays.copyOf(power, n)};
+	}
+
+	/**
+	 * Build a library from a directory of traces and list what is in it
+	 * @param args	directory of traces and library file, by default
+	 * 				programmes and programmes.lib
+	 */
+	public static void main(String[] args) {
+		String dir = args.length > 0 ? args[0] : "programmes";
+		String file = args.length > 1 ? args[1] : "programmes.lib";
+		try {
+			long start = System.currentTimeMillis();
+			int count = build(new File(dir), new File(file));
+			System.out.println(count + " programmes from " + dir + " into " + file + " ("
+					+ new File(file).length() + " bytes) in " + (System.currentTimeMillis() - start) + " ms");
+			ProgrammeLibrary lib = open(file);
+			for (int k = 0; k < lib.size(); k++) {
+				long energy = 0;
+				int runTime = 0;
+				for (int i = 0; i < lib.getNumSteps(k); i++) {
+					energy += (long) lib.getStepTime(k, i) * lib.getStepPower(k, i);
+					runTime += lib.getStepTime(k, i);
+				}
+				System.out.println(lib.getName(k) + ": " + lib.getNumSteps(k) + " steps, " + runTime + " s, "
+						+ energy / 3600 + " Wh, " + lib.getTarget(k) + " C");
+			}
+		}
+		catch (IOException ie) {
+			System.err.println("IOException: " + ie);
+		}
+	}
+}
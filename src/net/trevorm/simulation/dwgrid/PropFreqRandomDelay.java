@@ -32,9 +32,9 @@ package net.trevorm.simulation.dwgrid;
  * inversely proportional to the internal temperature
  * and turning on again when the delay times out and
  * the grid frequency has risen above a fixed value.
- * Since temperatures are not actually modelled, the percentage
- * of a heating cycle completed is taken as a proxy for
- * internal temperature.
+ * The internal temperature is the water temperature of a
+ * ThermalModel, as a fraction of the way from ambient to the
+ * wash temperature.
  * 
  * The 'random' delay is scaled proportional to the internal 
  * temperature of the dishwasher.  The closer the machine is 
@@ -65,22 +65,23 @@ public class PropFreqRandomDelay extends Dishwasher {
 	/**
 	 * Overrides the base class runProgramme() method
 	 * Turns off heating if frequency drops below a frequency
-	 * inversely proportional to the percentage of the heating
-	 * cycle completed.  Threshold set between turnofffreq and 
+	 * inversely proportional to the internal temperature.
+	 * Threshold set between turnofffreq and 
 	 * turnofffreq + 0.3Hz - effectively 49.5 to 49.8 Hz.
 	 * Waits for a randomised delay and tests frequency against
 	 * the same threshold. If frequency < threshold wait again 
 	 * for a new randomised delay.
 	 * 
 	 * Random delay is scaled inversely proportionally to the 
-	 * percentage of the heating cycle completed
+	 * internal temperature
 	 */
 	public float runProgramme(double freq, double dT) {
 		float load = 0;
-		float pcStepTime = 0;
+		float warmth = 0;
 		float propturnoff;
 
 		if (delay) {
+			updateTemp(false, dT);
 			waittime += dT;
 			totdelaytime += dT;
 			if (totdelaytime >= maxdelaytime) {
@@ -90,7 +91,9 @@ public class PropFreqRandomDelay extends Dishwasher {
 				if (waittime > retrytime) {
 					if (freq < turnonfreq) {
 						waittime = 0;
-						retrytime = rngen.nextFloat() * maxofftime * (1 - pcStepTime);					} else {
+						// the water has cooled while delayed
+						warmth = getWarmth();
+						retrytime = rngen.nextFloat() * maxofftime * (1 - warmth);					} else {
 						delay = false;
 						load = p.steps[p.stepNumber].power;
 					}
@@ -100,8 +103,9 @@ public class PropFreqRandomDelay extends Dishwasher {
 		} else {
 			p.stepRunTime += dT;
 			runtime += dT;
-			pcStepTime = p.stepRunTime / (float)p.steps[0].stepTime;
-			propturnoff  = turnofffreq + (0.1F * (1.0F - pcStepTime));
+			updateTemp(true, dT);
+			warmth = getWarmth();
+			propturnoff  = turnofffreq + (0.1F * (1.0F - warmth));
 
 			if (p.stepRunTime > p.steps[p.stepNumber].stepTime) {
 				p.stepNumber++;
@@ -118,7 +122,7 @@ public class PropFreqRandomDelay extends Dishwasher {
 				delay = true;
 				heating = false;
 				waittime = 0;
-				retrytime = rngen.nextFloat() * maxofftime * (1 - pcStepTime);
+				retrytime = rngen.nextFloat() * maxofftime * (1 - warmth);
 				load = p.steps[0].power;
 			} else {
 				load = p.steps[p.stepNumber].power;
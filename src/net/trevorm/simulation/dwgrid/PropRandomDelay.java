@@ -34,9 +34,10 @@ package net.trevorm.simulation.dwgrid;
  * 
  * The 'random' delay is scaled proportional to the internal 
  * temperature of the dishwasher.  The closer the machine is 
- * to it's target temperature the shorter the delay.  Since 
- * temperatures are not actually modelled, progress through 
- * a heating cycle is taken as a proxy for internal temperature.
+ * to it's target temperature the shorter the delay.  The
+ * internal temperature is the water temperature of a
+ * ThermalModel, as a fraction of the way from ambient to the
+ * wash temperature.
  * 
  * @author trevorm
  *
@@ -66,13 +67,14 @@ public class PropRandomDelay extends Dishwasher {
 	 * turnonfreq.  If frequency < turnonfreq wait again for a 
 	 * new randomised delay.
 	 * Random delay is scaled inversely proportionally to the 
-	 * percentage of the heating cycle completed
+	 * internal temperature
 	 */
 	public float runProgramme(double freq, double dT) {
 		float load = 0;
-		float pcStepTime = 0;
+		float warmth = 0;
 		
 		if (delay) {
+			updateTemp(false, dT);
 			waittime += dT;
 			totdelaytime += dT;
 			if (totdelaytime >= maxdelaytime) {
@@ -82,7 +84,9 @@ public class PropRandomDelay extends Dishwasher {
 				if (waittime > retrytime) {
 					if (freq < turnonfreq) {
 						waittime = 0;
-						retrytime = rngen.nextFloat() * maxofftime * (1 - pcStepTime);					} else {
+						// the water has cooled while delayed
+						warmth = getWarmth();
+						retrytime = rngen.nextFloat() * maxofftime * (1 - warmth);					} else {
 						delay = false;
 						load = p.steps[p.stepNumber].power;
 					}
@@ -93,6 +97,7 @@ public class PropRandomDelay extends Dishwasher {
 		} else {
 			p.stepRunTime += dT;
 			runtime += dT;
+			updateTemp(true, dT);
 			if (p.stepRunTime > p.steps[p.stepNumber].stepTime) {
 				p.stepNumber++;
 				p.stepRunTime = 0;
@@ -108,8 +113,8 @@ public class PropRandomDelay extends Dishwasher {
 				delay = true;
 				heating = false;
 				waittime = 0;
-				pcStepTime = p.stepRunTime / (float)p.steps[0].stepTime;
-				retrytime = rngen.nextFloat() * maxofftime * (1 - pcStepTime);
+				warmth = getWarmth();
+				retrytime = rngen.nextFloat() * maxofftime * (1 - warmth);
 				load = p.steps[0].power;
 			} else {
 				load = p.steps[p.stepNumber].power;
@@ -0,0 +1,342 @@
+/*****************************************************************************
+ *
+ *  RealTimeSimulation
+ *
+ *  Driver class running dwgrid in step with the wall clock
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class to run the Grid, Generators and a DishwasherFleet in step with
+ * the wall clock, so that real controllers can be tested against it as
+ * if it were the grid.
+ *
+ * Tick n is released at start + n * dT and must be done by the release
+ * of tick n + 1.  Every tick publishes the frequency as one UDP packet
+ * to feedTo:
+ *
+ *   long tick, double t (s), double freq (Hz), double Pl (W)
+ *
+ * big-endian, 32 bytes.  Load injections are UDP packets sent to
+ * listenPort holding one big-endian double, the external load in W,
+ * which stands until the next injection, so a lost packet is made good
+ * by the next one.  The latest injection to arrive before a tick is
+ * used in it.
+ *
+ * Everything the tick uses is made before the clock starts, so ticks
+ * allocate nothing and the collector has no reason to run while paced.
+ * The time from release to end of each tick is kept in a histogram of
+ * BUCKET_NS buckets, and every tick that missed its deadline is
+ * recorded, up to MAX_MISSES of them.
+ *
+ * @author trevorm
+ *
+ */
+public class RealTimeSimulation implements Closeable {
+
+	public static final int PACKET_BYTES = 32;
+	public static final long BUCKET_NS = 10000;			// 10us latency buckets
+	public static final int NUM_BUCKETS = 10000;		// up to 100ms, then overflow
+	public static final int MAX_MISSES = 65536;
+	public static final long SPIN_NS = 200000;			// spin, not park, for the last 0.2ms
+
+	// Simulation parameters, as Simulation
+	public double H = 4;					// Inertial constant
+	public double basegen  = 30000000000.0;	// base generating capacity
+	public double rsvgen   = 0;				// spinning reserve capacity
+	public double loadstep = 1320000000.0;	// loss of generation
+	public double stepAt   = 20;			// time of the loss (s), or < 0 for none
+	public double restoreAt = 140;			// time the base capacity is restored (s)
+	public int    numdws   = 100000;		// number of dishwashers simulated
+	public double dwmult   = 12800;			// dishwasher multiplier
+	public float  pcEco    = 40.0F;			// percentage of dishwashers running an 'eco' programme
+	public float  turnofffreq = 49.8F;		// turn off frequency
+	public float  turnonfreq  = 49.95F;		// turn on frequency
+	public float  fnom     = 50.0F;			// Grid nominal frequency
+	public double droop    = 4.0;			// Generator droop
+	public double gain     = 0.0067;		// Generator controller gain
+	public double dT       = 0.1;			// tick, and wall clock period (s)
+	public long   seed     = 1;
+
+	// Network
+	public SocketAddress feedTo = new InetSocketAddress("127.0.0.1", 50500);	// frequency feed
+	public int listenPort = 50501;			// load injections
+
+	// Model
+	protected Grid grid;
+	protected Generator baseg;
+	protected Generator sprsv;
+	protected ApplianceFleet dl;
+	protected double baseload;
+	protected boolean stepped;
+
+	// State
+	public double freq;					// grid frequency
+	public double t;					// simulated time (s)
+	public double Pl;					// total load (W)
+	public double Pinj;					// external load injected (W)
+	public double Pdw;					// dishwasher load (W)
+
+	// Timing
+	public long hist[] = new long[NUM_BUCKETS + 1];	// ticks by release to end latency
+	public long missTick[] = new long[MAX_MISSES];	// ticks which missed their deadline
+	public long missLate[] = new long[MAX_MISSES];	// and by how much (ns)
+	public int numMisses;				// deadline misses, all counted
+	public long maxLatency;				// worst release to end latency (ns)
+	public long numTicks;				// ticks run
+	public long numInjections;			// injection packets taken
+	public long numSendFailed;			// feed packets the socket would not take
+	public long allocated = -1;			// bytes allocated while paced, if known
+
+	protected DatagramChannel feed;
+	protected DatagramChannel inject;
+	protected ByteBuffer out = ByteBuffer.allocateDirect(PACKET_BYTES);
+	protected ByteBuffer in = ByteBuffer.allocateDirect(64);
+
+	/**
+	 * Build the model and open the sockets
+	 *
+	 * @throws IOException	if a socket cannot be opened
+	 */
+	public void open() throws IOException {
+		dl = new DishwasherFleet(numdws, pcEco, dT, seed);
+		dl.setTurnOffFreq(turnofffreq);
+		dl.setTurnOnFreq(turnonfreq);
+		freq = fnom;
+		t = 0;
+		Pinj = 0;
+		stepped = false;
+
+		// start balanced on the fleet's first load
+		Pdw = dl.calcLoad(dT, freq) * dwmult;
+		baseload = basegen - Pdw;
+		grid = new Grid(basegen + Pdw + loadstep, H, fnom);
+		baseg = new Generator(basegen, 52.0, fnom, droop, gain, basegen);
+		sprsv = new Generator(rsvgen, 50.0, fnom, droop, 0.3);
+
+		feed = DatagramChannel.open();
+		feed.configureBlocking(false);
+		inject = DatagramChannel.open();
+		inject.configureBlocking(false);
+		inject.bind(new InetSocketAddress(listenPort));
+	}
+
+	/**
+	 * Close the sockets, those opened if open() failed part way
+	 */
+	public void close() throws IOException {
+		try {
+			if (feed != null) {
+				feed.close();
+			}
+		}
+		finally {
+			if (inject != null) {
+				inject.close();
+			}
+		}
+	}
+
+	/**
+	 * One tick of the model: take injections, step, publish
+	 *
+	 * @param n		tick number
+	 * @throws IOException	if a socket fails
+	 */
+	protected void tick(long n) throws IOException {
+		// the latest injection waiting wins
+		in.clear();
+		while (inject.receive(in) != null) {
+			if (in.position() >= 8) {
+				Pinj = in.getDouble(0);
+				numInjections++;
+			}
+			in.clear();
+		}
+
+		t += dT;
+		Pdw = dl.calcLoad(dT, freq) * dwmult;
+		Pl = baseload + Pdw + Pinj;
+		double Pbase = baseg.getCurrPower(freq, dT);
+		double Psp = sprsv.getCurrPower(freq, dT);
+		double Pr = grid.getReleasedPower(baseload, freq, fnom);
+		double Ps = Pbase + Psp + Pr - Pl;
+		freq = grid.getNewFreq(freq, Ps, dT);
+
+		if (stepAt >= 0 && !stepped && t >= stepAt) {
+			baseg.overrideCurrentPower(basegen - loadstep);
+			baseg.setNewPower(basegen - loadstep);
+			stepped = true;
+		}
+		if (stepped && t >= restoreAt) {
+			baseg.setNewPower(basegen);
+		}
+
+		out.clear();
+		out.putLong(n);
+		out.putDouble(t);
+		out.putDouble(freq);
+		out.putDouble(Pl);
+		out.flip();
+		if (feed.send(out, feedTo) == 0) {
+			numSendFailed++;
+		}
+	}
+
+	/**
+	 * Run in step with the wall clock
+	 *
+	 * @param seconds	how long to run
+	 * @throws IOException	if a socket fails
+	 */
+	public void run(double seconds) throws IOException {
+		long period = Math.round(dT * 1e9);
+		long ticks = Math.round(seconds / dT);
+		java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		com.sun.management.ThreadMXBean amx = mx instanceof com.sun.management.ThreadMXBean
+				? (com.sun.management.ThreadMXBean) mx : null;
+		long tid = Thread.currentThread().getId();
+
+		// one untimed tick so the first timed one is not the first run
+		tick(0);
+		long before = amx == null ? -1 : amx.getThreadAllocatedBytes(tid);
+		long start = System.nanoTime() + period;
+		for (long n = 1; n <= ticks; n++) {
+			long release = start + (n - 1) * period;
+			long left;
+			while ((left = release - System.nanoTime()) > SPIN_NS) {
+				LockSupport.parkNanos(left - SPIN_NS);
+			}
+			while (System.nanoTime() < release) {
+				Thread.onSpinWait();
+			}
+
+			tick(n);
+
+			long latency = System.nanoTime() - release;
+			long b = latency / BUCKET_NS;
+			hist[b < NUM_BUCKETS ? (int) b : NUM_BUCKETS]++;
+			if (latency > maxLatency) {
+				maxLatency = latency;
+			}
+			if (latency > period) {
+				if (numMisses < MAX_MISSES) {
+					missTick[numMisses] = n;
+					missLate[numMisses] = latency - period;
+				}
+				numMisses++;
+			}
+			numTicks++;
+		}
+		if (before >= 0) {
+			allocated = amx.getThreadAllocatedBytes(tid) - before;
+		}
+	}
+
+	/**
+	 * Latency below which a fraction of ticks finished
+	 *
+	 * @param q		fraction, 0 to 1
+	 * @return		upper edge of its bucket (ns)
+	 */
+	public long percentile(double q) {
+		long need = (long) Math.ceil(q * numTicks);
+		long seen = 0;
+		for (int b = 0; b < NUM_BUCKETS; b++) {
+			seen += hist[b];
+			if (seen >= need) {
+				return (b + 1) * BUCKET_NS;
+			}
+		}
+		return maxLatency;
+	}
+
+	/**
+	 * Run as a live grid
+	 * @param args	optional run time (s), tick (s), feed host:port and
+	 * 				injection port
+	 */
+	public static void main(String[] args) {
+		RealTimeSimulation rt = new RealTimeSimulation();
+		double seconds = 60;
+		if (args.length > 0) {
+			seconds = Double.parseDouble(args[0]);
+		}
+		if (args.length > 1) {
+			rt.dT = Double.parseDouble(args[1]);
+		}
+		if (args.length > 2) {
+			int c = args[2].lastIndexOf(':');
+			rt.feedTo = new InetSocketAddress(args[2].substring(0, c), Integer.parseInt(args[2].substring(c + 1)));
+		}
+		if (args.length > 3) {
+			rt.listenPort = Integer.parseInt(args[3]);
+		}
+
+		try {
+			// the sockets are closed however the run ends
+			try (rt) {
+				rt.open();
+				System.out.println("Feeding " + rt.feedTo + " every " + rt.dT + " s, injections on port "
+						+ rt.listenPort + ", for " + seconds + " s");
+				rt.run(seconds);
+			}
+
+			System.out.println(rt.numTicks + " ticks, " + rt.numMisses + " missed deadline, latency 50% "
+					+ rt.percentile(0.5) / 1000 + " us, 99% " + rt.percentile(0.99) / 1000 + " us, 99.9% "
+					+ rt.percentile(0.999) / 1000 + " us, max " + rt.maxLatency / 1000 + " us");
+			System.out.println(rt.numInjections + " injections, " + rt.numSendFailed + " feed packets dropped, "
+					+ (rt.allocated < 0 ? "allocation unknown" : rt.allocated + " bytes allocated while paced"));
+
+			FileOutputStream out = new FileOutputStream("realtime.dat");
+			PrintStream p = new PrintStream(out);
+			p.println("Tick (s) = " + rt.dT);
+			p.println("Ticks = " + rt.numTicks);
+			p.println("Missed deadlines = " + rt.numMisses);
+			p.println("Max latency (us) = " + rt.maxLatency / 1000.0);
+			p.println("Latency from (us), Ticks");
+			for (int b = 0; b <= NUM_BUCKETS; b++) {
+				if (rt.hist[b] > 0) {
+					p.println(b * BUCKET_NS / 1000 + ", " + rt.hist[b]);
+				}
+			}
+			p.println("Missed tick, Late by (us)");
+			for (int k = 0; k < Math.min(rt.numMisses, MAX_MISSES); k++) {
+				p.println(rt.missTick[k] + ", " + rt.missLate[k] / 1000.0);
+			}
+			out.close();
+		}
+		catch (IOException ie) {
+			System.err.println("IOException: " + ie);
+		}
+	}
+}
@@ -0,0 +1,190 @@
+/*****************************************************************************
+ *
+ *  ReplaySimulation
+ *
+ *  Driver class for dwgrid simulation of a fleet driven by a recorded
+ *  frequency trace
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Class to drive a fleet of dishwashers from a recorded frequency
+ * trace, with no feedback to the grid.
+ *
+ * As the frequency is known in advance the fleet is split into
+ * shards, each an independent fleet which runs the whole trace on
+ * its own thread.  The shards' results are only added up at the end.
+ *
+ * @author trevorm
+ *
+ */
+public class ReplaySimulation {
+
+	/**
+	 * One shard of the fleet and what it did at each sample
+	 */
+	public static class Shard implements Callable<Shard> {
+		public ApplianceFleet fleet;
+		public FrequencyTrace trace;
+		public double load[];		// load at each sample in Watts
+		public float onLoad[];		// number on heating load at each sample
+		public float delayed[];		// number delayed at each sample
+		public double maxtotdelay;	// longest delay of any appliance
+
+		/**
+		 * Constructor for a Shard
+		 *
+		 * @param fleet		the appliances in this shard
+		 * @param trace		frequency to drive them with
+		 */
+		public Shard(ApplianceFleet fleet, FrequencyTrace trace) {
+			this.fleet = fleet;
+			this.trace = trace;
+		}
+
+		/**
+		 * Run the shard through the whole trace
+		 *
+		 * @return		this shard
+		 */
+		public Shard call() {
+			int n = trace.numSamples;
+			load = new double[n];
+			onLoad = new float[n];
+			delayed = new float[n];
+			for (int i = 0; i < n; i++) {
+				load[i] = fleet.calcLoad(trace.dT, trace.freq[i]);
+				onLoad[i] = fleet.getPcOnLoad() * fleet.numAppliances / 100;
+				delayed[i] = fleet.getPcDelay() * fleet.numAppliances / 100;
+				maxtotdelay = Math.max(maxtotdelay, fleet.getMaxTotDelay());
+			}
+			return this;
+		}
+	}
+
+	/**
+	 * Run every shard through a trace, each on its own thread
+	 *
+	 * @param shards	the shards
+	 * @param threads	number of threads to use
+	 * @throws InterruptedException		if interrupted while waiting
+	 * @throws ExecutionException		if a shard fails
+	 */
+	public static void run(Shard shards[], int threads) throws InterruptedException, ExecutionException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Shard>> done = new ArrayList<Future<Shard>>();
+			for (Shard s : shards) {
+				done.add(pool.submit(s));
+			}
+			for (Future<Shard> f : done) {
+				f.get();
+			}
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Replay a frequency trace into a fleet of dishwashers
+	 * @param args	trace file (default results.dat), number of shards
+	 */
+	public static void main(String[] args) {
+		String path = "results.dat";
+		int numShards = Runtime.getRuntime().availableProcessors();
+		int shardSize = 1000;		// dishwashers simulated per shard
+		double numDws = 1280000;	// dishwashers represented
+		float pcEco = 40.0F;		// percentage of dishwashers running an 'eco' programme
+		float turnofffreq = 49.8F;	// turn off frequency
+		float turnonfreq = 49.95F;	// turn on frequency
+
+		if (args.length > 0) {
+			path = args[0];
+		}
+		if (args.length > 1) {
+			numShards = Integer.parseInt(args[1]);
+		}
+
+		try {
+			FrequencyTrace trace = FrequencyTrace.read(path);
+
+			// Built one after another, as programmes are randomised
+			// from a shared generator
+			Shard shards[] = new Shard[numShards];
+			for (int s = 0; s < numShards; s++) {
+				DishwasherLoad dl = new DishwasherLoad(shardSize, pcEco, 987654321L + s);
+				dl.setTurnOffFreq(turnofffreq);
+				dl.setTurnOnFreq(turnonfreq);
+				shards[s] = new Shard(dl, trace);
+			}
+
+			long start = System.currentTimeMillis();
+			run(shards, Runtime.getRuntime().availableProcessors());
+			System.out.println(numShards + " shards replayed in " + (System.currentTimeMillis() - start) + " ms");
+
+			FileOutputStream out = new FileOutputStream("replay.dat");
+			PrintStream p = new PrintStream(out);
+			double mult = numDws / (numShards * shardSize);
+			double maxtotdelay = 0;
+			for (Shard s : shards) {
+				maxtotdelay = Math.max(maxtotdelay, s.maxtotdelay);
+			}
+			p.println("Frequency trace = " + path);
+			p.println("Number of dishwashers = " + numDws);
+			p.println("Max delay (s) = " + maxtotdelay);
+			p.println("Time (s), Frequency (Hz), Pdw (MW), On load (%), Delayed (%)");
+			for (int i = 0; i < trace.numSamples; i++) {
+				double load = 0;
+				double onLoad = 0;
+				double delayed = 0;
+				for (Shard s : shards) {
+					load += s.load[i];
+					onLoad += s.onLoad[i];
+					delayed += s.delayed[i];
+				}
+				p.println(trace.getTime(i) + ", " + trace.freq[i] + ", " + load * mult / 1000000
+						+ ", " + 100 * onLoad / (numShards * shardSize) + ", " + 100 * delayed / (numShards * shardSize));
+			}
+			out.close();
+		}
+		catch (IOException ie) {
+			System.err.println("IOException: " + ie);
+		}
+		catch (InterruptedException ie) {
+			System.err.println("Interrupted: " + ie);
+		}
+		catch (ExecutionException ee) {
+			System.err.println("Shard failed: " + ee.getCause());
+		}
+	}
+}
@@ -0,0 +1,364 @@
+/*****************************************************************************
+ *
+ *  ResultCache
+ *
+ *  Class keeping the results of dwgrid Scenario runs on disk
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of Scenario results in a directory, so that a run already
+ * made - by this process or an earlier one - need not be made again.
+ *
+ * Each result is a file named by the SHA-256 hash of the Scenario's
+ * description and the model version, so any change of parameter, seed
+ * or model gives a new entry.  The summary is always kept; the
+ * sampled trace only if asked for.  When the files take more than the
+ * size limit the least recently used are deleted.
+ *
+ * Failing to read or write the cache never fails a run: a file that
+ * cannot be read is a miss, and one that cannot be written is not
+ * kept.  The cache may be shared by the threads of a process; a
+ * process only sees the results that were in the directory when it
+ * opened the cache and those it has kept since.
+ *
+ * @author trevorm
+ *
+ */
+public class ResultCache {
+
+	protected static final int MAGIC = 0x64776773;	// "dwgs"
+	protected static final String SUFFIX = ".res";
+
+	protected File dir;					// where the results are kept
+	protected long maxBytes;			// size limit
+	protected long numBytes;			// size of the files in the index
+	protected LinkedHashMap<String, Long> index;	// file sizes by key, least recently used first
+
+	public int hits;					// results found
+	public int misses;					// results not found
+
+	/**
+	 * Constructor for a ResultCache, indexing any results already in
+	 * the directory by the time they were last used
+	 *
+	 * @param dir			directory to keep the results in, made if need be
+	 * @param maxBytes		size limit in bytes
+	 * @throws IOException	if the directory cannot be made
+	 */
+	public ResultCache(File dir, long maxBytes) throws IOException {
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot make cache directory " + dir);
+		}
+		index = new LinkedHashMap<String, Long>(16, 0.75F, true);
+		File files[] = dir.listFiles();
+		if (files == null) {
+			throw new IOException("Cannot list cache directory " + dir);
+		}
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File a, File b) {
+				return Long.compare(a.lastModified(), b.lastModified());
+			}
+		});
+		for (File f : files) {
+			String name = f.getName();
+			if (name.endsWith(SUFFIX)) {
+				index.put(name.substring(0, name.length() - SUFFIX.length()), f.length());
+				numBytes += f.length();
+			} else if (name.endsWith(".tmp")) {
+				// left by a writer which died
+				f.delete();
+			}
+		}
+		evict();
+	}
+
+	/**
+	 * @param sc	a Scenario
+	 * @return		the hex SHA-256 of its description, the model version
+	 * 				and the contents of its programme library if any
+	 */
+	public static String key(Scenario sc) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			byte hash[] = md.digest(describe(sc).getBytes(StandardCharsets.UTF_8));
+			StringBuilder sb = new StringBuilder();
+			for (byte b : hash) {
+				sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return sb.toString();
+		}
+		catch (NoSuchAlgorithmException nae) {
+			throw new IllegalStateException("No SHA-256", nae);
+		}
+	}
+
+	private static String describe(Scenario sc) {
+		String d = "dwgrid model " + Scenario.MODEL_VERSION + "\n" + sc.describe();
+		if (!sc.programmeLibrary.isEmpty()) {
+			// the library's contents, not just where it is
+			try {
+				d += ProgrammeLibrary.open(sc.programmeLibrary).getKey() + "\n";
+			}
+			catch (IOException ie) {
+				throw new IllegalArgumentException("Cannot open programme library " + sc.programmeLibrary, ie);
+			}
+		}
+		return d;
+	}
+
+	/**
+	 * Look up the result of a Scenario
+	 *
+	 * @param sc		the Scenario
+	 * @param trace		is the sampled trace wanted as well as the summary?
+	 * @return			the result, with no samples if the trace was not
+	 * 					wanted, or null if it is not in the cache
+	 */
+	public Scenario.Result get(Scenario sc, boolean trace) {
+		String key = key(sc);
+		synchronized (this) {
+			if (!index.containsKey(key)) {
+				misses++;
+				return null;
+			}
+		}
+		File f = file(key);
+		Scenario.Result r = null;
+		try {
+			r = read(f, describe(sc), trace);
+		}
+		catch (IOException ie) {
+			// evicted since, or damaged
+			synchronized (this) {
+				remove(key);
+			}
+		}
+		synchronized (this) {
+			if (r == null) {
+				misses++;
+			} else {
+				hits++;
+				index.get(key);
+				f.setLastModified(System.currentTimeMillis());
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * Keep the result of a Scenario.  A result already kept with its
+	 * trace is not replaced by one without.
+	 *
+	 * @param sc		the Scenario
+	 * @param r			what its run did
+	 * @param trace		keep the sampled trace as well as the summary?
+	 */
+	public void put(Scenario sc, Scenario.Result r, boolean trace) {
+		String key = key(sc);
+		synchronized (this) {
+			if (!trace && index.containsKey(key)) {
+				return;
+			}
+		}
+		File tmp = null;
+		try {
+			tmp = File.createTempFile(key, ".tmp", dir);
+			write(tmp, describe(sc), r, trace);
+			File f = file(key);
+			Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			synchronized (this) {
+				Long old = index.remove(key);
+				if (old != null) {
+					numBytes -= old;
+				}
+				index.put(key, f.length());
+				numBytes += f.length();
+				evict();
+			}
+		}
+		catch (IOException ie) {
+			// not kept
+			if (tmp != null) {
+				tmp.delete();
+			}
+		}
+	}
+
+	/**
+	 * @return number of results kept
+	 */
+	public synchronized int size() {
+		return index.size();
+	}
+
+	/**
+	 * @return bytes used by the results kept
+	 */
+	public synchronized long getBytes() {
+		return numBytes;
+	}
+
+	protected File file(String key) {
+		return new File(dir, key + SUFFIX);
+	}
+
+	/**
+	 * Forget a result and delete its file
+	 */
+	protected void remove(String key) {
+		Long size = index.remove(key);
+		if (size != null) {
+			numBytes -= size;
+			file(key).delete();
+		}
+	}
+
+	/**
+	 * Delete the least recently used results until under the limit
+	 */
+	protected void evict() {
+		Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+		while (numBytes > maxBytes && it.hasNext()) {
+			Map.Entry<String, Long> e = it.next();
+			numBytes -= e.getValue();
+			file(e.getKey()).delete();
+			it.remove();
+		}
+	}
+
+	protected static void write(File f, String desc, Scenario.Result r, boolean trace) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeUTF(desc);
+			writeResult(out, r, trace);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Write a result in the form read by readResult()
+	 *
+	 * @param out		stream to write to
+	 * @param r			the result
+	 * @param trace		write the sampled trace as well as the summary?
+	 * @throws IOException	if it cannot be written
+	 */
+	public static void writeResult(DataOutputStream out, Scenario.Result r, boolean trace) throws IOException {
+		out.writeDouble(r.initialFleetLoad);
+		out.writeDouble(r.nadir);
+		out.writeDouble(r.maxDwDelay);
+		out.writeInt(r.stop.ordinal());
+		out.writeDouble(r.stopTime);
+		int n = trace ? r.numSamples : 0;
+		out.writeInt(n);
+		for (int s = 0; s < n; s++) {
+			out.writeDouble(r.time[s]);
+			out.writeDouble(r.freq[s]);
+			out.writeDouble(r.fleetLoad[s]);
+			out.writeDouble(r.dwLoad[s]);
+		}
+	}
+
+	/**
+	 * @return the result, or null if it has no trace and one is wanted
+	 * @throws IOException	if the file is missing or not the result for desc
+	 */
+	protected static Scenario.Result read(File f, String desc, boolean trace) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+		try {
+			if (in.readInt() != MAGIC || !in.readUTF().equals(desc)) {
+				throw new IOException("Not the result for this Scenario: " + f);
+			}
+			return readResult(in, trace);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Read a result written by writeResult()
+	 *
+	 * @param in		stream to read from
+	 * @param trace		is the sampled trace wanted as well as the summary?
+	 * @return			the result, with no samples if the trace was not
+	 * 					wanted, or null if it has no trace and one is wanted
+	 * @throws IOException	if it cannot be read or is not a result
+	 */
+	public static Scenario.Result readResult(DataInputStream in, boolean trace) throws IOException {
+		double initialFleetLoad = in.readDouble();
+		double nadir = in.readDouble();
+		double maxDwDelay = in.readDouble();
+		int stop = in.readInt();
+		double stopTime = in.readDouble();
+		int n = in.readInt();
+		if (stop < 0 || stop >= Scenario.Stop.values().length || n < 0) {
+			throw new IOException("Bad result: stop " + stop + ", " + n + " samples");
+		}
+		if (trace && n == 0) {
+			return null;
+		}
+		Scenario.Result r = new Scenario.Result(trace ? n : 0);
+		r.initialFleetLoad = initialFleetLoad;
+		r.nadir = nadir;
+		r.maxDwDelay = maxDwDelay;
+		r.stop = Scenario.Stop.values()[stop];
+		r.stopTime = stopTime;
+		for (int s = 0; s < n; s++) {
+			double time = in.readDouble();
+			double freq = in.readDouble();
+			double fleetLoad = in.readDouble();
+			double dwLoad = in.readDouble();
+			if (trace) {
+				r.time[s] = time;
+				r.freq[s] = freq;
+				r.fleetLoad[s] = fleetLoad;
+				r.dwLoad[s] = dwLoad;
+			}
+		}
+		return r;
+	}
+}
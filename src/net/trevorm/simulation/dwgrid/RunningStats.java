@@ -0,0 +1,94 @@
+/*****************************************************************************
+ *
+ *  RunningStats
+ *
+ *  Class keeping the mean and variance of a stream of values for dwgrid
+ *  simulation
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+/**
+ * Mean and variance of a stream of values, updated one value at a
+ * time by Welford's method so that nothing but the running totals
+ * is kept.
+ *
+ * @author trevorm
+ *
+ */
+public class RunningStats {
+
+	public static final double Z95 = 1.959964;	// normal quantile for a 95% interval
+
+	protected long count;		// values added
+	protected double mean;		// mean so far
+	protected double m2;		// sum of squared differences from the mean
+
+	/**
+	 * Add a value
+	 *
+	 * @param x		the value
+	 */
+	public void add(double x) {
+		count++;
+		double d = x - mean;
+		mean += d / count;
+		m2 += d * (x - mean);
+	}
+
+	/**
+	 * @return number of values added
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return mean of the values
+	 */
+	public double getMean() {
+		return mean;
+	}
+
+	/**
+	 * @return sample variance of the values, 0 for fewer than two
+	 */
+	public double getVariance() {
+		return count > 1 ? m2 / (count - 1) : 0;
+	}
+
+	/**
+	 * @return sample standard deviation of the values
+	 */
+	public double getStdDev() {
+		return Math.sqrt(getVariance());
+	}
+
+	/**
+	 * @return half the width of the 95% confidence interval for the
+	 * 			mean, infinite for fewer than two values
+	 */
+	public double getHalfWidth() {
+		if (count < 2) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return Z95 * getStdDev() / Math.sqrt(count);
+	}
+}
@@ -0,0 +1,321 @@
+/*****************************************************************************
+ *
+ *  Scenario
+ *
+ *  Class holding the parameters of one dwgrid simulation run with a
+ *  mixed appliance fleet, and running it
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The parameters of a simulation of the Grid, Generators and a mixed
+ * appliance fleet, as run by SimulationWithFleet.  A Scenario can be
+ * copied and changed, so that many runs can be made from one set of
+ * parameters - each run builds its own fleets and grid, or reuses
+ * those of a SimulationEngine.
+ *
+ * @author trevorm
+ *
+ */
+public class Scenario implements Cloneable {
+
+	// Bump whenever a change to the model changes the results of a
+	// Scenario, so that results cached by earlier code are not used
+	public static final int MODEL_VERSION = 5;
+
+	// Simulation parameters
+	public double H = 4;					// Inertial constant
+	public double basegen  = 30000000000.0;	// base generating capacity
+	public double rsvgen   = 0000000000.0;	// spinning reserve capacity
+	public double loadstep = 1320000000.0;	// step change in load
+	public boolean stepreq = true;			// is a step change in load required?
+
+	public float  pcEco    = 40.0F;			// percentage of dishwashers running an 'eco' programme
+	public float  turnofffreq = 49.8F;		// turn off frequency
+	public float  turnonfreq  = 49.95F;		// turn on frequency
+	public float  minofftime  = 90;			// dishwashers' minimum time for any one RandomDelay delay
+	public float  maxofftime  = 600;		// dishwashers' maximum time for any one delay
+	public double maxdelaytime = 1800;		// dishwashers' maximum total delay per programme
+	public float  ddGain   = 2.0F;			// thermostat band shift per Hz
+
+	public float  fnom     = 50.0F;			// Grid nominal frequency
+	public double droop    = 4.0;			// Generator droop
+	public double gain     = 0.0067;		// Generator controller gain
+
+	public double dT   = 0.1;				// simulate at 0.1s intervals
+	public double startTime = -200;			// Start 200s before any step change in load
+	public int numTicks = 152000;			// ticks simulated
+	public double measDelay = 0.0;			// time for appliances to measure the frequency
+	public int threads = 1;					// threads the fleets may run on
+
+	// Seeds for each fleet's starting state
+	public long dwSeed = 987654321L;
+	public long fridgeSeed = 11;
+	public long heaterSeed = 12;
+	public long evSeed = 13;
+	public boolean antithetic = false;		// build the antithetic partners of the fleets
+
+	public boolean proportional = true;		// dishwashers run PropFreqRandomDelay, RandomDelay if false
+	public String programmeLibrary = "";	// ProgrammeLibrary file the dishwashers' programmes are drawn
+											// from, or "" for DishwasherLoad's two
+
+	public int recordEvery = 1;				// ticks between samples kept in a Result
+
+	// Rules for stopping a run early, each off when zero.  Settling
+	// and convergence are only looked for after the step change.
+	public double stopFreq = 0;				// stop if the frequency falls below this
+	public double stopRocof = 0;			// stop if the rate of change of frequency exceeds this in Hz/s
+	public double rocofWindow = 0.5;		// time the rate of change is measured over
+	public double settleTime = 0;			// stop once the frequency has stayed within settleBand this long
+	public double settleBand = 0.001;		// in Hz
+	public double convergeTime = 0;			// stop once the nadir and longest delay have not changed this long
+
+	/**
+	 * Why a run ended
+	 */
+	public enum Stop {
+		END,			// ran every tick
+		FREQUENCY,		// frequency below stopFreq
+		ROCOF,			// rate of change of frequency above stopRocof
+		SETTLED,		// frequency settled for settleTime
+		CONVERGED		// nadir and longest delay unchanged for convergeTime
+	}
+
+	/**
+	 * What a run did, sampled every recordEvery ticks.  If a stop rule
+	 * ended it early, the samples after it hold the last values.
+	 */
+	public static class Result {
+		public int numSamples;
+		public double time[];			// time of each sample in seconds
+		public double freq[];			// grid frequency in Hz
+		public double fleetLoad[];		// load of all the fleets in Watts
+		public double dwLoad[];			// load of the dishwashers in Watts
+		public double initialFleetLoad;	// load of the fleets before the first tick
+		public double nadir;			// lowest frequency in the run
+		public double maxDwDelay;		// longest dishwasher delay in seconds
+		public Stop stop = Stop.END;	// why the run ended
+		public double stopTime;			// time of the last tick run
+
+		Result(int numSamples) {
+			this.numSamples = numSamples;
+			time = new double[numSamples];
+			freq = new double[numSamples];
+			fleetLoad = new double[numSamples];
+			dwLoad = new double[numSamples];
+		}
+
+		/**
+		 * @return a copy of this Result, which an engine's next run
+		 * 			leaves alone
+		 */
+		public Result copy() {
+			Result r = new Result(numSamples);
+			System.arraycopy(time, 0, r.time, 0, numSamples);
+			System.arraycopy(freq, 0, r.freq, 0, numSamples);
+			System.arraycopy(fleetLoad, 0, r.fleetLoad, 0, numSamples);
+			System.arraycopy(dwLoad, 0, r.dwLoad, 0, numSamples);
+			r.initialFleetLoad = initialFleetLoad;
+			r.nadir = nadir;
+			r.maxDwDelay = maxDwDelay;
+			r.stop = stop;
+			r.stopTime = stopTime;
+			return r;
+		}
+	}
+
+	/**
+	 * @return a copy of this Scenario which can be changed separately
+	 */
+	public Scenario copy() {
+		try {
+			return (Scenario) clone();
+		}
+		catch (CloneNotSupportedException ce) {
+			throw new IllegalStateException(ce);
+		}
+	}
+
+	/**
+	 * Every parameter which can change the results of a run, as
+	 * name=value lines in name order.  Fields added later are picked
+	 * up without changing this.
+	 *
+	 * @return the description
+	 */
+	public String describe() {
+		Field fields[] = Scenario.class.getFields();
+		Arrays.sort(fields, new Comparator<Field>() {
+			public int compare(Field a, Field b) {
+				return a.getName().compareTo(b.getName());
+			}
+		});
+		StringBuilder sb = new StringBuilder();
+		for (Field f : fields) {
+			// the number of threads never changes a result
+			if (Modifier.isStatic(f.getModifiers()) || f.getName().equals("threads")) {
+				continue;
+			}
+			try {
+				sb.append(f.getName()).append('=').append(f.get(this)).append('\n');
+			}
+			catch (IllegalAccessException iae) {
+				throw new IllegalStateException(iae);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Make a Scenario from a description written by describe().
+	 * Parameters not in it keep their default values.
+	 *
+	 * @param desc		the description
+	 * @return			the Scenario
+	 * @throws IllegalArgumentException	if a line is not a parameter
+	 */
+	public static Scenario parse(String desc) {
+		Scenario sc = new Scenario();
+		for (String line : desc.split("\n")) {
+			if (line.isEmpty()) {
+				continue;
+			}
+			int eq = line.indexOf('=');
+			try {
+				Field f = Scenario.class.getField(line.substring(0, Math.max(eq, 0)));
+				String v = line.substring(eq + 1);
+				Class<?> type = f.getType();
+				if (type == double.class) {
+					f.setDouble(sc, Double.parseDouble(v));
+				} else if (type == float.class) {
+					f.setFloat(sc, Float.parseFloat(v));
+				} else if (type == int.class) {
+					f.setInt(sc, Integer.parseInt(v));
+				} else if (type == long.class) {
+					f.setLong(sc, Long.parseLong(v));
+				} else if (type == boolean.class) {
+					f.setBoolean(sc, Boolean.parseBoolean(v));
+				} else if (type == String.class) {
+					f.set(sc, v);
+				} else {
+					throw new IllegalArgumentException("Cannot set " + f.getName());
+				}
+			}
+			catch (NoSuchFieldException nfe) {
+				throw new IllegalArgumentException("Not a Scenario parameter: " + line);
+			}
+			catch (IllegalAccessException iae) {
+				throw new IllegalStateException(iae);
+			}
+		}
+		return sc;
+	}
+
+	/**
+	 * Set every fleet's seed from one, so that each value gives a
+	 * different and repeatable realisation of the fleets
+	 *
+	 * @param seed		the seed
+	 */
+	public void setSeed(long seed) {
+		dwSeed = mix(seed, 1);
+		fridgeSeed = mix(seed, 2);
+		heaterSeed = mix(seed, 3);
+		evSeed = mix(seed, 4);
+	}
+
+	/**
+	 * SplitMix64 finaliser, so that nearby seeds give unrelated streams
+	 */
+	static long mix(long seed, long stream) {
+		long z = seed + stream * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * @return the number of samples a Result will hold
+	 */
+	public int numSamples() {
+		return (numTicks + recordEvery - 1) / recordEvery;
+	}
+
+	/**
+	 * Build the fleets for a run.  1000 of each appliance are
+	 * simulated, scaled up to the approximate number in the UK.  The
+	 * dishwashers are built by DishwasherFleet.build() on the run's
+	 * threads, or by its constructor if they draw from a programme
+	 * library, which build() does not.
+	 *
+	 * @return the fleets, dishwashers first
+	 */
+	public FleetLoad buildFleets() {
+		FleetLoad fl = new FleetLoad();
+		// Only dishwashers disturbed by the frequency are simulated,
+		// the rest follow a baseline worked out once for the run
+		DishwasherFleet dws;
+		if (programmeLibrary.isEmpty()) {
+			dws = DishwasherFleet.build(1000, pcEco, dT, dwSeed, antithetic, threads);
+		} else {
+			try {
+				dws = new DishwasherFleet(1000, ProgrammeLibrary.open(programmeLibrary), dT, dwSeed, antithetic);
+			}
+			catch (IOException ie) {
+				throw new IllegalArgumentException("Cannot open programme library " + programmeLibrary, ie);
+			}
+		}
+		dws.setProportional(proportional);
+		dws.setDelayTimes(minofftime, maxofftime, maxdelaytime);
+		dws.useBaseline(numTicks + 1);
+		fl.addFleet(dws, 1280);
+		ThermostaticLoad fridges = ThermostaticLoad.fridges(1000, new AntitheticRandom(fridgeSeed, antithetic));
+		fridges.setDDGain(ddGain);
+		fl.addFleet(fridges, 20000);
+		ThermostaticLoad heaters = ThermostaticLoad.waterHeaters(1000, new AntitheticRandom(heaterSeed, antithetic));
+		heaters.setDDGain(ddGain);
+		fl.addFleet(heaters, 3000);
+		fl.addFleet(new EVChargerLoad(1000, new AntitheticRandom(evSeed, antithetic)), 500);
+		fl.setTurnOffFreq(turnofffreq);
+		fl.setTurnOnFreq(turnonfreq);
+		fl.setMeasurementDelay((int) Math.round(measDelay / dT), threads);
+		return fl;
+	}
+
+	/**
+	 * Run the simulation
+	 *
+	 * @param p		stream to write every tick to as results.dat, or null
+	 * @return		what the run did
+	 */
+	public Result run(PrintStream p) {
+		SimulationEngine engine = new SimulationEngine();
+		engine.reset(this);
+		return engine.run(p);
+	}
+}
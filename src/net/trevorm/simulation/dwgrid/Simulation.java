@@ -32,7 +32,8 @@ import java.io.*;
 public class Simulation {
 	/**
 	 * Driver for simulation of Grid, Generators and some loads...
-	 * @param args
+	 * @param args	optional surrogate model file, written by
+	 * 				SurrogateFitter, to use instead of DishwasherLoad
 	 */
 	public static void main(String[] args) {
 		// simulate the grid....
@@ -74,7 +75,18 @@ public class Simulation {
 		double PdwMin = 30000000000.0;
 		freq = fnom;
 
-		DishwasherLoad dl = new DishwasherLoad(numdws, pcEco);
+		ApplianceFleet dl;
+		if (args.length > 0) {
+			try {
+				dl = SurrogateFleet.read(args[0], numdws);
+			}
+			catch (IOException ie) {
+				System.err.println("IOException: " + args[0] + " " + ie);
+				return;
+			}
+		} else {
+			dl = new DishwasherLoad(numdws, pcEco);
+		}
 		dl.setTurnOffFreq(turnofffreq);
 		dl.setTurnOnFreq(turnonfreq);
 
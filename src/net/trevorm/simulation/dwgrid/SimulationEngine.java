@@ -0,0 +1,588 @@
+/*****************************************************************************
+ *
+ *  SimulationEngine
+ *
+ *  Class running dwgrid Scenarios one after another on the same fleets,
+ *  grid and generators
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+
+/**
+ * A class to run Scenarios back to back without building a new
+ * simulation for each.  reset() puts the fleets, grid, generators and
+ * Result buffers of the last run back to the starting state of the
+ * next Scenario in place, so a worker thread with its own engine can
+ * run thousands of short Scenarios without allocating its fleets
+ * again.  The fleets are only built afresh when the time step, which
+ * sets the dishwasher tick, changes.
+ *
+ * A run gives exactly the Result that Scenario.run() gives for the
+ * same Scenario - Scenario.run() uses an engine of its own.
+ *
+ * Other code can also drive a run itself: start() it, step() it as
+ * far as it likes, read the state in between, and subscribe() to
+ * TickRecords of every tick or every so many ticks.
+ *
+ * An engine is not thread-safe; give each thread its own.
+ *
+ * @author trevorm
+ *
+ */
+public class SimulationEngine {
+
+	protected Scenario sc;					// parameters of the next run
+	protected boolean ready;				// reset since the last run?
+
+	// The simulation, kept from run to run
+	protected FleetLoad fl;
+	protected DishwasherFleet dws;
+	protected ThermostaticLoad fridges;
+	protected ThermostaticLoad heaters;
+	protected EVChargerLoad evs;
+	protected AntitheticRandom fridgeRandom;
+	protected AntitheticRandom heaterRandom;
+	protected AntitheticRandom evRandom;
+	protected double fleetdT;				// time step the fleets were built for
+	protected String fleetLibrary;			// and programme library
+	protected int delayTicks;				// measurement delay the fleets were set up with
+	protected int threads;					// and threads
+	protected Grid grid;
+	protected Generator baseg;				// base load generator
+	protected Generator sprsv;				// spinning reserve
+	protected Scenario.Result result;		// overwritten by each run
+
+	// State of the run in progress
+	protected boolean started;				// started since the last reset?
+	protected int tick;						// ticks stepped
+	protected int stepTick;					// tick of the step change
+	protected double t;						// simulated time
+	protected double freq;					// grid actual frequency
+	protected double baseload;				// fixed part of load
+	protected double Pl;					// Power in the load
+	protected double Pfl;					// Power used by the fleets
+	protected double Pbase;					// base generator output
+	protected double Psp;					// Spinning reserve output
+	protected double Pr;					// Released power
+	protected double Ps;					// Power accelerating the generator
+	protected double Pg;					// Total generated power
+	protected PrintStream out;				// results.dat being written, or null
+
+	// Stop rules
+	protected boolean checkStops;			// any stop rule set?
+	protected int quietTick;				// tick settling and convergence are looked for from
+	protected double rocofFreq[];			// frequency over the last rocofWindow, ring buffer
+	protected double settleFreq;			// frequency the settling time is measured from
+	protected int settleTick;				// and the tick it was taken
+	protected double convergeNadir;			// nadir and longest delay the convergence
+	protected double convergeDelay;			// time is measured from
+	protected int convergeTick;				// and the tick they were taken
+	protected ArrayList<Feed> feeds = new ArrayList<Feed>();
+
+	/**
+	 * Subscribers wanting a record every so many ticks
+	 */
+	protected static class Feed {
+		int every;
+		SubmissionPublisher<TickRecord> publisher;
+
+		Feed(int every) {
+			this.every = every;
+			publisher = new SubmissionPublisher<TickRecord>();
+		}
+	}
+
+	/**
+	 * Constructor for a SimulationEngine, which builds nothing until
+	 * the first reset()
+	 */
+	public SimulationEngine() {
+	}
+
+	/**
+	 * Constructor for a SimulationEngine ready to start a Scenario
+	 *
+	 * @param sc	the Scenario
+	 */
+	public SimulationEngine(Scenario sc) {
+		reset(sc);
+	}
+
+	/**
+	 * Get ready to run a Scenario with the fleets seeded from one seed
+	 *
+	 * @param sc		the Scenario, not changed
+	 * @param seed		seed for every fleet, as Scenario.setSeed()
+	 */
+	public void reset(Scenario sc, long seed) {
+		Scenario s = sc.copy();
+		s.setSeed(seed);
+		reset(s);
+	}
+
+	/**
+	 * Get ready to run a Scenario.  It must not be changed until the
+	 * run is over.
+	 *
+	 * @param sc		the Scenario
+	 */
+	public void reset(Scenario sc) {
+		this.sc = sc;
+		if (started) {
+			// the last run was left part way through
+			closeFeeds();
+			started = false;
+		}
+		if (fl == null || sc.dT != fleetdT || !sc.programmeLibrary.equals(fleetLibrary)) {
+			fl = sc.buildFleets();
+			dws = (DishwasherFleet) fl.getFleet(0);
+			fridges = (ThermostaticLoad) fl.getFleet(1);
+			heaters = (ThermostaticLoad) fl.getFleet(2);
+			evs = (EVChargerLoad) fl.getFleet(3);
+			fleetdT = sc.dT;
+			fleetLibrary = sc.programmeLibrary;
+			delayTicks = (int) Math.round(sc.measDelay / sc.dT);
+			threads = sc.threads;
+		} else {
+			// the same steps as Scenario.buildFleets(), on the fleets already built
+			fl.reset();
+			dws.reset(sc.pcEco, sc.dwSeed, sc.antithetic);
+			dws.setProportional(sc.proportional);
+			dws.setDelayTimes(sc.minofftime, sc.maxofftime, sc.maxdelaytime);
+			dws.useBaseline(sc.numTicks + 1);
+			fridgeRandom = random(fridgeRandom, sc.fridgeSeed);
+			fridges.reset(fridgeRandom);
+			fridges.setDDGain(sc.ddGain);
+			heaterRandom = random(heaterRandom, sc.heaterSeed);
+			heaters.reset(heaterRandom);
+			heaters.setDDGain(sc.ddGain);
+			evRandom = random(evRandom, sc.evSeed);
+			evs.reset(evRandom);
+			fl.setTurnOffFreq(sc.turnofffreq);
+			fl.setTurnOnFreq(sc.turnonfreq);
+			int ticks = (int) Math.round(sc.measDelay / sc.dT);
+			if (ticks != delayTicks || sc.threads != threads) {
+				fl.setMeasurementDelay(ticks, sc.threads);
+				delayTicks = ticks;
+				threads = sc.threads;
+			}
+		}
+		int numSamples = sc.numSamples();
+		if (result == null || result.numSamples != numSamples) {
+			result = new Scenario.Result(numSamples);
+		}
+		result.initialFleetLoad = 0;
+		result.nadir = 0;
+		result.maxDwDelay = 0;
+		result.stop = Scenario.Stop.END;
+		result.stopTime = 0;
+		ready = true;
+	}
+
+	/**
+	 * @param r		generator to reuse, or null
+	 * @param seed	its new seed
+	 * @return		the generator started from the seed
+	 */
+	private AntitheticRandom random(AntitheticRandom r, long seed) {
+		if (r == null) {
+			return new AntitheticRandom(seed, sc.antithetic);
+		}
+		r.reset(seed, sc.antithetic);
+		return r;
+	}
+
+	/**
+	 * Run the Scenario given to the last reset()
+	 *
+	 * @param p		stream to write every tick to as results.dat, or null
+	 * @return		what the run did, overwritten by the next run
+	 */
+	public Scenario.Result run(PrintStream p) {
+		start();
+
+		if (p != null) {
+			p.println("H = " + sc.H);
+			p.println("Base Generation (GW) = " + sc.basegen/1000000000.0);
+			p.println("Spinning Reserve (GW)= " + sc.rsvgen/1000000000.0);
+			for (int i = 0; i < fl.numFleets; i++) {
+				p.println("Number of " + fl.getFleet(i).name + " = " + fl.getFleet(i).numAppliances * fl.multipliers[i]);
+			}
+			p.println("Load step required = " + sc.stepreq);
+			p.println("Load step (GW) = " + sc.loadstep/1000000000.0);
+			p.println("Measurement delay (s) = " + sc.measDelay);
+
+			p.println("Time (s), Frequency (Hz), Ps (MW), Pr (MW), Psp (MW), Pbase (MW), Pfleet (MW), " + fl.getHeader());
+		}
+		out = p;
+		try {
+			step(sc.numTicks);
+		}
+		finally {
+			out = null;
+		}
+		return result;
+	}
+
+	/**
+	 * Start the Scenario given to the last reset(), ready to step
+	 */
+	public void start() {
+		if (!ready) {
+			throw new IllegalStateException("Engine must be reset before each run");
+		}
+		ready = false;
+
+		t = sc.startTime;
+		tick = 0;
+		stepTick = (int) Math.round(-sc.startTime / sc.dT);
+
+		freq = sc.fnom;
+		result.nadir = freq;
+		result.stop = Scenario.Stop.END;
+		result.stopTime = t;
+
+		checkStops = sc.stopFreq > 0 || sc.stopRocof > 0 || sc.settleTime > 0 || sc.convergeTime > 0;
+		quietTick = sc.stepreq ? stepTick : 0;
+		int window = Math.max(1, (int) Math.round(sc.rocofWindow / sc.dT));
+		if (rocofFreq == null || rocofFreq.length != window) {
+			rocofFreq = new double[window];
+		}
+		Arrays.fill(rocofFreq, freq);
+		settleTick = -1;
+		convergeTick = -1;
+
+		// Balance the fixed part of the load against the base generation
+		Pfl = fl.calcLoad(sc.dT, freq);
+		baseload = sc.basegen - Pfl;
+		result.initialFleetLoad = Pfl;
+
+		// Grid and generators as Scenario: base load flat out with a
+		// 52Hz set point, spinning reserve not initially generating
+		if (grid == null) {
+			grid = new Grid((sc.basegen + Pfl + sc.loadstep), sc.H, sc.fnom);
+			baseg = new Generator(sc.basegen, 52.0, sc.fnom, sc.droop, sc.gain, sc.basegen);
+			sprsv = new Generator(sc.rsvgen, 50.0, sc.fnom, sc.droop, 0.3);
+		} else {
+			grid.reset((sc.basegen + Pfl + sc.loadstep), sc.H, sc.fnom);
+			baseg.reset(sc.basegen, 52.0, sc.fnom, sc.droop, sc.gain, sc.basegen);
+			sprsv.reset(sc.rsvgen, 50.0, sc.fnom, sc.droop, 0.3, 0);
+		}
+		started = true;
+	}
+
+	/**
+	 * Advance the simulation, stopping early at the end of the
+	 * Scenario or when one of its stop rules is met.  The feeds are
+	 * closed when it ends.  If the thread is interrupted the run is
+	 * abandoned with a CancellationException, leaving the interrupt
+	 * set; reset() the engine before using it again.
+	 *
+	 * @param n		number of ticks
+	 * @return		number of ticks actually stepped
+	 */
+	public int step(int n) {
+		if (!started) {
+			throw new IllegalStateException("Engine must be started before stepping");
+		}
+		if (result.stop != Scenario.Stop.END) {
+			return 0;
+		}
+		int first = tick;
+		int end = (int) Math.min((long) tick + n, sc.numTicks);
+		for (; tick < end; tick++) {
+			if (Thread.currentThread().isInterrupted()) {
+				closeFeeds();
+				throw new CancellationException("Run interrupted at tick " + tick);
+			}
+			int i = tick;
+			t += sc.dT;
+
+			// Calculate the load due to all the fleets
+			Pfl = fl.calcLoad(sc.dT, freq);
+
+			// Calculate the total load
+			Pl = baseload + Pfl;
+
+			// Power from the base load generation
+			Pbase = baseg.getCurrPower(freq, sc.dT);
+			// Power from the spinning reserve
+			Psp = sprsv.getCurrPower(freq, sc.dT);
+			// Total power being generated
+			Pg = Pbase + Psp;
+			// Released demand
+			Pr = grid.getReleasedPower(baseload, freq, sc.fnom);
+			// "accelerating" power
+			Ps = Pg + Pr - Pl;
+			// Calculate the new frequency
+			freq = grid.getNewFreq(freq, Ps, sc.dT);
+
+			if (out != null) {
+				out.println(t + ", " + freq + ", " + (-Ps/1000000) + ", " + Pr/1000000 + ", " + Psp/1000000
+						+ ", " + Pbase/1000000 + ", " + Pfl/1000000 + ", " + fl.getBreakdown());
+			}
+			if (i % sc.recordEvery == 0) {
+				int s = i / sc.recordEvery;
+				result.time[s] = t;
+				result.freq[s] = freq;
+				result.fleetLoad[s] = Pfl;
+				result.dwLoad[s] = fl.classLoads[0];
+			}
+			result.nadir = Math.min(result.nadir, freq);
+			result.maxDwDelay = Math.max(result.maxDwDelay, dws.getMaxTotDelay());
+			for (int f = 0; f < feeds.size(); f++) {
+				Feed feed = feeds.get(f);
+				if (i % feed.every == 0) {
+					// tick is not counted yet, so give it as getRecord() will
+					feed.publisher.submit(record(i + 1));
+				}
+			}
+
+			if (sc.stepreq) {
+				// Step change in load
+				if (i == stepTick) {
+					// OK, fail Sizewell B... take it off the base capacity
+					baseg.overrideCurrentPower(sc.basegen - sc.loadstep);
+					baseg.setNewPower(sc.basegen - sc.loadstep);
+				}
+			}
+
+			if (t >= 120) {
+				// Restore the base capacity
+				// this is the secondary response kicking in.
+				baseg.setNewPower(sc.basegen);
+			}
+
+			if (checkStops) {
+				Scenario.Stop stop = checkStop(i);
+				if (stop != Scenario.Stop.END) {
+					result.stop = stop;
+					holdSamples(i);
+					tick++;
+					break;
+				}
+			}
+		}
+		result.stopTime = t;
+		if (tick == sc.numTicks || result.stop != Scenario.Stop.END) {
+			closeFeeds();
+		}
+		return tick - first;
+	}
+
+	/**
+	 * @param i		tick just stepped
+	 * @return		the stop rule met, END if none
+	 */
+	protected Scenario.Stop checkStop(int i) {
+		if (sc.stopFreq > 0 && freq < sc.stopFreq) {
+			return Scenario.Stop.FREQUENCY;
+		}
+		if (sc.stopRocof > 0) {
+			int k = i % rocofFreq.length;
+			double rocof = Math.abs(freq - rocofFreq[k]) / (rocofFreq.length * sc.dT);
+			rocofFreq[k] = freq;
+			if (rocof > sc.stopRocof) {
+				return Scenario.Stop.ROCOF;
+			}
+		}
+		if (i < quietTick) {
+			return Scenario.Stop.END;
+		}
+		if (sc.settleTime > 0) {
+			if (settleTick < 0 || Math.abs(freq - settleFreq) > sc.settleBand) {
+				settleFreq = freq;
+				settleTick = i;
+			} else if ((i - settleTick) * sc.dT >= sc.settleTime) {
+				return Scenario.Stop.SETTLED;
+			}
+		}
+		if (sc.convergeTime > 0) {
+			if (convergeTick < 0 || result.nadir != convergeNadir || result.maxDwDelay != convergeDelay) {
+				convergeNadir = result.nadir;
+				convergeDelay = result.maxDwDelay;
+				convergeTick = i;
+			} else if ((i - convergeTick) * sc.dT >= sc.convergeTime) {
+				return Scenario.Stop.CONVERGED;
+			}
+		}
+		return Scenario.Stop.END;
+	}
+
+	/**
+	 * Fill the samples after a stop with the last values
+	 *
+	 * @param i		last tick stepped
+	 */
+	protected void holdSamples(int i) {
+		for (int s = i / sc.recordEvery + 1; s < result.numSamples; s++) {
+			result.time[s] = sc.startTime + (s * sc.recordEvery + 1) * sc.dT;
+			result.freq[s] = freq;
+			result.fleetLoad[s] = Pfl;
+			result.dwLoad[s] = fl.classLoads[0];
+		}
+	}
+
+	/**
+	 * Receive the ticks of the current or next run as TickRecords.
+	 * Each subscription ends with the run.  A subscriber that falls
+	 * behind by more than the buffer holds stops the simulation until
+	 * it catches up.
+	 *
+	 * @param subscriber	the subscriber
+	 * @param every			ticks between records, 1 for every tick
+	 */
+	public void subscribe(Flow.Subscriber<? super TickRecord> subscriber, int every) {
+		if (every < 1) {
+			throw new IllegalArgumentException("Ticks between records must be at least 1: " + every);
+		}
+		for (int f = 0; f < feeds.size(); f++) {
+			if (feeds.get(f).every == every) {
+				feeds.get(f).publisher.subscribe(subscriber);
+				return;
+			}
+		}
+		Feed feed = new Feed(every);
+		feed.publisher.subscribe(subscriber);
+		feeds.add(feed);
+	}
+
+	/**
+	 * Complete every subscription
+	 */
+	protected void closeFeeds() {
+		for (int f = 0; f < feeds.size(); f++) {
+			feeds.get(f).publisher.close();
+		}
+		feeds.clear();
+	}
+
+	/**
+	 * @return the state after the last tick
+	 */
+	public TickRecord getRecord() {
+		return record(tick);
+	}
+
+	/**
+	 * @param ticks		ticks stepped, counting the one just stepped
+	 * @return			the state after it
+	 */
+	protected TickRecord record(int ticks) {
+		return new TickRecord(ticks, t, freq, Ps, Pr, Psp, Pbase, Pfl, fl.classLoads, fl.classOnLoad);
+	}
+
+	/**
+	 * @return ticks stepped since start()
+	 */
+	public int getTick() {
+		return tick;
+	}
+
+	/**
+	 * @return simulated time in seconds
+	 */
+	public double getTime() {
+		return t;
+	}
+
+	/**
+	 * @return grid frequency in Hz
+	 */
+	public double getFrequency() {
+		return freq;
+	}
+
+	/**
+	 * @return load of all the fleets in Watts
+	 */
+	public double getFleetLoad() {
+		return Pfl;
+	}
+
+	/**
+	 * @return the fleets
+	 */
+	public FleetLoad getFleets() {
+		return fl;
+	}
+
+	/**
+	 * @return what the run has done so far, overwritten by the next run
+	 */
+	public Scenario.Result getResult() {
+		return result;
+	}
+
+	/**
+	 * main entry for testing only, prints a record every simulated
+	 * minute from a subscriber while stepping a second at a time
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Scenario sc = new Scenario();
+		sc.numTicks = 6000;
+		SimulationEngine engine = new SimulationEngine(sc);
+		final CountDownLatch done = new CountDownLatch(1);
+		engine.subscribe(new Flow.Subscriber<TickRecord>() {
+			private Flow.Subscription subscription;
+
+			public void onSubscribe(Flow.Subscription subscription) {
+				this.subscription = subscription;
+				subscription.request(1);
+			}
+
+			public void onNext(TickRecord r) {
+				System.out.println(r);
+				subscription.request(1);
+			}
+
+			public void onError(Throwable e) {
+				System.err.println("Feed failed: " + e);
+				done.countDown();
+			}
+
+			public void onComplete() {
+				done.countDown();
+			}
+		}, 600);
+
+		engine.start();
+		double nadir = engine.getFrequency();
+		while (engine.step(10) > 0) {
+			nadir = Math.min(nadir, engine.getFrequency());
+		}
+		try {
+			done.await();
+		}
+		catch (InterruptedException ie) {
+			System.err.println("Interrupted: " + ie);
+		}
+		System.out.println("Nadir (Hz) = " + nadir + " at " + engine.getTime() + "s");
+	}
+}
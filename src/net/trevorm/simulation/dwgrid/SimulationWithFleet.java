@@ -0,0 +1,63 @@
+/*****************************************************************************
+ *
+ *  SimulationWithFleet
+ *
+ *  Driver class for dwgrid simulation with a mixed appliance fleet
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * Class to drive the simulation with dishwashers, fridges, water
+ * heaters and electric vehicle chargers all providing Dynamic Demand.
+ * The parameters are those of a default Scenario.
+ *
+ * @author trevorm
+ *
+ */
+public class SimulationWithFleet {
+	/**
+	 * Driver for simulation of Grid, Generators and a mixed fleet...
+	 * @param args	optional frequency measurement delay in seconds
+	 */
+	public static void main(String[] args) {
+		// simulate the grid....
+		Scenario sc = new Scenario();
+		sc.threads = Runtime.getRuntime().availableProcessors();
+
+		if (args.length > 0) {
+			sc.measDelay = Double.parseDouble(args[0]);
+		}
+
+		try {
+			FileOutputStream out = new FileOutputStream("results.dat");
+			PrintStream p = new PrintStream(out);
+			sc.run(p);
+			out.close();
+		}
+		catch (IOException ie) {
+			System.err.println("IOException: results.dat " + ie);
+		}
+	}
+}
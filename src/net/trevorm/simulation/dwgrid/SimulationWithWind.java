@@ -24,6 +24,7 @@
  ****************************************************************************/
 package net.trevorm.simulation.dwgrid;
 
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
@@ -36,7 +37,8 @@ import java.io.PrintStream;
 public class SimulationWithWind {
 	/**
 	 * Driver for simulation of Grid, Generators and some loads...
-	 * @param args
+	 * @param args	optional seed, to use synthetic wind power in place
+	 * 				of the historical file
 	 */
 	public static void main(String[] args) {
 		// simulate the grid....
@@ -76,8 +78,16 @@ public class SimulationWithWind {
 
 		freq = fnom;
 		int status;
-		WindPower wp = new WindPower();
-		status = wp.openWindDataFile("InterpolatedWindData.csv");
+		WindPower wp;
+		if (args.length > 0) {
+			// wind generated from the seed given, like the file's but never running out
+			SyntheticWindPower sw = new SyntheticWindPower(Long.parseLong(args[0]));
+			status = sw.fit("InterpolatedWindData.csv");
+			wp = sw;
+		} else {
+			wp = new WindPower();
+			status = wp.openWindDataFile("InterpolatedWindData.csv");
+		}
 		if(status < 0) {
 			System.err.println("Problem opening wind data file, status = " + status);
 			System.exit(status);
@@ -106,13 +116,19 @@ public class SimulationWithWind {
 			FileOutputStream out = new FileOutputStream("results.dat");
 			PrintStream p = new PrintStream(out);
 
+			// and the same rows in a store which can be read a window at a time
+			String columns[] = {"Time (h)", "Frequency (Hz)", "Ps (MW)", "Pr (MW)", "Psp (MW)", "Pbase (MW)",
+					"Pdw (MW)", "%Dw heating", "Pbase max (MW)", "Delta f (Hz)", "Max delay (s)", "%Dw delayed", "Pw (MW)"};
+			TraceStore.Writer trace = new TraceStore.Writer(new File("results.trace"), columns);
+			double row[] = new double[columns.length];
+
 			p.println("H = " + H);
 			p.println("Base Generation (GW) = " + basegen/1000000000.0);
 			p.println("Spinning Reserve (GW)= " + rsvgen/1000000000.0);
 			p.println("Number of dishwashers = " + numdws * 1000);
 			p.println("Percentage running 'Eco' programme = " + pcEco);
 
-			p.println("Time (s), Frequency (Hz), Ps (MW), Pr (MW), Psp (MW), Pbase (MW), Pdw (MW), %Dw heating" );
+			p.println("Time (h), Frequency (Hz), Ps (MW), Pr (MW), Psp (MW), Pbase (MW), Pdw (MW), %Dw heating" );
 
 			for (int i = 0; i < 324000; i++) {
 				t += dT;
@@ -127,6 +143,10 @@ public class SimulationWithWind {
 				Pw = wp.windpower;
 				if (t > wp.stepSec) {
 					Pw = wp.readNextWind();
+					if (Pw < 0) {
+						System.err.println("Wind data ran out at " + t / 3600 + " h, give a seed to use synthetic wind power");
+						break;
+					}
 				}
 
 				// Power from the base load generation
@@ -145,12 +165,27 @@ public class SimulationWithWind {
 
 				p.println(t/3600 + ", " + freq + ", " + (-Ps/1000000) + ", " + Pr/1000000 + ", " + Psp/1000000
 						+ ", " + Pbase/1000000 + ", " + Pdw/1000000 + ", " + dl.pcOnLoad + ", " + baseg.Pmax/1000000 + ", " + grid.deltaf + ", " + dl.maxtotdelay + ", " + dl.pcDelay + ", " + Pw/1000000);
+				row[0] = t/3600;
+				row[1] = freq;
+				row[2] = -Ps/1000000;
+				row[3] = Pr/1000000;
+				row[4] = Psp/1000000;
+				row[5] = Pbase/1000000;
+				row[6] = Pdw/1000000;
+				row[7] = dl.pcOnLoad;
+				row[8] = baseg.Pmax/1000000;
+				row[9] = grid.deltaf;
+				row[10] = dl.maxtotdelay;
+				row[11] = dl.pcDelay;
+				row[12] = Pw/1000000;
+				trace.add(row);
 
 
 
 
 
 			}
+			trace.close();
 		}
 		catch (IOException ie) {
 			System.err.println("IOException: results.dat " + ie);
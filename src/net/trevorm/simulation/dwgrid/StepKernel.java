@@ -0,0 +1,156 @@
+/*****************************************************************************
+ *
+ *  StepKernel
+ *
+ *  Class counting down the programme steps of a fleet held in columns
+ *  for dwgrid simulation
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The inner loop of DishwasherFleet: take a number of ticks off the
+ * time remaining in every running machine's programme step, and list
+ * the machines whose step has ended so that the fleet can move them
+ * on.  No machine's countdown depends on another's, so the loop is
+ * the same whether the list is acted on during it or after it.
+ *
+ * This is the plain Java version.  create() returns the version
+ * using the incubating Vector API where the JVM has it (run with
+ * --add-modules jdk.incubator.vector), which gives identical results.
+ *
+ * @author trevorm
+ *
+ */
+public class StepKernel {
+
+	/**
+	 * @return the fastest kernel this JVM can run
+	 */
+	public static StepKernel create() {
+		try {
+			Class<?> c = Class.forName("net.trevorm.simulation.dwgrid.VectorStepKernel");
+			return (StepKernel) c.getDeclaredConstructor().newInstance();
+		}
+		catch (Exception e) {
+			return new StepKernel();
+		}
+		catch (LinkageError le) {
+			// jdk.incubator.vector not in the module graph
+			return new StepKernel();
+		}
+	}
+
+	/**
+	 * Count down the running machines
+	 *
+	 * @param state	packed state of each machine, as DishwasherFleet,
+	 * 					delayed machines are not counting
+	 * @param num		number of machines
+	 * @param t			ticks to take off
+	 * @param ended		filled with the machines whose step has ended,
+	 * 					in ascending order, their state left as it was
+	 * @return			number of machines in ended
+	 */
+	public int countDown(int state[], int num, int t, int ended[]) {
+		int count = 0;
+		for (int n = 0; n < num; n++) {
+			int st = state[n];
+			if (st >= 0) {
+				if ((st & DishwasherFleet.REMAIN_BITS) <= t) {
+					ended[count++] = n;
+				} else {
+					state[n] = st - t;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return a name for the kernel
+	 */
+	public String getName() {
+		return "scalar";
+	}
+
+	/**
+	 * Count a fleet down for some ticks, starting every ended step
+	 * again as the fleet would move the machine on
+	 *
+	 * @param state		packed state of each machine, changed
+	 * @param ticks		ticks to count down for
+	 * @param rgen		for the length of each new step
+	 * @return			number of steps ended
+	 */
+	protected long run(int state[], int ticks, Random rgen) {
+		int ended[] = new int[state.length];
+		long total = 0;
+		for (int i = 0; i < ticks; i++) {
+			int numEnded = countDown(state, state.length, 1, ended);
+			for (int k = 0; k < numEnded; k++) {
+				state[ended[k]] = 1 + rgen.nextInt(6000);
+			}
+			total += numEnded;
+		}
+		return total;
+	}
+
+	/**
+	 * main entry for testing only, times the countdown alone - not
+	 * the step changes the fleet makes afterwards - of this kernel and
+	 * of create()'s on a million machines, a tenth of them delayed
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		int num = 1000000;
+		int ticks = 500;
+		int passes = 10;
+		int start[] = new int[num];
+		Random rgen = new Random(1);
+		for (int n = 0; n < num; n++) {
+			start[n] = (rgen.nextInt(10) == 0 ? DishwasherFleet.DELAYED : 0) | (rgen.nextInt(8) << DishwasherFleet.STEP_SHIFT)
+					| (1 + rgen.nextInt(6000));
+		}
+		StepKernel kernels[] = {new StepKernel(), create()};
+		int end[][] = new int[kernels.length][];
+		double median[] = new double[kernels.length];
+		for (int k = 0; k < kernels.length; k++) {
+			double ms[] = new double[passes];
+			for (int pass = -3; pass < passes; pass++) {
+				// the first passes warm up the JIT
+				int state[] = start.clone();
+				long t0 = System.nanoTime();
+				kernels[k].run(state, ticks, new Random(2));
+				if (pass >= 0) {
+					ms[pass] = (System.nanoTime() - t0) / 1e6 / ticks;
+				}
+				end[k] = state;
+			}
+			Arrays.sort(ms);
+			median[k] = ms[passes / 2];
+			System.out.println(kernels[k].getName() + ": " + median[k] + " ms a tick, median of " + passes + " passes");
+		}
+		System.out.println("Same states: " + Arrays.equals(end[0], end[1]) + ", speedup " + median[0] / median[1]);
+	}
+}
@@ -0,0 +1,239 @@
+/*****************************************************************************
+ *
+ *  StrategyComparison
+ *
+ *  Driver class comparing two dwgrid Scenarios with variance reduction
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Class to estimate how much two Scenarios differ - two Dynamic
+ * Demand regimes, or two turn-off frequencies, say - in nadir and
+ * longest dishwasher delay, with as few runs as possible.
+ *
+ * With common random numbers both Scenarios of a sample are run on
+ * fleets built from the same seed, so the difference is not swamped
+ * by the difference between two fleets.  With antithetic pairs each
+ * Scenario is also run on the antithetic partners of those fleets and
+ * the two runs averaged.  The speed-up reported is the number of
+ * independent runs the same confidence would have needed over the
+ * number made.
+ *
+ * @author trevorm
+ *
+ */
+public class StrategyComparison {
+
+	protected Scenario a;				// first variant
+	protected Scenario b;				// second variant
+	protected int threads;				// samples made at once
+	public boolean commonRandom = true;	// same fleets for both variants?
+	public boolean antithetic = true;	// antithetic pairs of fleets?
+	public long baseSeed = 1;			// seed k is mixed from this
+
+	public int numSamples;				// samples added
+	public int numRuns;					// simulation runs made for them
+	public RunningStats nadirDiff;		// nadir of b less nadir of a
+	public RunningStats delayDiff;		// longest delay of b less that of a
+	public RunningStats singleA;		// nadir of single plain runs of a
+	public RunningStats singleB;		// and of b
+
+	/**
+	 * Constructor for a StrategyComparison
+	 *
+	 * @param a			first variant, the seeds are replaced
+	 * @param b			second variant, the seeds are replaced
+	 * @param threads	number of samples to make at once
+	 */
+	public StrategyComparison(Scenario a, Scenario b, int threads) {
+		this.a = a;
+		this.b = b;
+		this.threads = threads;
+		nadirDiff = new RunningStats();
+		delayDiff = new RunningStats();
+		singleA = new RunningStats();
+		singleB = new RunningStats();
+	}
+
+	/**
+	 * @return simulation runs made for each sample
+	 */
+	public int runsPerSample() {
+		return antithetic ? 4 : 2;
+	}
+
+	/**
+	 * Make the runs for one sample
+	 *
+	 * @param k		sample number
+	 * @return		nadir and longest delay of a and b, then the
+	 * 				nadirs of the plain runs of a and b
+	 */
+	public double[] sample(int k) {
+		long seedA = Scenario.mix(baseSeed, k);
+		long seedB = commonRandom ? seedA : Scenario.mix(~baseSeed, k);
+		Scenario.Result ra = run(a, seedA, false);
+		Scenario.Result rb = run(b, seedB, false);
+		double r[] = {ra.nadir, ra.maxDwDelay, rb.nadir, rb.maxDwDelay, ra.nadir, rb.nadir};
+		if (antithetic) {
+			Scenario.Result xa = run(a, seedA, true);
+			Scenario.Result xb = run(b, seedB, true);
+			r[0] = (r[0] + xa.nadir) / 2;
+			r[1] = (r[1] + xa.maxDwDelay) / 2;
+			r[2] = (r[2] + xb.nadir) / 2;
+			r[3] = (r[3] + xb.maxDwDelay) / 2;
+		}
+		return r;
+	}
+
+	private Scenario.Result run(Scenario variant, long seed, boolean anti) {
+		Scenario sc = variant.copy();
+		sc.threads = 1;
+		sc.setSeed(seed);
+		sc.antithetic = anti;
+		return sc.run(null);
+	}
+
+	/**
+	 * Add a sample to the statistics
+	 *
+	 * @param r		as returned by sample()
+	 */
+	public void add(double r[]) {
+		nadirDiff.add(r[2] - r[0]);
+		delayDiff.add(r[3] - r[1]);
+		singleA.add(r[4]);
+		singleB.add(r[5]);
+		numSamples++;
+		numRuns += runsPerSample();
+	}
+
+	/**
+	 * @return independent runs needed for the same confidence in the
+	 * 			nadir difference, over the runs actually made
+	 */
+	public double getSpeedUp() {
+		double v = nadirDiff.getVariance();
+		if (v == 0) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return 2 * (singleA.getVariance() + singleB.getVariance()) / (runsPerSample() * v);
+	}
+
+	/**
+	 * Make samples until the confidence interval on the nadir
+	 * difference is narrow enough
+	 *
+	 * @param minSamples	fewest samples to make
+	 * @param maxSamples	most samples to make
+	 * @param target		confidence half-width wanted in Hz
+	 * @return				number of samples made
+	 * @throws InterruptedException		if interrupted while waiting
+	 * @throws ExecutionException		if a run fails
+	 */
+	public int run(int minSamples, int maxSamples, double target) throws InterruptedException, ExecutionException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ArrayDeque<Future<double[]>> running = new ArrayDeque<Future<double[]>>();
+		int next = numSamples;
+		int last = numSamples + maxSamples;
+		try {
+			while (next < last && running.size() < threads) {
+				running.add(pool.submit(task(next++)));
+			}
+			while (!running.isEmpty()) {
+				add(running.poll().get());
+				if (numSamples >= minSamples && nadirDiff.getHalfWidth() <= target) {
+					break;
+				}
+				if (next < last) {
+					running.add(pool.submit(task(next++)));
+				}
+			}
+		}
+		finally {
+			for (Future<double[]> f : running) {
+				f.cancel(true);
+			}
+			pool.shutdown();
+		}
+		return numSamples;
+	}
+
+	private Callable<double[]> task(final int k) {
+		return new Callable<double[]>() {
+			public double[] call() {
+				return sample(k);
+			}
+		};
+	}
+
+	/**
+	 * Compare PropFreqRandomDelay dishwashers with RandomDelay ones
+	 * @param args	confidence half-width wanted in Hz, most samples,
+	 * 				"independent" to switch off variance reduction
+	 */
+	public static void main(String[] args) {
+		double target = 0.0005;		// confidence half-width wanted
+		int minSamples = 5;
+		int maxSamples = 100;
+
+		Scenario a = new Scenario();
+		Scenario b = new Scenario();
+		b.proportional = false;
+		StrategyComparison sc = new StrategyComparison(a, b, Runtime.getRuntime().availableProcessors());
+
+		if (args.length > 0) {
+			target = Double.parseDouble(args[0]);
+		}
+		if (args.length > 1) {
+			maxSamples = Integer.parseInt(args[1]);
+		}
+		if (args.length > 2 && args[2].equals("independent")) {
+			sc.commonRandom = false;
+			sc.antithetic = false;
+		}
+
+		try {
+			long start = System.currentTimeMillis();
+			sc.run(minSamples, maxSamples, target);
+			System.out.println(sc.numSamples + " samples, " + sc.numRuns + " runs in "
+					+ (System.currentTimeMillis() - start) + " ms");
+			System.out.println("RandomDelay less PropFreqRandomDelay nadir (Hz) = " + sc.nadirDiff.getMean()
+					+ " +/- " + sc.nadirDiff.getHalfWidth());
+			System.out.println("RandomDelay less PropFreqRandomDelay max delay (s) = " + sc.delayDiff.getMean()
+					+ " +/- " + sc.delayDiff.getHalfWidth());
+			System.out.println("Speed-up over independent runs = " + sc.getSpeedUp());
+		}
+		catch (InterruptedException ie) {
+			System.err.println("Interrupted: " + ie);
+		}
+		catch (ExecutionException ee) {
+			System.err.println("Run failed: " + ee.getCause());
+		}
+	}
+}
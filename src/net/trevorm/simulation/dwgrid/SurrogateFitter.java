@@ -0,0 +1,424 @@
+/*****************************************************************************
+ *
+ *  SurrogateFitter
+ *
+ *  Driver class fitting a SurrogateFleet to the detailed dishwasher
+ *  model for dwgrid simulation
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Class to fit a SurrogateFleet to the detailed dishwasher model.
+ *
+ * Each excitation trace is run through two identical DishwasherFleets,
+ * one seeing the trace and one seeing the nominal frequency, and the
+ * difference between their loads is the response the surrogate has to
+ * match - the fleet's own wander cancels out.  The surrogate's
+ * parameters are then fitted by pattern search to the mean squared
+ * error over every trace, time constants on a log scale.
+ *
+ * @author trevorm
+ *
+ */
+public class SurrogateFitter {
+
+	// The detailed fleet
+	protected int numMachines;
+	protected float pcEco;
+	protected long seed;
+	protected float turnofffreq = 49.8F;
+	protected float turnonfreq = 49.95F;
+	protected double tick = 0.1;
+
+	// Shed table of the surrogate
+	public double fLo = 49.5;
+	public double df = 0.05;
+	public int numShed = 10;
+
+	// Excitation and response
+	protected ArrayList<FrequencyTrace> traces = new ArrayList<FrequencyTrace>();
+	protected ArrayList<double[]> responses = new ArrayList<double[]>();
+	protected double loadSum;			// undisturbed load summed over every sample
+	protected double onLoadSum;			// and percentage on load
+	protected int numSamples;
+
+	public int numEvals;				// error evaluations made by fit()
+
+	/**
+	 * Constructor for a SurrogateFitter
+	 *
+	 * @param numMachines	dishwashers in the detailed fleet
+	 * @param pcEco			percentage running an 'Eco' programme
+	 * @param seed			seed for the detailed fleet
+	 */
+	public SurrogateFitter(int numMachines, float pcEco, long seed) {
+		this.numMachines = numMachines;
+		this.pcEco = pcEco;
+		this.seed = seed;
+	}
+
+	/**
+	 * Set the Dynamic Demand frequencies of the detailed fleet
+	 *
+	 * @param off	turn-off frequency
+	 * @param on	turn-on frequency
+	 */
+	public void setFrequencies(float off, float on) {
+		turnofffreq = off;
+		turnonfreq = on;
+	}
+
+	/**
+	 * Run an excitation trace through the detailed model
+	 *
+	 * @param trace		frequency trace, its interval a whole number of ticks
+	 * @return			change in load per machine at each sample
+	 */
+	public double[] addTrace(FrequencyTrace trace) {
+		DishwasherFleet driven = new DishwasherFleet(numMachines, pcEco, tick, seed);
+		DishwasherFleet nominal = new DishwasherFleet(numMachines, pcEco, tick, seed);
+		driven.setTurnOffFreq(turnofffreq);
+		driven.setTurnOnFreq(turnonfreq);
+		nominal.setTurnOffFreq(turnofffreq);
+		nominal.setTurnOnFreq(turnonfreq);
+		double r[] = new double[trace.numSamples];
+		for (int i = 0; i < trace.numSamples; i++) {
+			double load = nominal.calcLoad(trace.dT, 50.0);
+			r[i] = (driven.calcLoad(trace.dT, trace.freq[i]) - load) / numMachines;
+			loadSum += load / numMachines;
+			onLoadSum += nominal.getPcOnLoad();
+			numSamples++;
+		}
+		traces.add(trace);
+		responses.add(r);
+		return r;
+	}
+
+	/**
+	 * @return a surrogate of the fleet with untrained parameters,
+	 * 			shedding all its load below the turn-off frequency
+	 */
+	public SurrogateFleet newSurrogate() {
+		double p0 = loadSum / numSamples;
+		SurrogateFleet sf = new SurrogateFleet(numMachines, p0, fLo, df, numShed);
+		sf.pcOnLoad0 = onLoadSum / numSamples;
+		sf.turnofffreq = turnofffreq;
+		sf.turnonfreq = turnonfreq;
+		for (int i = 0; i < numShed; i++) {
+			sf.shed[i] = fLo + i * df < turnofffreq ? p0 : 0;
+		}
+		return sf;
+	}
+
+	/**
+	 * @param sf		a surrogate
+	 * @param trace		frequency trace
+	 * @return			its change in load per machine at each sample
+	 */
+	public static double[] respond(SurrogateFleet sf, FrequencyTrace trace) {
+		double r[] = new double[trace.numSamples];
+		sf.reset();
+		for (int i = 0; i < trace.numSamples; i++) {
+			r[i] = sf.step(trace.dT, trace.freq[i]);
+		}
+		return r;
+	}
+
+	/**
+	 * @param sf		a surrogate
+	 * @return			its mean squared error over every trace added
+	 */
+	public double error(SurrogateFleet sf) {
+		double sum = 0;
+		int n = 0;
+		for (int k = 0; k < traces.size(); k++) {
+			double s[] = respond(sf, traces.get(k));
+			double d[] = responses.get(k);
+			for (int i = 0; i < s.length; i++) {
+				sum += (s[i] - d[i]) * (s[i] - d[i]);
+			}
+			n += s.length;
+		}
+		numEvals++;
+		return sum / n;
+	}
+
+	/**
+	 * Fit a surrogate to every trace added
+	 *
+	 * @param maxEvals	most error evaluations to make
+	 * @return			the fitted surrogate
+	 */
+	public SurrogateFleet fit(int maxEvals) {
+		SurrogateFleet sf = newSurrogate();
+		double x[] = toSearch(sf.getParams());
+		double step[] = new double[x.length];
+		for (int i = 0; i < x.length; i++) {
+			if (i >= SurrogateFleet.NUM_PARAMS) {
+				step[i] = sf.p0 / 10;
+			} else {
+				step[i] = STEP[i];
+			}
+		}
+		sf.setParams(fromSearch(x));
+		double best = error(sf);
+		int start = numEvals;
+
+		// Hooke and Jeeves style: try each parameter both ways,
+		// halving the steps once no move helps
+		boolean moved = true;
+		while (numEvals - start < maxEvals) {
+			if (!moved) {
+				boolean small = true;
+				for (int i = 0; i < step.length; i++) {
+					step[i] /= 2;
+					small &= step[i] < (i < SurrogateFleet.NUM_PARAMS ? 1e-3 : 0.01);
+				}
+				if (small) {
+					break;
+				}
+			}
+			moved = false;
+			for (int i = 0; i < x.length && numEvals - start < maxEvals; i++) {
+				for (int dir = -1; dir <= 1; dir += 2) {
+					double old = x[i];
+					x[i] = old + dir * step[i];
+					sf.setParams(fromSearch(x));
+					double e = error(sf);
+					if (e < best) {
+						best = e;
+						moved = true;
+						break;
+					}
+					x[i] = old;
+				}
+			}
+		}
+		sf.setParams(fromSearch(x));
+		return sf;
+	}
+
+	// Parameters searched on a log scale
+	private static final boolean LOG[] = {true, true, true, true, false, true, false};
+
+	// First search step of each parameter, in the search space: a
+	// factor of e^0.5 for those on a log scale, 0.5 radians of phase
+	private static final double STEP[] = {0.5, 0.5, 0.5, 0.5, 0.25, 0.5, 0.5};
+
+	/**
+	 * Parameters to the search space
+	 */
+	private static double[] toSearch(double p[]) {
+		double x[] = p.clone();
+		for (int i = 0; i < LOG.length; i++) {
+			if (LOG[i]) {
+				x[i] = Math.log(p[i]);
+			}
+		}
+		return x;
+	}
+
+	/**
+	 * The search space to parameters, kept in range.  Less can be shed
+	 * as the frequency rises, never more.
+	 */
+	private static double[] fromSearch(double x[]) {
+		double p[] = x.clone();
+		for (int i = 0; i < LOG.length; i++) {
+			if (LOG[i]) {
+				p[i] = Math.exp(Math.max(Math.log(0.1), Math.min(x[i], Math.log(1e5))));
+			}
+		}
+		p[4] = Math.max(0, Math.min(x[4], 3));
+		p[p.length - 1] = Math.max(0, x[p.length - 1]);
+		for (int i = p.length - 2; i >= SurrogateFleet.NUM_PARAMS; i--) {
+			p[i] = Math.max(p[i + 1], x[i]);
+		}
+		return p;
+	}
+
+	/**
+	 * Write how well a surrogate follows the detailed model on a trace
+	 *
+	 * @param p			stream to write to
+	 * @param name		name of the trace
+	 * @param trace		frequency trace
+	 * @param detail	detailed model's change in load per machine
+	 * @param sf		the surrogate
+	 */
+	public static void report(PrintStream p, String name, FrequencyTrace trace, double detail[], SurrogateFleet sf) {
+		double s[] = respond(sf, trace);
+		double sq = 0;
+		double maxErr = 0;
+		double maxDetail = 0;
+		double eDetail = 0;
+		double eSurr = 0;
+		for (int i = 0; i < s.length; i++) {
+			double e = s[i] - detail[i];
+			sq += e * e;
+			maxErr = Math.max(maxErr, Math.abs(e));
+			maxDetail = Math.max(maxDetail, Math.abs(detail[i]));
+			eDetail += detail[i] * trace.dT;
+			eSurr += s[i] * trace.dT;
+		}
+		p.println(name + ": rms error " + Math.sqrt(sq / s.length) + " W, max error " + maxErr
+				+ " W, largest change " + maxDetail + " W, energy " + eDetail / 3600 + " Wh detailed, "
+				+ eSurr / 3600 + " Wh surrogate (per machine)");
+	}
+
+	/**
+	 * Steps down to each frequency from nominal, held for a time then
+	 * left to recover
+	 *
+	 * @param depths	frequencies to step to
+	 * @param hold		time at each in seconds
+	 * @param recover	time at nominal after each in seconds
+	 * @param dT		sample interval
+	 * @return			the trace
+	 */
+	public static FrequencyTrace steps(double depths[], double hold, double recover, double dT) {
+		int lead = (int) Math.round(600 / dT);
+		int h = (int) Math.round(hold / dT);
+		int r = (int) Math.round(recover / dT);
+		double f[] = new double[depths.length * (lead + h + r)];
+		int i = 0;
+		for (double d : depths) {
+			for (int j = 0; j < lead + h + r; j++) {
+				f[i++] = (j >= lead && j < lead + h) ? d : 50.0;
+			}
+		}
+		return new FrequencyTrace(0, dT, f);
+	}
+
+	/**
+	 * Losses of generation: a fall to each nadir in a few seconds and
+	 * an exponential recovery
+	 *
+	 * @param nadirs	lowest frequencies
+	 * @param tau		recovery time constant in seconds
+	 * @param dT		sample interval
+	 * @return			the trace
+	 */
+	public static FrequencyTrace events(double nadirs[], double tau, double dT) {
+		int each = (int) Math.round(3600 / dT);
+		double f[] = new double[nadirs.length * each];
+		int i = 0;
+		for (double n : nadirs) {
+			for (int j = 0; j < each; j++) {
+				double t = j * dT - 300;
+				f[i++] = t < 0 ? 50.0 : 50.0 - (50.0 - n) * Math.min(1, t / 5) * Math.exp(-t / tau);
+			}
+		}
+		return new FrequencyTrace(0, dT, f);
+	}
+
+	/**
+	 * A random walk about nominal frequency, as on a weak grid
+	 *
+	 * @param seed		seed for the walk
+	 * @param hours		length
+	 * @param sd		standard deviation in Hz
+	 * @param tau		correlation time in seconds
+	 * @param dT		sample interval
+	 * @return			the trace
+	 */
+	public static FrequencyTrace random(long seed, double hours, double sd, double tau, double dT) {
+		Random rgen = new Random(seed);
+		double a = Math.exp(-dT / tau);
+		double noise = sd * Math.sqrt(1 - a * a);
+		double f[] = new double[(int) Math.round(hours * 3600 / dT)];
+		double x = 0;
+		for (int i = 0; i < f.length; i++) {
+			x = a * x + noise * rgen.nextGaussian();
+			f[i] = Math.max(49.2, Math.min(50.0 + x, 50.5));
+		}
+		return new FrequencyTrace(0, dT, f);
+	}
+
+	/**
+	 * Fit a surrogate for the default fleet, write it to surrogate.dat
+	 * and report its errors on the training traces and on traces and
+	 * a fleet it was not fitted to
+	 * @param args	optional number of detailed machines
+	 */
+	public static void main(String[] args) {
+		int num = 20000;
+		if (args.length > 0) {
+			num = Integer.parseInt(args[0]);
+		}
+		double dT = 1.0;
+
+		long start = System.currentTimeMillis();
+		SurrogateFitter sfit = new SurrogateFitter(num, 40, 987654321L);
+		String names[] = {"steps", "long steps", "events", "random"};
+		FrequencyTrace train[] = {
+			steps(new double[] {49.9, 49.85, 49.8, 49.75, 49.7, 49.65, 49.6, 49.5, 49.4}, 600, 3000, dT),
+			steps(new double[] {49.9, 49.7, 49.5}, 2400, 3600, dT),
+			events(new double[] {49.8, 49.7, 49.6, 49.5}, 300, dT),
+			random(1, 4, 0.1, 120, dT)
+		};
+		double detail[][] = new double[train.length][];
+		for (int k = 0; k < train.length; k++) {
+			detail[k] = sfit.addTrace(train[k]);
+		}
+		long ran = System.currentTimeMillis();
+		SurrogateFleet sf = sfit.fit(4000);
+		long fitted = System.currentTimeMillis();
+		for (int k = 0; k < train.length; k++) {
+			respond(sf, train[k]);
+		}
+		long replayed = System.currentTimeMillis();
+		System.out.println(sfit.numSamples + " samples: detailed runs " + (ran - start) + " ms, surrogate "
+				+ (replayed - fitted) + " ms, fit " + (fitted - ran) + " ms, " + sfit.numEvals + " evaluations");
+
+		// A fleet and excitation the surrogate has not seen
+		SurrogateFitter check = new SurrogateFitter(num, 40, 123456789L);
+		String checkNames[] = {"check steps", "check events", "check random"};
+		FrequencyTrace checks[] = {
+			steps(new double[] {49.88, 49.72, 49.55}, 1200, 3000, dT),
+			events(new double[] {49.75, 49.55}, 200, dT),
+			random(2, 4, 0.1, 120, dT)
+		};
+
+		try {
+			FileOutputStream out = new FileOutputStream("surrogate.dat");
+			PrintStream p = new PrintStream(out);
+			sf.write(p);
+			out.close();
+
+			for (int k = 0; k < train.length; k++) {
+				report(System.out, names[k], train[k], detail[k], sf);
+			}
+			for (int k = 0; k < checks.length; k++) {
+				report(System.out, checkNames[k], checks[k], check.addTrace(checks[k]), sf);
+			}
+		}
+		catch (IOException ie) {
+			System.err.println("IOException: surrogate.dat " + ie);
+		}
+	}
+}
@@ -0,0 +1,382 @@
+/*****************************************************************************
+ *
+ *  SurrogateFleet
+ *
+ *  Class modelling the aggregate response of a dishwasher fleet for
+ *  dwgrid simulation
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A reduced-order model of a PropFreqRandomDelay dishwasher fleet,
+ * fitted by SurrogateFitter to runs of the detailed model.  Only the
+ * fleet's load matters to the grid, so instead of every machine the
+ * surrogate keeps a few numbers per machine:
+ *
+ * held - heating load held off by Dynamic Demand, kept by how long it
+ * has been held in bins of AGE_BIN seconds.  Below the turn-on
+ * frequency it rises towards the shed table's value for the current
+ * frequency with time constant tauShed.  At or above the turn-on
+ * frequency it is released with tauRelease, and load held for
+ * maxdelaytime is released whatever the frequency.
+ *
+ * capped - load released at its delay limit, which cannot be held off
+ * again until its programmes finish, with time constant tauHold.
+ *
+ * rebound - the heating released machines still have to do.  Their
+ * programmes are left in step, so it rings: payFrac of each release
+ * starts a damped oscillation with time constant tauPay, period
+ * period and starting phase phase.
+ *
+ * The load is that of the undisturbed fleet, less held, plus rebound.
+ * The percentages and longest delay are estimates.
+ *
+ * @author trevorm
+ *
+ */
+public class SurrogateFleet extends ApplianceFleet {
+
+	public static final double HEAT_POWER = 2200;	// typical heating step power in Watts
+	public static final int NUM_PARAMS = 7;			// fitted parameters before the shed table
+	public static final double AGE_BIN = 30;		// width of the held load's age bins in seconds
+
+	// Fitted parameters, loads are Watts per machine
+	protected float turnofffreq = 49.8F;	// turn-off frequency the fit was made for
+	protected float turnonfreq = 49.95F;	// turn-on frequency the fit was made for
+	protected double p0;					// mean undisturbed load
+	protected double pcOnLoad0;				// mean undisturbed percentage on load
+	protected double fLo;					// frequency of the first shed table entry
+	protected double df;					// spacing of the shed table
+	protected double shed[];				// most held at each frequency
+	protected double tauShed;				// time constants in seconds
+	protected double tauRelease;
+	protected double tauHold;
+	protected double tauPay;
+	protected double payFrac;				// fraction of a release paid back
+	protected double period;				// of the rebound in seconds
+	protected double phase;					// of the rebound at release in radians
+	protected double maxdelaytime;			// maximum total delay per programme
+
+	// State
+	protected double held;					// heating held off per machine
+	protected double age[];					// held, by age bin, ring buffer
+	protected int newest;					// bin of age[] taking new delays
+	protected double binTime;				// time since the newest bin opened
+	protected double capped;				// load released at its delay limit per machine
+	protected double rebound;				// delayed heating being done per machine
+	protected double reboundQ;				// and its quadrature part
+
+	/**
+	 * Constructor for a SurrogateFleet
+	 *
+	 * @param num		number of machines
+	 * @param p0		mean undisturbed load per machine in Watts
+	 * @param fLo		frequency of the first shed table entry
+	 * @param df		spacing of the shed table in Hz
+	 * @param numShed	number of shed table entries
+	 */
+	public SurrogateFleet(int num, double p0, double fLo, double df, int numShed) {
+		this.name = "dishwashers";
+		this.numAppliances = num;
+		this.p0 = p0;
+		this.fLo = fLo;
+		this.df = df;
+		shed = new double[numShed];
+		tauShed = 5;
+		tauRelease = 400;
+		tauHold = 1800;
+		tauPay = 600;
+		payFrac = 1;
+		period = 2400;
+		phase = 0;
+		setMaxDelayTime(1800);
+	}
+
+	/**
+	 * set the maximum total delay per programme, resetting the surrogate
+	 * @param t		maximum total delay in seconds
+	 */
+	public void setMaxDelayTime(double t) {
+		maxdelaytime = t;
+		age = new double[(int) Math.ceil(t / AGE_BIN)];
+		reset();
+	}
+
+	/**
+	 * @return the fitted parameters: tauShed, tauRelease, tauHold,
+	 * 			tauPay, payFrac, period, phase then the shed table
+	 */
+	public double[] getParams() {
+		double p[] = new double[NUM_PARAMS + shed.length];
+		p[0] = tauShed;
+		p[1] = tauRelease;
+		p[2] = tauHold;
+		p[3] = tauPay;
+		p[4] = payFrac;
+		p[5] = period;
+		p[6] = phase;
+		System.arraycopy(shed, 0, p, NUM_PARAMS, shed.length);
+		return p;
+	}
+
+	/**
+	 * @param p		parameters, as getParams()
+	 */
+	public void setParams(double p[]) {
+		tauShed = p[0];
+		tauRelease = p[1];
+		tauHold = p[2];
+		tauPay = p[3];
+		payFrac = p[4];
+		period = p[5];
+		phase = p[6];
+		System.arraycopy(p, NUM_PARAMS, shed, 0, shed.length);
+	}
+
+	/**
+	 * Go back to the undisturbed state
+	 */
+	public void reset() {
+		held = 0;
+		Arrays.fill(age, 0);
+		newest = 0;
+		binTime = 0;
+		capped = 0;
+		rebound = 0;
+		reboundQ = 0;
+	}
+
+	/**
+	 * @param freq		grid frequency
+	 * @return			most heating held per machine at that frequency
+	 */
+	public double getShed(double freq) {
+		if (freq >= turnonfreq) {
+			return 0;
+		}
+		double x = (freq - fLo) / df;
+		if (x <= 0) {
+			return shed[0];
+		}
+		int i = (int) x;
+		if (i >= shed.length - 1) {
+			return shed[shed.length - 1];
+		}
+		return shed[i] + (x - i) * (shed[i + 1] - shed[i]);
+	}
+
+	/**
+	 * Step the surrogate
+	 *
+	 * @param dT		simulation step time
+	 * @param freq		grid frequency
+	 * @return			change in load per machine from undisturbed
+	 */
+	public double step(double dT, double freq) {
+		double released = 0;
+
+		// Delays reaching their limit
+		binTime += dT;
+		while (binTime >= AGE_BIN) {
+			binTime -= AGE_BIN;
+			newest = (newest + age.length - 1) % age.length;
+			released += age[newest];
+			age[newest] = 0;
+		}
+		capped += released;
+		capped -= capped * (1 - Math.exp(-dT / tauHold));
+
+		if (freq < turnonfreq) {
+			double target = getShed(freq) - capped;
+			if (target > held) {
+				double shed = (target - held) * (1 - Math.exp(-dT / tauShed));
+				age[newest] += shed;
+			}
+		} else {
+			double f = 1 - Math.exp(-dT / tauRelease);
+			for (int k = 0; k < age.length; k++) {
+				released += age[k] * f;
+				age[k] -= age[k] * f;
+			}
+		}
+		held = 0;
+		for (int k = 0; k < age.length; k++) {
+			held += age[k];
+		}
+
+		// Damped rotation of the rebound, each release starting at phase
+		double in = payFrac * released;
+		double r = rebound + in * Math.cos(phase);
+		double q = reboundQ + in * Math.sin(phase);
+		double decay = Math.exp(-dT / tauPay);
+		double w = 2 * Math.PI * dT / period;
+		rebound = decay * (r * Math.cos(w) - q * Math.sin(w));
+		reboundQ = decay * (r * Math.sin(w) + q * Math.cos(w));
+		return rebound - held;
+	}
+
+	/**
+	 * @return	estimated longest delay in seconds, the age of the oldest
+	 * 			load still held, ignoring less than a Watt per 100 machines
+	 */
+	public double getLongestDelay() {
+		for (int k = age.length - 1; k >= 0; k--) {
+			if (age[(newest + k) % age.length] > 0.01) {
+				return k * AGE_BIN + binTime;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * method to step the surrogate and calculate the total load
+	 * of the 'fleet'
+	 *
+	 * @param dT		simulation step time
+	 * @param freq		grid frequency
+	 * @return			total load of 'fleet'
+	 */
+	public double calcLoad(double dT, double freq) {
+		double change = step(dT, freq);
+		pcOnLoad = (float) Math.max(0, pcOnLoad0 + 100 * change / HEAT_POWER);
+		pcDelay = (float) (100 * held / HEAT_POWER);
+		maxtotdelay = getLongestDelay();
+		return numAppliances * (p0 + change);
+	}
+
+	/**
+	 * check the turn-off frequency against the one the fit was made
+	 * for, which is built into the shed table so cannot be changed
+	 * @param f		turn-off frequency
+	 */
+	public void setTurnOffFreq(float f) {
+		if (f != turnofffreq) {
+			throw new IllegalArgumentException("Surrogate was fitted for a turn-off frequency of " + turnofffreq + ", not " + f);
+		}
+	}
+
+	/**
+	 * check the turn-on frequency against the one the fit was made
+	 * for, which the fitted time constants depend on
+	 * @param f		turn-on frequency
+	 */
+	public void setTurnOnFreq(float f) {
+		if (f != turnonfreq) {
+			throw new IllegalArgumentException("Surrogate was fitted for a turn-on frequency of " + turnonfreq + ", not " + f);
+		}
+	}
+
+	/**
+	 * Write the fitted model
+	 *
+	 * @param p		stream to write to
+	 */
+	public void write(PrintStream p) {
+		p.println("turnofffreq = " + turnofffreq);
+		p.println("turnonfreq = " + turnonfreq);
+		p.println("p0 = " + p0);
+		p.println("pcOnLoad0 = " + pcOnLoad0);
+		p.println("fLo = " + fLo);
+		p.println("df = " + df);
+		p.println("maxdelaytime = " + maxdelaytime);
+		p.println("tauShed = " + tauShed);
+		p.println("tauRelease = " + tauRelease);
+		p.println("tauHold = " + tauHold);
+		p.println("tauPay = " + tauPay);
+		p.println("payFrac = " + payFrac);
+		p.println("period = " + period);
+		p.println("phase = " + phase);
+		StringBuilder sb = new StringBuilder("shed =");
+		for (int i = 0; i < shed.length; i++) {
+			sb.append(i > 0 ? ", " : " ").append(shed[i]);
+		}
+		p.println(sb);
+	}
+
+	/**
+	 * Read a model written by write()
+	 *
+	 * @param path		file to read
+	 * @param num		number of machines
+	 * @return			the surrogate
+	 * @throws IOException	if the file cannot be read or is incomplete
+	 */
+	public static SurrogateFleet read(String path, int num) throws IOException {
+		HashMap<String, String> values = new HashMap<String, String>();
+		BufferedReader in = new BufferedReader(new FileReader(path));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				int eq = line.indexOf('=');
+				if (eq > 0) {
+					values.put(line.substring(0, eq).trim(), line.substring(eq + 1).trim());
+				}
+			}
+		}
+		finally {
+			in.close();
+		}
+		try {
+			String table[] = value(values, "shed", path).split("[,\\s]+");
+			SurrogateFleet sf = new SurrogateFleet(num, Double.parseDouble(value(values, "p0", path)),
+					Double.parseDouble(value(values, "fLo", path)), Double.parseDouble(value(values, "df", path)), table.length);
+			sf.turnofffreq = Float.parseFloat(value(values, "turnofffreq", path));
+			sf.turnonfreq = Float.parseFloat(value(values, "turnonfreq", path));
+			sf.pcOnLoad0 = Double.parseDouble(value(values, "pcOnLoad0", path));
+			sf.setMaxDelayTime(Double.parseDouble(value(values, "maxdelaytime", path)));
+			double p[] = new double[NUM_PARAMS + table.length];
+			String names[] = {"tauShed", "tauRelease", "tauHold", "tauPay", "payFrac", "period", "phase"};
+			for (int i = 0; i < names.length; i++) {
+				p[i] = Double.parseDouble(value(values, names[i], path));
+			}
+			for (int i = 0; i < table.length; i++) {
+				p[NUM_PARAMS + i] = Double.parseDouble(table[i]);
+			}
+			sf.setParams(p);
+			return sf;
+		}
+		catch (NumberFormatException ne) {
+			throw new IOException(path + ": bad surrogate parameter " + ne.getMessage());
+		}
+	}
+
+	/**
+	 * @param values	parameters read, by name
+	 * @param key		parameter wanted
+	 * @param path		file they were read from
+	 * @return			its value
+	 * @throws IOException	if it is missing
+	 */
+	protected static String value(HashMap<String, String> values, String key, String path) throws IOException {
+		String v = values.get(key);
+		if (v == null) {
+			throw new IOException(path + ": missing surrogate parameter " + key);
+		}
+		return v;
+	}
+}
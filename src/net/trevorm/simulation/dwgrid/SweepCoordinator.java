@@ -0,0 +1,326 @@
+/*****************************************************************************
+ *
+ *  SweepCoordinator
+ *
+ *  Driver class running sweeps of dwgrid Scenarios on worker processes
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class to run a list of Scenarios on worker processes, each a
+ * SweepWorker in its own JVM with its own heap, talking to the
+ * coordinator over its stdin and stdout.
+ *
+ * Each worker is given one Scenario at a time and the next as soon as
+ * it replies, so faster workers take more.  A worker which dies or
+ * breaks the protocol is restarted, up to maxRestarts times, and the
+ * Scenario it was running is given out again, up to maxAttempts times
+ * in all.  A Scenario which fails with an error in the model is not
+ * retried, as it would fail again.  Results are kept in Scenario
+ * order, so they do not depend on which worker ran what, and with a
+ * ResultCache set only the Scenarios not already in it are sent out.
+ *
+ * @author trevorm
+ *
+ */
+public class SweepCoordinator {
+
+	protected Scenario scenarios[];		// the Scenarios to run
+	public Scenario.Result results[];	// and what each did
+	public ResultCache cache;			// results of Scenarios already run, or null
+	public boolean trace;				// bring back the sampled traces?
+
+	public List<String> jvmArgs;		// for the workers, by default those of this JVM
+	public int maxAttempts = 3;			// tries of any one Scenario
+	public int maxRestarts = 3;			// restarts of any one worker
+
+	protected LinkedBlockingQueue<Integer> pending;	// Scenarios waiting for a worker
+	protected AtomicInteger remaining;	// Scenarios without a result
+	protected int attempts[];			// tries of each Scenario
+	protected volatile String failure;	// why the sweep cannot finish, or null
+
+	// Work done
+	public int numSent;					// Scenarios sent to workers
+	public int numRetried;				// sent again after a worker failed
+	public int numRestarts;				// workers restarted
+
+	/**
+	 * A worker process and its streams
+	 */
+	protected static class Link {
+		Process process;
+		DataInputStream in;
+		DataOutputStream out;
+
+		/**
+		 * Tell the worker to quit if it still can, and make sure it does
+		 */
+		void close() {
+			try {
+				out.writeInt(SweepWorker.QUIT);
+				out.flush();
+				if (!process.waitFor(5, TimeUnit.SECONDS)) {
+					process.destroyForcibly();
+				}
+			}
+			catch (IOException ie) {
+				process.destroyForcibly();
+			}
+			catch (InterruptedException ie) {
+				process.destroyForcibly();
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Constructor for a SweepCoordinator
+	 *
+	 * @param scenarios		the Scenarios to run, not changed
+	 */
+	public SweepCoordinator(Scenario scenarios[]) {
+		this.scenarios = scenarios;
+		results = new Scenario.Result[scenarios.length];
+		jvmArgs = new ArrayList<String>(ManagementFactory.getRuntimeMXBean().getInputArguments());
+	}
+
+	/**
+	 * Run every Scenario
+	 *
+	 * @param numWorkers	number of worker processes
+	 * @throws InterruptedException		if interrupted while waiting
+	 * @throws ExecutionException		if a Scenario fails, or cannot be run
+	 */
+	public void run(int numWorkers) throws InterruptedException, ExecutionException {
+		pending = new LinkedBlockingQueue<Integer>();
+		attempts = new int[scenarios.length];
+		failure = null;
+		for (int k = 0; k < scenarios.length; k++) {
+			results[k] = cache == null ? null : cache.get(scenarios[k], trace);
+			if (results[k] == null) {
+				pending.add(k);
+			}
+		}
+		remaining = new AtomicInteger(pending.size());
+
+		ExecutorService pool = Executors.newFixedThreadPool(numWorkers);
+		try {
+			List<Callable<Integer>> drivers = new ArrayList<Callable<Integer>>();
+			for (int w = 0; w < numWorkers; w++) {
+				drivers.add(new Callable<Integer>() {
+					public Integer call() throws InterruptedException {
+						return drive();
+					}
+				});
+			}
+			for (Future<Integer> f : pool.invokeAll(drivers)) {
+				f.get();
+			}
+		}
+		finally {
+			pool.shutdown();
+		}
+		if (failure != null) {
+			throw new ExecutionException(new IOException(failure));
+		}
+		if (remaining.get() > 0) {
+			throw new ExecutionException(new IOException("Every worker failed with " + remaining.get() + " Scenarios left"));
+		}
+	}
+
+	/**
+	 * Keep one worker busy until every Scenario has a result
+	 *
+	 * @return		number of Scenarios it ran
+	 */
+	protected int drive() throws InterruptedException {
+		Link link = null;
+		int restarts = 0;
+		int count = 0;
+		try {
+			while (remaining.get() > 0 && failure == null) {
+				// another worker may yet fail and give its Scenario back
+				Integer k = pending.poll(100, TimeUnit.MILLISECONDS);
+				if (k == null) {
+					continue;
+				}
+				try {
+					if (link == null) {
+						link = startWorker();
+					}
+					synchronized (this) {
+						numSent++;
+					}
+					link.out.writeInt(SweepWorker.RUN);
+					link.out.writeInt(k);
+					link.out.writeUTF(scenarios[k].describe());
+					link.out.writeBoolean(trace);
+					link.out.flush();
+					if (link.in.readInt() != k) {
+						throw new IOException("Reply out of step");
+					}
+					if (!link.in.readBoolean()) {
+						failure = "Scenario " + k + " failed: " + link.in.readUTF();
+						break;
+					}
+					Scenario.Result r = ResultCache.readResult(link.in, trace);
+					results[k] = r;
+					if (cache != null) {
+						cache.put(scenarios[k], r, trace);
+					}
+					remaining.decrementAndGet();
+					count++;
+				}
+				catch (IOException ie) {
+					if (link != null) {
+						link.close();
+						link = null;
+					}
+					synchronized (this) {
+						attempts[k]++;
+						if (attempts[k] >= maxAttempts) {
+							failure = "Scenario " + k + " failed " + attempts[k] + " times, last " + ie;
+						} else {
+							numRetried++;
+							pending.add(k);
+						}
+					}
+					if (++restarts > maxRestarts) {
+						System.err.println("Worker given up after " + restarts + " failures, last " + ie);
+						break;
+					}
+					synchronized (this) {
+						numRestarts++;
+					}
+				}
+			}
+		}
+		finally {
+			if (link != null) {
+				link.close();
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Start a worker process with this JVM's class path
+	 *
+	 * @return		its link
+	 * @throws IOException	if it cannot be started
+	 */
+	protected Link startWorker() throws IOException {
+		List<String> cmd = new ArrayList<String>();
+		cmd.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		cmd.addAll(jvmArgs);
+		cmd.add("-cp");
+		cmd.add(System.getProperty("java.class.path"));
+		cmd.add(SweepWorker.class.getName());
+		ProcessBuilder pb = new ProcessBuilder(cmd);
+		pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+		Link link = new Link();
+		link.process = pb.start();
+		link.in = new DataInputStream(new BufferedInputStream(link.process.getInputStream()));
+		link.out = new DataOutputStream(new BufferedOutputStream(link.process.getOutputStream()));
+		return link;
+	}
+
+	/**
+	 * Run SweepRunner's sweep on worker processes
+	 * @param args	optional number of workers and number of seeds for
+	 * 				each frequency
+	 */
+	public static void main(String[] args) {
+		int numWorkers = 2;
+		int numSeeds = 10;
+		if (args.length > 0) {
+			numWorkers = Integer.parseInt(args[0]);
+		}
+		if (args.length > 1) {
+			numSeeds = Integer.parseInt(args[1]);
+		}
+		float freqs[] = {49.5F, 49.6F, 49.7F, 49.8F, 49.9F};
+
+		Scenario base = new Scenario();
+		base.numTicks = 38000;
+		base.recordEvery = 100;
+		base.stopFreq = 49.5;
+		base.convergeTime = 600;
+		Scenario scenarios[] = new Scenario[freqs.length * numSeeds];
+		int k = 0;
+		for (int f = 0; f < freqs.length; f++) {
+			for (int s = 0; s < numSeeds; s++) {
+				scenarios[k] = base.copy();
+				scenarios[k].turnofffreq = freqs[f];
+				scenarios[k].setSeed(s);
+				k++;
+			}
+		}
+
+		SweepCoordinator sc = new SweepCoordinator(scenarios);
+		try {
+			long start = System.currentTimeMillis();
+			sc.run(numWorkers);
+			System.out.println(scenarios.length + " scenarios on " + numWorkers + " workers in "
+					+ (System.currentTimeMillis() - start) + " ms, " + sc.numRetried + " retried, "
+					+ sc.numRestarts + " workers restarted");
+
+			FileOutputStream out = new FileOutputStream("scenarios.dat");
+			PrintStream p = new PrintStream(out);
+			p.println("Turn-off frequency (Hz), Seed, Nadir (Hz), Max delay (s), Stop, Stop time (s)");
+			for (k = 0; k < scenarios.length; k++) {
+				Scenario.Result r = sc.results[k];
+				p.println(scenarios[k].turnofffreq + ", " + (k % numSeeds) + ", " + r.nadir + ", " + r.maxDwDelay
+						+ ", " + r.stop + ", " + r.stopTime);
+			}
+			out.close();
+		}
+		catch (IOException ie) {
+			System.err.println("IOException: scenarios.dat " + ie);
+		}
+		catch (InterruptedException ie) {
+			System.err.println("Interrupted: " + ie);
+		}
+		catch (ExecutionException ee) {
+			System.err.println("Run failed: " + ee.getCause());
+		}
+	}
+}
@@ -0,0 +1,191 @@
+/*****************************************************************************
+ *
+ *  SweepRunner
+ *
+ *  Driver class running sweeps of many short dwgrid Scenarios
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class to run a list of Scenarios on a pool of workers, each of
+ * which keeps one SimulationEngine and runs Scenario after Scenario
+ * on it.  Workers take the next Scenario as they finish one, so the
+ * results do not depend on the number of workers.  With a ResultCache
+ * set, only the summaries of Scenarios not already in it are worked
+ * out, and they are kept in it.
+ *
+ * @author trevorm
+ *
+ */
+public class SweepRunner {
+
+	protected Scenario scenarios[];		// the Scenarios to run
+	protected AtomicInteger next;		// next Scenario to hand out
+	public ResultCache cache;			// results of Scenarios already run, or null
+
+	// Results of each Scenario
+	public double nadir[];				// lowest frequency
+	public double maxDwDelay[];			// longest dishwasher delay in seconds
+	public double initialFleetLoad[];	// fleet load before the first tick
+	public Scenario.Stop stop[];		// why the run ended
+	public double stopTime[];			// and when
+
+	/**
+	 * Constructor for a SweepRunner
+	 *
+	 * @param scenarios		the Scenarios to run, not changed
+	 */
+	public SweepRunner(Scenario scenarios[]) {
+		this.scenarios = scenarios;
+		nadir = new double[scenarios.length];
+		maxDwDelay = new double[scenarios.length];
+		initialFleetLoad = new double[scenarios.length];
+		stop = new Scenario.Stop[scenarios.length];
+		stopTime = new double[scenarios.length];
+	}
+
+	/**
+	 * Run every Scenario
+	 *
+	 * @param threads	number of workers
+	 * @throws InterruptedException		if interrupted while waiting
+	 * @throws ExecutionException		if a run fails
+	 */
+	public void run(int threads) throws InterruptedException, ExecutionException {
+		next = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Callable<Integer>> workers = new ArrayList<Callable<Integer>>();
+			for (int w = 0; w < threads; w++) {
+				workers.add(new Callable<Integer>() {
+					public Integer call() {
+						return work();
+					}
+				});
+			}
+			for (Future<Integer> f : pool.invokeAll(workers)) {
+				f.get();
+			}
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Run Scenarios on one engine until there are none left
+	 *
+	 * @return		number of Scenarios run
+	 */
+	protected int work() {
+		SimulationEngine engine = new SimulationEngine();
+		int count = 0;
+		int k;
+		while ((k = next.getAndIncrement()) < scenarios.length) {
+			Scenario.Result r = cache == null ? null : cache.get(scenarios[k], false);
+			if (r == null) {
+				engine.reset(scenarios[k]);
+				r = engine.run(null);
+				if (cache != null) {
+					cache.put(scenarios[k], r, false);
+				}
+			}
+			nadir[k] = r.nadir;
+			maxDwDelay[k] = r.maxDwDelay;
+			initialFleetLoad[k] = r.initialFleetLoad;
+			stop[k] = r.stop;
+			stopTime[k] = r.stopTime;
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Sweep the turn-off frequency over several fleet seeds, running
+	 * up to an hour after the loss of generation but stopping once the
+	 * nadir and longest delay have stayed the same for ten minutes,
+	 * or the frequency falls below the statutory limit
+	 * @param args	optional number of seeds for each frequency
+	 */
+	public static void main(String[] args) {
+		int numSeeds = 10;
+		if (args.length > 0) {
+			numSeeds = Integer.parseInt(args[0]);
+		}
+		float freqs[] = {49.5F, 49.6F, 49.7F, 49.8F, 49.9F};
+
+		Scenario base = new Scenario();
+		base.numTicks = 38000;
+		base.recordEvery = 100;
+		base.stopFreq = 49.5;
+		base.convergeTime = 600;
+		Scenario scenarios[] = new Scenario[freqs.length * numSeeds];
+		int k = 0;
+		for (int f = 0; f < freqs.length; f++) {
+			for (int s = 0; s < numSeeds; s++) {
+				scenarios[k] = base.copy();
+				scenarios[k].turnofffreq = freqs[f];
+				scenarios[k].setSeed(s);
+				k++;
+			}
+		}
+
+		SweepRunner sr = new SweepRunner(scenarios);
+		try {
+			sr.cache = new ResultCache(new File("results.cache"), 1L << 30);
+			long start = System.currentTimeMillis();
+			sr.run(Runtime.getRuntime().availableProcessors());
+			System.out.println(scenarios.length + " scenarios in " + (System.currentTimeMillis() - start) + " ms, "
+					+ sr.cache.hits + " from cache");
+
+			FileOutputStream out = new FileOutputStream("scenarios.dat");
+			PrintStream p = new PrintStream(out);
+			p.println("Turn-off frequency (Hz), Seed, Nadir (Hz), Max delay (s), Stop, Stop time (s)");
+			for (k = 0; k < scenarios.length; k++) {
+				p.println(scenarios[k].turnofffreq + ", " + (k % numSeeds) + ", " + sr.nadir[k] + ", " + sr.maxDwDelay[k]
+						+ ", " + sr.stop[k] + ", " + sr.stopTime[k]);
+			}
+			out.close();
+		}
+		catch (IOException ie) {
+			System.err.println("IOException: scenarios.dat " + ie);
+		}
+		catch (InterruptedException ie) {
+			System.err.println("Interrupted: " + ie);
+		}
+		catch (ExecutionException ee) {
+			System.err.println("Run failed: " + ee.getCause());
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/*****************************************************************************
+ *
+ *  SweepWorker
+ *
+ *  Worker process running dwgrid Scenarios for a SweepCoordinator
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A worker running Scenarios sent by a SweepCoordinator, one after
+ * another on one SimulationEngine, in its own JVM so that its fleets
+ * have a heap of their own.
+ *
+ * The protocol only needs a pair of streams - stdin and stdout here -
+ * so it can be carried over sockets to other machines.  Each request is
+ *
+ *   int RUN, int job, UTF Scenario.describe(), boolean trace
+ *
+ * or int QUIT, and each reply is
+ *
+ *   int job, boolean ok, then the result as ResultCache.writeResult()
+ *   if ok, or a UTF error message if not.
+ *
+ * @author trevorm
+ *
+ */
+public class SweepWorker {
+
+	public static final int QUIT = 0;
+	public static final int RUN = 1;
+
+	protected SimulationEngine engine = new SimulationEngine();
+	public int numRun;						// Scenarios run
+
+	/**
+	 * Run Scenarios until told to quit or the coordinator goes away
+	 *
+	 * @param in		requests
+	 * @param out		replies
+	 * @throws IOException	if the link fails
+	 */
+	public void serve(DataInputStream in, DataOutputStream out) throws IOException {
+		while (true) {
+			int op;
+			try {
+				op = in.readInt();
+			}
+			catch (EOFException ee) {
+				return;
+			}
+			if (op == QUIT) {
+				return;
+			}
+			if (op != RUN) {
+				throw new IOException("Unknown request " + op);
+			}
+			int job = in.readInt();
+			String desc = in.readUTF();
+			boolean trace = in.readBoolean();
+			Scenario.Result r = null;
+			String error = null;
+			try {
+				engine.reset(Scenario.parse(desc));
+				r = engine.run(null);
+			}
+			catch (RuntimeException re) {
+				error = re.toString();
+			}
+			out.writeInt(job);
+			out.writeBoolean(r != null);
+			if (r != null) {
+				ResultCache.writeResult(out, r, trace);
+			} else {
+				out.writeUTF(error);
+			}
+			out.flush();
+			numRun++;
+		}
+	}
+
+	/**
+	 * Serve a coordinator on stdin and stdout
+	 * @param args	not used
+	 */
+	public static void main(String[] args) {
+		// stdout carries the replies, so nothing else may write to it
+		OutputStream replies = System.out;
+		System.setOut(System.err);
+		SweepWorker w = new SweepWorker();
+		try {
+			w.serve(new DataInputStream(new BufferedInputStream(System.in)),
+					new DataOutputStream(new BufferedOutputStream(replies)));
+		}
+		catch (IOException ie) {
+			System.err.println("IOException: worker link " + ie);
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,387 @@
+/*****************************************************************************
+ *
+ *  SyntheticWindPower
+ *
+ *  Class generating wind power output statistically like the historical
+ *  data, for as long as wanted.  Part of dwgrid simulation.
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Class to model the contribution of Wind Power to the grid without
+ * running out of data.  The historical file only covers a few days;
+ * this fits a model to it and then generates a stream of wind power
+ * from a seed for as long as the simulation runs.
+ *
+ * The model works on the ramps - the change in power from one point
+ * to the next, fitStep apart - as an autoregression on the last two
+ * ramps with a pull back towards the mean power:
+ *
+ *   ramp = a1 * ramp1 + a2 * ramp2 + k * (mean - power) + e
+ *
+ * fitted by least squares.  The noise e is drawn from the fit's own
+ * residuals in blocks of blockLen, so the generated ramps keep the
+ * spread, the tails and any short term pattern of the real ones.
+ * Power is kept between 0 and capacity by reflecting at the bounds.
+ *
+ * Only the fitted points and residuals are held, so memory does not
+ * grow with the length of the stream.  Points between fitStep steps
+ * are interpolated linearly, as the historical 1 minute file was, so
+ * the stream can be read at any resolution with getPower(), or as
+ * the historical file at outStep intervals with readNextWind().  The
+ * same seed gives the same stream.
+ *
+ * @author trevorm
+ *
+ */
+public class SyntheticWindPower extends WindPower {
+	public int    fitStep  = 300;		// seconds between points fitted and generated
+	public int    outStep  = 60;		// seconds between points from readNextWind()
+	public int    blockLen = 12;		// residuals drawn in runs of this many steps
+	public double headroom = 1.2;		// capacity as a multiple of the largest power fitted
+
+	// The fit
+	protected float fitted[];			// historical power every fitStep (W)
+	protected float resid[];			// ramp residuals of the fit (W)
+	protected double a1, a2;			// weights of the last two ramps
+	protected double k;					// pull towards the mean each step
+	protected double mean;				// mean power (W)
+	protected double capacity;			// largest power generated (W)
+
+	// The stream
+	protected Random rngen;
+	protected double t0;				// time of power0 (s)
+	protected double power0;			// power at t0 (W)
+	protected double power1;			// power a fitStep later (W)
+	protected double ramp2;				// ramp before power1 - power0
+	protected int blockPos;				// next residual
+	protected int blockLeft;			// residuals left in the block
+	protected long numSteps;			// steps generated
+
+	/**
+	 * Constructor for a SyntheticWindPower, which must be fitted before
+	 * use
+	 *
+	 * @param seed		seed for the stream
+	 */
+	public SyntheticWindPower(long seed) {
+		rngen = new Random(seed);
+	}
+
+	/**
+	 * Fit the model to a historical data file, and start the stream
+	 *
+	 * @param path		the file, as read by WindPower
+	 * @return			0, or the status from openWindDataFile(), or -5
+	 * 					if there is too little data to fit
+	 */
+	public int fit(String path) {
+		fitted = null;
+		int status = openWindDataFile(path);
+		if (status < 0) {
+			return status;
+		}
+		// every fitStep of the file, which may be finer
+		float pts[] = new float[1024];
+		int n = 0;
+		long nextTime = Long.MIN_VALUE;
+		while (readNextWind() >= 0) {
+			if (stepSec >= nextTime) {
+				if (n == pts.length) {
+					pts = Arrays.copyOf(pts, n * 2);
+				}
+				pts[n++] = windpower;
+				nextTime = (nextTime == Long.MIN_VALUE ? stepSec : nextTime) + fitStep;
+			}
+		}
+		closeWindDataFile();
+		if (n < blockLen + 3) {
+			return -5;
+		}
+		fitted = Arrays.copyOf(pts, n);
+
+		double max = 0;
+		mean = 0;
+		for (int i = 0; i < n; i++) {
+			mean += fitted[i];
+			max = Math.max(max, fitted[i]);
+		}
+		mean /= n;
+		capacity = max * headroom;
+
+		// least squares on ramp1, ramp2 and mean - power
+		int m = n - 2;
+		double x[][] = new double[m][3];
+		double y[] = new double[m];
+		double ata[][] = new double[3][3];
+		double aty[] = new double[3];
+		for (int i = 2; i < n; i++) {
+			double r[] = x[i - 2];
+			r[0] = fitted[i - 1] - fitted[i - 2];
+			r[1] = i > 2 ? fitted[i - 2] - fitted[i - 3] : 0;
+			r[2] = mean - fitted[i - 1];
+			y[i - 2] = fitted[i] - fitted[i - 1];
+			for (int a = 0; a < 3; a++) {
+				aty[a] += r[a] * y[i - 2];
+				for (int b = 0; b < 3; b++) {
+					ata[a][b] += r[a] * r[b];
+				}
+			}
+		}
+		double w[] = solve(ata, aty);
+		a1 = w[0];
+		a2 = w[1];
+		// a few days can't show the pull back, so never let it push away
+		k = Math.max(w[2], 0);
+		resid = new float[m];
+		for (int i = 0; i < m; i++) {
+			resid[i] = (float) (y[i] - a1 * x[i][0] - a2 * x[i][1] - k * x[i][2]);
+		}
+		startStream();
+		return 0;
+	}
+
+	/**
+	 * Solve a small set of linear equations, by Gaussian elimination
+	 * with partial pivoting
+	 *
+	 * @param a		coefficients, overwritten
+	 * @param b		right hand side, overwritten
+	 * @return		the solution
+	 */
+	private static double[] solve(double a[][], double b[]) {
+		int n = b.length;
+		for (int c = 0; c < n; c++) {
+			int p = c;
+			for (int r = c + 1; r < n; r++) {
+				if (Math.abs(a[r][c]) > Math.abs(a[p][c])) {
+					p = r;
+				}
+			}
+			double tr[] = a[c]; a[c] = a[p]; a[p] = tr;
+			double tb = b[c]; b[c] = b[p]; b[p] = tb;
+			for (int r = c + 1; r < n; r++) {
+				double f = a[r][c] / a[c][c];
+				for (int j = c; j < n; j++) {
+					a[r][j] -= f * a[c][j];
+				}
+				b[r] -= f * b[c];
+			}
+		}
+		double x[] = new double[n];
+		for (int r = n - 1; r >= 0; r--) {
+			double s = b[r];
+			for (int j = r + 1; j < n; j++) {
+				s -= a[r][j] * x[j];
+			}
+			x[r] = s / a[r][r];
+		}
+		return x;
+	}
+
+	/**
+	 * Start the stream again from a new seed
+	 *
+	 * @param seed		the seed
+	 */
+	public void reset(long seed) {
+		rngen.setSeed(seed);
+		startStream();
+	}
+
+	/**
+	 * Start the stream at time 0 from a point of the fitted data chosen
+	 * by rngen
+	 */
+	protected void startStream() {
+		int i = 2 + rngen.nextInt(fitted.length - 2);
+		t0 = 0;
+		power0 = fitted[i - 1];
+		power1 = fitted[i];
+		ramp2 = fitted[i - 1] - fitted[i - 2];
+		blockLeft = 0;
+		numSteps = 0;
+		stepSec = -outStep;
+		windpower = (float) power0;
+	}
+
+	/**
+	 * Generate the next point, fitStep after the last
+	 */
+	protected void step() {
+		if (blockLeft == 0) {
+			blockPos = rngen.nextInt(resid.length - blockLen + 1);
+			blockLeft = blockLen;
+		}
+		double ramp1 = power1 - power0;
+		double next = power1 + a1 * ramp1 + a2 * ramp2 + k * (mean - power1) + resid[blockPos++];
+		blockLeft--;
+		if (next < 0) {
+			next = -next;
+		}
+		if (next > capacity) {
+			next = Math.max(2 * capacity - next, 0);
+		}
+		ramp2 = ramp1;
+		power0 = power1;
+		power1 = next;
+		t0 += fitStep;
+		numSteps++;
+	}
+
+	/**
+	 * Wind power at a time, which must not be before the last time
+	 * asked for by more than a fitStep
+	 *
+	 * @param t		time in seconds from the start of the stream
+	 * @return		wind power in W
+	 */
+	public double getPower(double t) {
+		while (t > t0 + fitStep) {
+			step();
+		}
+		return power0 + (power1 - power0) * (t - t0) / fitStep;
+	}
+
+	/**
+	 * Generate the next time/power pair, outStep after the last, as
+	 * reading the next line of a historical file
+	 * @return wind power
+	 */
+	public float readNextWind() {
+		if (fitted == null) {
+			// fitting, from the file
+			return super.readNextWind();
+		}
+		stepSec += outStep;
+		windpower = (float) getPower(stepSec);
+		return windpower;
+	}
+
+	/**
+	 * @return	the fitted model, as text
+	 */
+	public String describe() {
+		return "a1 " + a1 + ", a2 " + a2 + ", k " + k + ", mean " + mean / 1000000 + " MW, capacity "
+				+ capacity / 1000000 + " MW, " + resid.length + " residuals";
+	}
+
+	/**
+	 * Statistics of a series of powers: mean, sd, sd of ramps and
+	 * correlation of one ramp with the next
+	 */
+	private static class Stats {
+		double n, sum, sumSq, rn, rSum, rSumSq, rLag;
+		double last = Double.NaN, lastRamp = Double.NaN;
+
+		void add(double p) {
+			n++;
+			sum += p;
+			sumSq += p * p;
+			if (!Double.isNaN(last)) {
+				double r = p - last;
+				rn++;
+				rSum += r;
+				rSumSq += r * r;
+				if (!Double.isNaN(lastRamp)) {
+					rLag += r * lastRamp;
+				}
+				lastRamp = r;
+			}
+			last = p;
+		}
+
+		public String toString() {
+			double m = sum / n;
+			double rv = rSumSq / rn - (rSum / rn) * (rSum / rn);
+			return "mean " + (float) (m / 1000000) + " MW, sd " + (float) (Math.sqrt(sumSq / n - m * m) / 1000000)
+					+ " MW, ramp sd " + (float) (Math.sqrt(rv) / 1000000) + " MW, ramp lag 1 correlation "
+					+ (float) ((rLag / (rn - 1) - (rSum / rn) * (rSum / rn)) / rv);
+		}
+	}
+
+	/**
+	 * main entry for testing only, fits the model to the historical
+	 * data, compares a year of the stream with it and writes the first
+	 * month at 1 minute intervals to syntheticwind.dat
+	 * @param args	optional data file and seed
+	 */
+	public static void main(String[] args) {
+		String path = "InterpolatedWindData.csv";
+		long seed = 1;
+		if (args.length > 0) {
+			path = args[0];
+		}
+		if (args.length > 1) {
+			seed = Long.parseLong(args[1]);
+		}
+		SyntheticWindPower sw = new SyntheticWindPower(seed);
+		int status = sw.fit(path);
+		if (status < 0) {
+			System.err.println("Problem fitting wind data file, status = " + status);
+			System.exit(status);
+		}
+		System.out.println("Fitted " + sw.fitted.length + " points: " + sw.describe());
+		Stats hist = new Stats();
+		for (float p : sw.fitted) {
+			hist.add(p);
+		}
+		System.out.println("Historical: " + hist);
+
+		// a year at the fitted step, timed
+		int yearSteps = 365 * 86400 / sw.fitStep;
+		Stats synth = new Stats();
+		long start = System.nanoTime();
+		for (int i = 0; i < yearSteps; i++) {
+			synth.add(sw.getPower((double) i * sw.fitStep));
+		}
+		long time = System.nanoTime() - start;
+		System.out.println("Synthetic:  " + synth);
+		System.out.println(yearSteps + " points in " + time / 1000000 + " ms, "
+				+ (long) (yearSteps * 1e9 / time) + " points/s");
+
+		sw.reset(seed);
+		float first = sw.readNextWind();
+		sw.reset(seed);
+		try {
+			FileOutputStream out = new FileOutputStream("syntheticwind.dat");
+			PrintStream p = new PrintStream(out);
+			p.println("Time (h), Wind power (MW)");
+			for (int i = 0; i < 30 * 1440; i++) {
+				float w = sw.readNextWind();
+				if (i == 0 && w != first) {
+					System.err.println("Stream not repeated from the seed");
+				}
+				p.println(sw.stepSec / 3600.0 + ", " + w / 1000000);
+			}
+			out.close();
+		}
+		catch (IOException ie) {
+			System.err.println("IOException: syntheticwind.dat " + ie);
+		}
+	}
+}
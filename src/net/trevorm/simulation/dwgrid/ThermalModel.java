@@ -0,0 +1,200 @@
+/*****************************************************************************
+ *
+ *  ThermalModel
+ *
+ *  Class modelling the water temperature of an appliance
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * A first order thermal model of the water in an appliance: a heat
+ * capacity, heated by the element and losing heat to the room through
+ * a thermal resistance.  With the heating power P held over a time t
+ * the temperature moves towards its steady value
+ *
+ *   Tss = ambient + P * resistance
+ *
+ * as T(t) = Tss + (T(0) - Tss) * exp(-t / (capacity * resistance)),
+ * so once the decay over a time step is worked out each step is a
+ * single multiply-add:
+ *
+ *   T' = decay * T + (1 - decay) * ambient + (1 - decay) * resistance * P
+ *
+ * The Dynamic Demand regimes use how far the water has got from
+ * ambient towards the wash temperature in place of the old proxy,
+ * progress through the programme step.
+ *
+ * The defaults are for a dishwasher: the 2.2kW element takes the water
+ * from 20C to about 55C in the 14 minute 'Eco' main wash, and the
+ * standard programme's run of heated rinses peaks near 65C.
+ *
+ * @author trevorm
+ *
+ */
+public class ThermalModel {
+
+	public double capacity   = 30000;	// heat capacity of water and machine (J/K)
+	public double resistance = 0.025;	// thermal resistance to the room (K/W)
+	public double ambient    = 20;		// room and cold fill temperature (C)
+
+	// Factors for the last time step set
+	protected double dT = -1;
+	protected float decay;				// exp(-dT / time constant)
+	protected float gainAmbient;		// (1 - decay) * ambient
+	protected float gainPower;			// (1 - decay) * resistance
+
+	/**
+	 * Constructor for a ThermalModel with the default dishwasher
+	 * parameters
+	 */
+	public ThermalModel() {
+	}
+
+	/**
+	 * Constructor for a ThermalModel
+	 *
+	 * @param capacity		heat capacity (J/K)
+	 * @param resistance	thermal resistance to the room (K/W)
+	 * @param ambient		room temperature (C)
+	 */
+	public ThermalModel(double capacity, double resistance, double ambient) {
+		this.capacity = capacity;
+		this.resistance = resistance;
+		this.ambient = ambient;
+	}
+
+	/**
+	 * @return time constant in seconds
+	 */
+	public double getTimeConstant() {
+		return capacity * resistance;
+	}
+
+	/**
+	 * Work out the factors for step(), if the time step has changed
+	 *
+	 * @param dT	time step in seconds
+	 */
+	public void setTimeStep(double dT) {
+		if (dT != this.dT) {
+			this.dT = dT;
+			decay = decay(dT);
+			gainAmbient = (float) ((1 - decay) * ambient);
+			gainPower = (float) ((1 - decay) * resistance);
+		}
+	}
+
+	/**
+	 * Temperature after one time step, as set by setTimeStep()
+	 *
+	 * @param temp		temperature now (C)
+	 * @param power		heating power over the step (W)
+	 * @return			temperature at the end of the step (C)
+	 */
+	public final float step(float temp, float power) {
+		return decay * temp + gainAmbient + gainPower * power;
+	}
+
+	/**
+	 * @param time		time in seconds
+	 * @return			how much of a difference from the steady
+	 * 					temperature is left after that time
+	 */
+	public float decay(double time) {
+		return (float) Math.exp(-time / (capacity * resistance));
+	}
+
+	/**
+	 * @param power		heating power (W)
+	 * @return			temperature it would hold the water at (C)
+	 */
+	public float steady(float power) {
+		return (float) (ambient + power * resistance);
+	}
+
+	/**
+	 * Temperature after any time with the power held
+	 *
+	 * @param temp		temperature now (C)
+	 * @param power		heating power (W)
+	 * @param time		time in seconds
+	 * @return			temperature at the end (C)
+	 */
+	public float advance(float temp, float power, double time) {
+		float tss = steady(power);
+		return tss + (temp - tss) * decay(time);
+	}
+
+	/**
+	 * How far the water is from ambient towards a wash temperature,
+	 * the temperature the Dynamic Demand regimes go by
+	 *
+	 * @param temp		temperature (C)
+	 * @param target	wash temperature (C)
+	 * @return			0 at or below ambient, to 1 at or above target
+	 */
+	public final float warmth(float temp, float target) {
+		float w = (float) ((temp - ambient) / (target - ambient));
+		return w < 0 ? 0 : (w > 1 ? 1 : w);
+	}
+
+	/**
+	 * main entry for testing only, writes the temperature through one
+	 * run of each dishwasher programme to thermal.dat
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		ThermalModel tm = new ThermalModel();
+		double dT = 1;
+		tm.setTimeStep(dT);
+		try {
+			FileOutputStream out = new FileOutputStream("thermal.dat");
+			PrintStream p = new PrintStream(out);
+			p.println("Time (s), Eco (C), Standard (C)");
+			int progs[][] = {DishwasherLoad.ECO_PROGRAMME, DishwasherLoad.STANDARD_PROGRAMME};
+			float temp[] = {(float) tm.ambient, (float) tm.ambient};
+			int step[] = new int[2];
+			int left[] = {progs[0][0], progs[1][0]};
+			for (int t = 0; t < 7200; t++) {
+				p.println(t + ", " + temp[0] + ", " + temp[1]);
+				for (int k = 0; k < 2; k++) {
+					if (step[k] * 2 >= progs[k].length) {
+						temp[k] = tm.step(temp[k], 0);
+						continue;
+					}
+					int power = progs[k][step[k] * 2 + 1];
+					temp[k] = tm.step(temp[k], power > 1000 ? power : 0);
+					if (--left[k] <= 0 && ++step[k] * 2 < progs[k].length) {
+						left[k] = progs[k][step[k] * 2];
+					}
+				}
+			}
+			out.close();
+		}
+		catch (IOException ie) {
+			System.err.println("IOException: thermal.dat " + ie);
+		}
+	}
+}
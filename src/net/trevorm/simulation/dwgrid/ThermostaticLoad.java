@@ -0,0 +1,274 @@
+/*****************************************************************************
+ *
+ *  ThermostaticLoad
+ *
+ *  Class modelling a fleet of thermostatically controlled appliances
+ *  (fridges, water heaters) for dwgrid simulation
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+import java.util.Random;
+
+/**
+ * A class to model a fleet of thermostatic appliances - either
+ * heaters (water heaters) or coolers (fridges).
+ *
+ * Each appliance is a single thermal mass losing heat to ambient
+ * with time constant tau.  When on, it is driven towards ambient
+ * plus (or minus, for a cooler) tOnRise.  The thermostat switches
+ * the appliance between tLow and tHigh.
+ *
+ * Dynamic Demand moves the thermostat band with grid frequency by
+ * ddGain degrees per Hz, so that below nominal frequency heaters
+ * turn off sooner and coolers stay off longer.
+ *
+ * @author trevorm
+ *
+ */
+public class ThermostaticLoad extends ApplianceFleet {
+
+	protected boolean heater;		// true for a heater, false for a cooler
+	protected float power;			// power when on, in Watts
+	protected float tAmbient;		// ambient temperature
+	protected float tLow;			// bottom of thermostat band
+	protected float tHigh;			// top of thermostat band
+	protected float tOnRise;		// steady state rise above ambient when on
+	protected float tau;			// thermal time constant in seconds
+	protected float ddGain = 0;		// band shift in degrees per Hz, 0 = no Dynamic Demand
+	protected float fnom = 50.0F;	// nominal frequency
+
+	protected float temp[];			// appliance temperatures
+	protected boolean on[];			// appliance switched on?
+
+	protected double lastdT = -1;	// step time the decay factor was calculated for
+	protected float decay;			// exp(-dT/tau) for lastdT
+
+	/**
+	 * Constructor for ThermostaticLoad class.  Temperatures and
+	 * on/off states are randomised across the thermostat band.
+	 *
+	 * @param name			name for output
+	 * @param num			number of appliances in 'fleet'
+	 * @param heater		true for heaters, false for coolers
+	 * @param power			power when on in Watts
+	 * @param tAmbient		ambient temperature
+	 * @param tLow			bottom of thermostat band
+	 * @param tHigh			top of thermostat band
+	 * @param tOnRise		steady state temperature change when on
+	 * @param tau			thermal time constant in seconds
+	 * @param seed			seed for the initial state
+	 */
+	public ThermostaticLoad(String name, int num, boolean heater, float power,
+			float tAmbient, float tLow, float tHigh, float tOnRise, float tau, long seed) {
+		this(name, num, heater, power, tAmbient, tLow, tHigh, tOnRise, tau, new Random(seed));
+	}
+
+	/**
+	 * Constructor for ThermostaticLoad class with the initial state
+	 * drawn from a given generator
+	 *
+	 * @param name			name for output
+	 * @param num			number of appliances in 'fleet'
+	 * @param heater		true for heaters, false for coolers
+	 * @param power			power when on in Watts
+	 * @param tAmbient		ambient temperature
+	 * @param tLow			bottom of thermostat band
+	 * @param tHigh			top of thermostat band
+	 * @param tOnRise		steady state temperature change when on
+	 * @param tau			thermal time constant in seconds
+	 * @param rngen			generator for the initial state
+	 */
+	public ThermostaticLoad(String name, int num, boolean heater, float power,
+			float tAmbient, float tLow, float tHigh, float tOnRise, float tau, Random rngen) {
+		this.name = name;
+		this.numAppliances = num;
+		this.heater = heater;
+		this.power = power;
+		this.tAmbient = tAmbient;
+		this.tLow = tLow;
+		this.tHigh = tHigh;
+		this.tOnRise = heater ? tOnRise : -tOnRise;
+		this.tau = tau;
+		temp = new float[num];
+		on = new boolean[num];
+		reset(rngen);
+	}
+
+	/**
+	 * Randomise the temperatures and on/off states again, in the
+	 * arrays already allocated
+	 *
+	 * @param rngen			generator for the initial state
+	 */
+	public void reset(Random rngen) {
+		// Start each appliance on with the probability of its duty cycle
+		float tOn = tAmbient + this.tOnRise;
+		double onTime, offTime;
+		if (heater) {
+			onTime  = crossTime(tLow, tHigh, tOn);
+			offTime = crossTime(tHigh, tLow, tAmbient);
+		} else {
+			onTime  = crossTime(tHigh, tLow, tOn);
+			offTime = crossTime(tLow, tHigh, tAmbient);
+		}
+		double duty = onTime / (onTime + offTime);
+
+		for (int n = 0; n < numAppliances; n++) {
+			temp[n] = tLow + rngen.nextFloat() * (tHigh - tLow);
+			on[n] = rngen.nextDouble() < duty;
+		}
+	}
+
+	/**
+	 * Time taken to go from one temperature to another while
+	 * heading for a steady state temperature
+	 *
+	 * @param from		starting temperature
+	 * @param to		finishing temperature
+	 * @param tInf		steady state temperature
+	 * @return			time in seconds
+	 */
+	protected double crossTime(float from, float to, float tInf) {
+		return tau * Math.log((tInf - from) / (tInf - to));
+	}
+
+	/**
+	 * A fleet of domestic fridges
+	 *
+	 * @param num		number of fridges
+	 * @param seed		seed for the initial state
+	 * @return			the fleet
+	 */
+	public static ThermostaticLoad fridges(int num, long seed) {
+		return fridges(num, new Random(seed));
+	}
+
+	/**
+	 * A fleet of domestic fridges
+	 *
+	 * @param num		number of fridges
+	 * @param rngen		generator for the initial state
+	 * @return			the fleet
+	 */
+	public static ThermostaticLoad fridges(int num, Random rngen) {
+		// 90W compressor, 2 - 7C band in a 20C kitchen,
+		// roughly 30 minutes off and 25 minutes on
+		return new ThermostaticLoad("fridges", num, false, 90, 20, 2, 7, 35, 5400, rngen);
+	}
+
+	/**
+	 * A fleet of domestic immersion water heaters
+	 *
+	 * @param num		number of water heaters
+	 * @param seed		seed for the initial state
+	 * @return			the fleet
+	 */
+	public static ThermostaticLoad waterHeaters(int num, long seed) {
+		return waterHeaters(num, new Random(seed));
+	}
+
+	/**
+	 * A fleet of domestic immersion water heaters
+	 *
+	 * @param num		number of water heaters
+	 * @param rngen		generator for the initial state
+	 * @return			the fleet
+	 */
+	public static ThermostaticLoad waterHeaters(int num, Random rngen) {
+		// 3kW element, 55 - 60C band, well lagged tank
+		// heats through the band in about 15 minutes
+		return new ThermostaticLoad("waterheaters", num, true, 3000, 20, 55, 60, 790, 150000, rngen);
+	}
+
+	/**
+	 * Set the Dynamic Demand band shift
+	 *
+	 * @param gain		degrees per Hz, 0 to disable
+	 */
+	public void setDDGain(float gain) {
+		ddGain = gain;
+	}
+
+	/**
+	 * method to step every appliance and calculate the total load
+	 * of the 'fleet'
+	 *
+	 * @param dT		simulation step time
+	 * @param freq		grid frequency
+	 * @return			total load of 'fleet'
+	 */
+	public double calcLoad(double dT, double freq) {
+		if (dT != lastdT) {
+			decay = (float) Math.exp(-dT / tau);
+			lastdT = dT;
+		}
+		// A heater's band moves down with frequency, a cooler's up
+		float shift = ddGain * (float) (freq - fnom);
+		float low  = heater ? tLow + shift : tLow - shift;
+		float high = heater ? tHigh + shift : tHigh - shift;
+		float tOn  = tAmbient + tOnRise;
+		float a = decay;
+		int numOn = 0;
+
+		for (int n = 0; n < numAppliances; n++) {
+			float tInf = on[n] ? tOn : tAmbient;
+			float t = tInf + (temp[n] - tInf) * a;
+			temp[n] = t;
+			if (heater) {
+				if (t < low) {
+					on[n] = true;
+				} else if (t > high) {
+					on[n] = false;
+				}
+			} else {
+				if (t > high) {
+					on[n] = true;
+				} else if (t < low) {
+					on[n] = false;
+				}
+			}
+			if (on[n]) {
+				numOn++;
+			}
+		}
+		pcOnLoad = 100 * ((float) numOn / (float) numAppliances);
+		return numOn * (double) power;
+	}
+
+	/**
+	 * main entry for testing only
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		ThermostaticLoad fr = fridges(1000, 1);
+		ThermostaticLoad wh = waterHeaters(1000, 2);
+		fr.setDDGain(2.0F);
+		wh.setDDGain(2.0F);
+
+		double dT = 1.0;
+		double freq;
+		for (double t = 0; t < 24 * 3600; t += dT) {
+			freq = (t > 12 * 3600 && t < 12 * 3600 + 600) ? 49.5 : 50.0;
+			System.out.println(t + " " + fr.calcLoad(dT, freq) + " " + wh.calcLoad(dT, freq)
+					+ " " + fr.pcOnLoad + " " + wh.pcOnLoad);
+		}
+	}
+}
@@ -0,0 +1,163 @@
+/*****************************************************************************
+ *
+ *  ThresholdIndex
+ *
+ *  Class indexing appliances by their turn-off frequency for dwgrid
+ *  simulation
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+import java.util.Arrays;
+
+/**
+ * A class to hold appliances in buckets sorted by turn-off frequency,
+ * so that when the grid frequency falls only the appliances which
+ * might turn off need to be looked at.
+ *
+ * Bucket b holds keys from lo + b * width up to lo + (b+1) * width;
+ * the bottom bucket also takes every key below lo and the top bucket
+ * every key above hi.  Each bucket is a linked list threaded through
+ * arrays indexed by appliance number, so adding, removing and moving
+ * an appliance does not allocate.
+ *
+ * @author trevorm
+ *
+ */
+public class ThresholdIndex {
+
+	protected float lo;				// bottom of bucketed range
+	protected float width;			// width of each bucket in Hz
+	public int numBuckets;			// number of buckets
+	public int head[];				// first appliance in each bucket, -1 if empty
+	public int next[];				// next appliance in the same bucket, -1 at the end
+	protected int prev[];			// previous appliance in the same bucket, -1 at the start
+	protected int bucket[];			// bucket each appliance is in, -1 if not indexed
+
+	/**
+	 * Constructor for an empty ThresholdIndex
+	 *
+	 * @param capacity	number of appliances which may be indexed
+	 * @param lo		bottom of bucketed range in Hz
+	 * @param hi		top of bucketed range in Hz
+	 * @param width		width of each bucket in Hz
+	 */
+	public ThresholdIndex(int capacity, float lo, float hi, float width) {
+		next = new int[capacity];
+		prev = new int[capacity];
+		bucket = new int[capacity];
+		setRange(lo, hi, width);
+	}
+
+	/**
+	 * Empty the index and change its range
+	 *
+	 * @param lo		bottom of bucketed range in Hz
+	 * @param hi		top of bucketed range in Hz
+	 * @param width		width of each bucket in Hz
+	 */
+	public void setRange(float lo, float hi, float width) {
+		this.lo = lo;
+		this.width = width;
+		numBuckets = Math.max(1, (int) Math.ceil((hi - lo) / width));
+		head = new int[numBuckets];
+		Arrays.fill(head, -1);
+		Arrays.fill(bucket, -1);
+	}
+
+	/**
+	 * @param key	turn-off frequency
+	 * @return		the bucket holding that key
+	 */
+	public int bucketFor(double key) {
+		int b = (int) Math.floor((key - lo) / width);
+		if (b < 0) {
+			return 0;
+		}
+		if (b >= numBuckets) {
+			return numBuckets - 1;
+		}
+		return b;
+	}
+
+	/**
+	 * The lowest bucket which may hold a key above a frequency -
+	 * every appliance that could turn off at that frequency is in
+	 * this bucket or one above it.
+	 *
+	 * @param freq	grid frequency
+	 * @return		bucket number
+	 */
+	public int firstBucket(double freq) {
+		return bucketFor(freq);
+	}
+
+	/**
+	 * @param n		appliance number
+	 * @return		true if the appliance is indexed
+	 */
+	public boolean contains(int n) {
+		return bucket[n] >= 0;
+	}
+
+	/**
+	 * Index an appliance, or move it if already indexed
+	 *
+	 * @param n		appliance number
+	 * @param key	its turn-off frequency
+	 */
+	public void put(int n, double key) {
+		int b = bucketFor(key);
+		if (bucket[n] == b) {
+			return;
+		}
+		if (bucket[n] >= 0) {
+			remove(n);
+		}
+		bucket[n] = b;
+		prev[n] = -1;
+		next[n] = head[b];
+		if (head[b] >= 0) {
+			prev[head[b]] = n;
+		}
+		head[b] = n;
+	}
+
+	/**
+	 * Remove an appliance from the index if it is there
+	 *
+	 * @param n		appliance number
+	 */
+	public void remove(int n) {
+		int b = bucket[n];
+		if (b < 0) {
+			return;
+		}
+		if (prev[n] >= 0) {
+			next[prev[n]] = next[n];
+		} else {
+			head[b] = next[n];
+		}
+		if (next[n] >= 0) {
+			prev[next[n]] = prev[n];
+		}
+		bucket[n] = -1;
+	}
+}
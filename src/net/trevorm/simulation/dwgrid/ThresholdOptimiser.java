@@ -0,0 +1,402 @@
+/*****************************************************************************
+ *
+ *  ThresholdOptimiser
+ *
+ *  Driver class searching for the best Dynamic Demand parameters for
+ *  dwgrid simulation
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class to search for the dishwashers' Dynamic Demand parameters -
+ * turn-off and turn-on frequencies and delay times - which give the
+ * lowest cost for a Scenario.  The cost of a run is
+ *
+ *   nadirWeight * (nominal frequency - nadir)
+ *   + belowWeight * seconds below limitFreq
+ *   + delayWeight * longest dishwasher delay in seconds
+ *
+ * and a candidate's cost is the worst over numSeeds fleet seeds.
+ *
+ * The search is a (mu + lambda) evolution strategy: each generation
+ * lambda children are made by mutating the mu best so far, and are run
+ * in parallel, each worker keeping one SimulationEngine.  Every part
+ * of the cost can only grow as a run goes on, so a child whose cost
+ * part way through is already above the mu-th best cannot be selected
+ * and its run is stopped there.  A run ended by the Scenario's
+ * FREQUENCY or ROCOF stop rule is charged as below limitFreq for the
+ * rest of its ticks, so that failing early never costs less than
+ * holding on.  The children and the bound are fixed
+ * before a generation is run, so the search does not depend on the
+ * number of workers.
+ *
+ * @author trevorm
+ *
+ */
+public class ThresholdOptimiser {
+
+	// The parameters searched, the turn-on frequency as a gap above
+	// the turn-off frequency so that it is always above it
+	public static final String NAMES[] = {"turnofffreq", "turnongap", "minofftime", "maxofftime", "maxdelaytime"};
+	public double lo[] = {49.5, 0.01, 0, 60, 300};
+	public double hi[] = {49.95, 0.4, 600, 1800, 3600};
+
+	// Cost
+	public double nadirWeight = 10;		// per Hz below nominal
+	public double belowWeight = 0.01;	// per second below limitFreq
+	public double limitFreq = 49.8;
+	public double delayWeight = 0.001;	// per second of the longest delay
+
+	// Search
+	public int mu = 4;					// candidates kept
+	public int lambda = 12;				// children each generation
+	public double sigma = 0.2;			// mutation size as a fraction of each range
+	public double sigmaDecay = 0.85;	// per generation
+	public int numSeeds = 2;			// fleet seeds each candidate is run on
+	public int checkEvery = 100;		// ticks between cost checks
+
+	protected Scenario base;			// Scenario the parameters are set in
+	protected Random rgen;
+	protected ExecutorService pool;
+	protected SimulationEngine engines[];	// one for each worker
+	protected Candidate batch[];			// candidates being run
+	protected double bound;					// cost above which a run is stopped
+	protected AtomicInteger next;			// next candidate to hand out
+
+	// Work done
+	public int numRuns;					// runs started
+	public int numPruned;				// candidates stopped early
+	public long ticksRun;				// ticks stepped
+	public long ticksFull;				// ticks the runs would have taken in full
+
+	/**
+	 * A set of parameters and its cost
+	 */
+	public static class Candidate {
+		public double x[];				// parameter values, in NAMES order
+		public double cost;				// worst cost over the seeds, or the cost
+										// when stopped if pruned
+		public boolean pruned;			// stopped early?
+
+		Candidate(double x[]) {
+			this.x = x;
+		}
+
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < NAMES.length; i++) {
+				sb.append(NAMES[i]).append(" = ").append((float) x[i]).append(", ");
+			}
+			return sb.append("cost = ").append(cost).append(pruned ? " (pruned)" : "").toString();
+		}
+	}
+
+	/**
+	 * Constructor for a ThresholdOptimiser
+	 *
+	 * @param base		Scenario to optimise, not changed
+	 * @param seed		seed for the search
+	 */
+	public ThresholdOptimiser(Scenario base, long seed) {
+		this.base = base;
+		rgen = new Random(seed);
+	}
+
+	/**
+	 * @param c		a candidate
+	 * @param s		seed number
+	 * @return		the base Scenario with the candidate's parameters
+	 */
+	public Scenario scenario(Candidate c, int s) {
+		Scenario sc = base.copy();
+		sc.turnofffreq = (float) c.x[0];
+		sc.turnonfreq = (float) Math.min(c.x[0] + c.x[1], sc.fnom);
+		sc.minofftime = (float) c.x[2];
+		sc.maxofftime = (float) c.x[3];
+		sc.maxdelaytime = c.x[4];
+		sc.setSeed(s);
+		return sc;
+	}
+
+	/**
+	 * Run the search
+	 *
+	 * @param generations	number of generations after the first
+	 * @param threads		number of workers
+	 * @param log			stream to write the best of each generation to, or null
+	 * @return				the best candidate found
+	 * @throws InterruptedException		if interrupted while waiting
+	 * @throws ExecutionException		if a run fails
+	 */
+	public Candidate optimise(int generations, int threads, PrintStream log) throws InterruptedException, ExecutionException {
+		pool = Executors.newFixedThreadPool(threads);
+		engines = new SimulationEngine[threads];
+		try {
+			// Start from random candidates across the ranges
+			Candidate parents[] = new Candidate[mu + lambda];
+			for (int k = 0; k < parents.length; k++) {
+				double x[] = new double[NAMES.length];
+				for (int i = 0; i < x.length; i++) {
+					x[i] = lo[i] + rgen.nextDouble() * (hi[i] - lo[i]);
+				}
+				parents[k] = new Candidate(x);
+			}
+			runBatch(parents, Double.POSITIVE_INFINITY, threads);
+			parents = select(parents, new Candidate[0]);
+			if (log != null) {
+				log.println("Generation, Cost, Runs, Pruned, " + String.join(", ", NAMES));
+				write(log, 0, parents[0]);
+			}
+
+			double s = sigma;
+			for (int g = 1; g <= generations; g++) {
+				Candidate children[] = new Candidate[lambda];
+				for (int k = 0; k < lambda; k++) {
+					children[k] = mutate(parents[rgen.nextInt(mu)], s);
+				}
+				runBatch(children, parents[mu - 1].cost, threads);
+				parents = select(parents, children);
+				s *= sigmaDecay;
+				if (log != null) {
+					write(log, g, parents[0]);
+				}
+			}
+			return parents[0];
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * @param parent	candidate to start from
+	 * @param s			mutation size as a fraction of each range
+	 * @return			a child, kept in the ranges
+	 */
+	protected Candidate mutate(Candidate parent, double s) {
+		double x[] = new double[NAMES.length];
+		for (int i = 0; i < x.length; i++) {
+			double v = parent.x[i] + rgen.nextGaussian() * s * (hi[i] - lo[i]);
+			x[i] = Math.max(lo[i], Math.min(v, hi[i]));
+		}
+		return new Candidate(x);
+	}
+
+	/**
+	 * @return the mu best of the parents and children, best first
+	 */
+	protected Candidate[] select(Candidate parents[], Candidate children[]) {
+		Candidate all[] = new Candidate[parents.length + children.length];
+		System.arraycopy(parents, 0, all, 0, parents.length);
+		System.arraycopy(children, 0, all, parents.length, children.length);
+		// stable, so earlier candidates win ties
+		Arrays.sort(all, new Comparator<Candidate>() {
+			public int compare(Candidate a, Candidate b) {
+				return Double.compare(a.cost, b.cost);
+			}
+		});
+		return Arrays.copyOf(all, Math.min(mu, all.length));
+	}
+
+	/**
+	 * Work out the costs of a batch of candidates
+	 *
+	 * @param cands		the candidates
+	 * @param bound		cost above which a run is stopped
+	 * @param threads	number of workers
+	 */
+	protected void runBatch(Candidate cands[], double bound, int threads) throws InterruptedException, ExecutionException {
+		this.batch = cands;
+		this.bound = bound;
+		next = new AtomicInteger();
+		List<Callable<Integer>> workers = new ArrayList<Callable<Integer>>();
+		for (int w = 0; w < threads; w++) {
+			final int worker = w;
+			workers.add(new Callable<Integer>() {
+				public Integer call() {
+					return work(worker);
+				}
+			});
+		}
+		for (Future<Integer> f : pool.invokeAll(workers)) {
+			f.get();
+		}
+	}
+
+	/**
+	 * Run candidates on one worker's engine until there are none left
+	 *
+	 * @param w		worker number
+	 * @return		number of candidates run
+	 */
+	protected int work(int w) {
+		if (engines[w] == null) {
+			engines[w] = new SimulationEngine();
+		}
+		int count = 0;
+		int k;
+		while ((k = next.getAndIncrement()) < batch.length) {
+			evaluate(batch[k], engines[w]);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Work out a candidate's cost, stopping once it is above the bound
+	 *
+	 * @param c			the candidate
+	 * @param engine	engine to run it on
+	 */
+	protected void evaluate(Candidate c, SimulationEngine engine) {
+		c.cost = 0;
+		c.pruned = false;
+		long ticks = 0;
+		long full = 0;
+		int runs = 0;
+		for (int s = 0; s < numSeeds && !c.pruned; s++) {
+			Scenario sc = scenario(c, s);
+			engine.reset(sc);
+			engine.start();
+			runs++;
+			full += sc.numTicks;
+			double below = 0;
+			double cost = 0;
+			while (engine.step(1) > 0) {
+				ticks++;
+				if (engine.getFrequency() < limitFreq) {
+					below += sc.dT;
+				}
+				if (engine.getTick() % checkEvery == 0) {
+					cost = cost(sc, engine.getResult(), below);
+					if (cost > bound) {
+						c.pruned = true;
+						break;
+					}
+				}
+			}
+			if (!c.pruned) {
+				// ended, perhaps by one of the Scenario's stop rules
+				Scenario.Stop stop = engine.getResult().stop;
+				if (stop == Scenario.Stop.FREQUENCY || stop == Scenario.Stop.ROCOF) {
+					below += (sc.numTicks - engine.getTick()) * sc.dT;
+				}
+				cost = cost(sc, engine.getResult(), below);
+			}
+			c.cost = Math.max(c.cost, cost);
+		}
+		full += (long) (numSeeds - runs) * base.numTicks;
+		synchronized (this) {
+			numRuns += runs;
+			ticksRun += ticks;
+			ticksFull += full;
+			if (c.pruned) {
+				numPruned++;
+			}
+		}
+	}
+
+	/**
+	 * @param sc		Scenario run
+	 * @param r			its result so far
+	 * @param below		seconds below limitFreq so far
+	 * @return			cost so far
+	 */
+	protected double cost(Scenario sc, Scenario.Result r, double below) {
+		return nadirWeight * (sc.fnom - r.nadir) + belowWeight * below + delayWeight * r.maxDwDelay;
+	}
+
+	protected void write(PrintStream p, int g, Candidate best) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(g).append(", ").append(best.cost).append(", ").append(numRuns).append(", ").append(numPruned);
+		for (int i = 0; i < best.x.length; i++) {
+			sb.append(", ").append((float) best.x[i]);
+		}
+		p.println(sb);
+	}
+
+	/**
+	 * Search for the best parameters for the first twenty minutes
+	 * after the loss of generation, writing progress to optimiser.dat
+	 * @param args	optional number of generations
+	 */
+	public static void main(String[] args) {
+		int generations = 8;
+		if (args.length > 0) {
+			generations = Integer.parseInt(args[0]);
+		}
+		Scenario base = new Scenario();
+		base.numTicks = 12000;
+		base.recordEvery = 100;
+
+		// A candidate stopped at limitFreq must rank behind one that holds
+		// on; without the charge for its lost ticks it would rank first
+		Scenario stopping = base.copy();
+		stopping.stopFreq = 49.8;
+		ThresholdOptimiser chk = new ThresholdOptimiser(stopping, 1);
+		chk.numSeeds = 1;
+		chk.bound = Double.POSITIVE_INFINITY;
+		Candidate held = new Candidate(new double[] {49.9, 0.05, 60, 600, 1800});
+		Candidate failed = new Candidate(new double[] {49.5, 0.05, 60, 600, 1800});
+		SimulationEngine engine = new SimulationEngine();
+		chk.evaluate(held, engine);
+		chk.evaluate(failed, engine);
+		System.out.println("Held, cost " + held.cost + "; stopped by " + engine.getResult().stop
+				+ " at tick " + engine.getTick() + ", cost " + failed.cost
+				+ (chk.select(new Candidate[] {failed, held}, new Candidate[0])[1] == failed ? ", ranks last" : ", ranks FIRST"));
+
+		ThresholdOptimiser opt = new ThresholdOptimiser(base, 1);
+		try {
+			FileOutputStream out = new FileOutputStream("optimiser.dat");
+			PrintStream p = new PrintStream(out);
+			long start = System.currentTimeMillis();
+			Candidate best = opt.optimise(generations, Runtime.getRuntime().availableProcessors(), p);
+			out.close();
+			System.out.println("Best: " + best);
+			System.out.println(opt.numRuns + " runs in " + (System.currentTimeMillis() - start) + " ms, "
+					+ opt.numPruned + " candidates pruned, " + opt.ticksRun + " of " + opt.ticksFull + " ticks run");
+		}
+		catch (IOException ie) {
+			System.err.println("IOException: optimiser.dat " + ie);
+		}
+		catch (InterruptedException ie) {
+			System.err.println("Interrupted: " + ie);
+		}
+		catch (ExecutionException ee) {
+			System.err.println("Run failed: " + ee.getCause());
+		}
+	}
+}
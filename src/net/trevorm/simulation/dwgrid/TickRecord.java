@@ -0,0 +1,100 @@
+/*****************************************************************************
+ *
+ *  TickRecord
+ *
+ *  Class holding the state of a dwgrid simulation after one tick
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+/**
+ * The state of a simulation after one tick - the columns of a line
+ * of results.dat - as published by SimulationEngine.  A TickRecord
+ * is never changed, so it can be handed between threads.
+ *
+ * @author trevorm
+ *
+ */
+public class TickRecord {
+
+	public final int tick;				// ticks since the start
+	public final double time;			// time in seconds
+	public final double freq;			// grid frequency in Hz
+	public final double Ps;				// power accelerating the generator in Watts
+	public final double Pr;				// released power
+	public final double Psp;			// spinning reserve output
+	public final double Pbase;			// base generator output
+	public final double Pfleet;			// load of all the fleets
+	private final double classLoads[];	// each fleet's scaled load
+	private final float classOnLoad[];	// each fleet's percentage on load
+
+	/**
+	 * Constructor for a TickRecord, the per-fleet arrays are copied
+	 */
+	public TickRecord(int tick, double time, double freq, double Ps, double Pr, double Psp, double Pbase,
+			double Pfleet, double classLoads[], float classOnLoad[]) {
+		this.tick = tick;
+		this.time = time;
+		this.freq = freq;
+		this.Ps = Ps;
+		this.Pr = Pr;
+		this.Psp = Psp;
+		this.Pbase = Pbase;
+		this.Pfleet = Pfleet;
+		this.classLoads = classLoads.clone();
+		this.classOnLoad = classOnLoad.clone();
+	}
+
+	/**
+	 * @return number of fleets
+	 */
+	public int getNumFleets() {
+		return classLoads.length;
+	}
+
+	/**
+	 * @param i		fleet number, as FleetLoad
+	 * @return		its scaled load in Watts
+	 */
+	public double getClassLoad(int i) {
+		return classLoads[i];
+	}
+
+	/**
+	 * @param i		fleet number, as FleetLoad
+	 * @return		its percentage of appliances on load
+	 */
+	public float getClassOnLoad(int i) {
+		return classOnLoad[i];
+	}
+
+	/**
+	 * @return the record as a line of results.dat
+	 */
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(time).append(", ").append(freq).append(", ").append(-Ps/1000000).append(", ").append(Pr/1000000)
+			.append(", ").append(Psp/1000000).append(", ").append(Pbase/1000000).append(", ").append(Pfleet/1000000);
+		for (int i = 0; i < classLoads.length; i++) {
+			sb.append(", ").append(classLoads[i] / 1000000).append(", ").append(classOnLoad[i]);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,122 @@
+/*****************************************************************************
+ *
+ *  TimerQueue
+ *
+ *  Class holding appliances waiting for a time to arrive for dwgrid
+ *  simulation
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+/**
+ * A priority queue of appliance numbers ordered by the tick each is
+ * next due attention, so a delayed appliance is only looked at when
+ * its retry time or delay limit arrives.  Each appliance may be in
+ * the queue at most once.  Held as a binary heap in an int array so
+ * nothing is allocated while the simulation runs.
+ *
+ * @author trevorm
+ *
+ */
+public class TimerQueue {
+
+	protected int heap[];		// appliance numbers, earliest due first
+	protected int due[];		// due tick of each appliance
+	public int size;			// number of appliances queued
+
+	/**
+	 * Constructor for an empty TimerQueue
+	 *
+	 * @param capacity	number of appliances which may be queued
+	 */
+	public TimerQueue(int capacity) {
+		heap = new int[capacity];
+		due = new int[capacity];
+		size = 0;
+	}
+
+	/**
+	 * @return true if nothing is queued
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return the earliest due tick, only valid if not empty
+	 */
+	public int peekDue() {
+		return due[heap[0]];
+	}
+
+	/**
+	 * Queue an appliance
+	 *
+	 * @param n		appliance number
+	 * @param tick	tick at which it is due
+	 */
+	public void push(int n, int tick) {
+		due[n] = tick;
+		int i = size++;
+		while (i > 0) {
+			int parent = (i - 1) >> 1;
+			if (due[heap[parent]] <= tick) {
+				break;
+			}
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = n;
+	}
+
+	/**
+	 * Remove the appliance due earliest
+	 *
+	 * @return its appliance number
+	 */
+	public int pop() {
+		int top = heap[0];
+		int last = heap[--size];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && due[heap[child + 1]] < due[heap[child]]) {
+				child++;
+			}
+			if (due[heap[child]] >= due[last]) {
+				break;
+			}
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = last;
+		return top;
+	}
+
+	/**
+	 * Empty the queue
+	 */
+	public void clear() {
+		size = 0;
+	}
+}
@@ -0,0 +1,657 @@
+/*****************************************************************************
+ *
+ *  TraceStore
+ *
+ *  Class keeping long dwgrid traces in a compressed file which can be
+ *  read a window at a time at any resolution
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A trace - rows of columns, the first being time - kept in a file of
+ * compressed chunks, so that any window of it can be read without
+ * reading the rest.
+ *
+ * Besides the rows themselves (level 0) the file keeps coarser levels,
+ * each row of level k+1 holding the minimum, maximum and mean of each
+ * column over FACTOR rows of level k.  A viewer asks for a window and
+ * the most points it wants, and is given the finest level with no more
+ * rows than that, so a week-long trace can be drawn whole or zoomed to
+ * single ticks while reading only a few chunks.
+ *
+ * The file is a header, the chunks of every level as they filled, and
+ * an index of the chunks with their times, found from the last twelve
+ * bytes.  Within a chunk each column is stored whole with the bytes of
+ * its values shuffled into planes, which deflates far better than
+ * whole rows.
+ *
+ * @author trevorm
+ *
+ */
+public class TraceStore {
+
+	protected static final int MAGIC = 0x64777473;	// "dwts"
+	public static final int CHUNK_ROWS = 4096;		// rows in a full chunk
+	public static final int FACTOR = 16;			// rows of a level summarised by one of the next
+	protected static final int CACHE_CHUNKS = 64;	// chunks kept unpacked
+
+	public String columns[];			// column names, time first
+	protected RandomAccessFile file;
+	protected Level levels[];
+	protected LinkedHashMap<Long, double[][]> cache;	// unpacked chunks by level and number
+
+	/**
+	 * Index of one level's chunks
+	 */
+	protected static class Level {
+		int numRows;
+		int numChunks;
+		long offset[];		// of each chunk in the file
+		int length[];		// packed length
+		int rows[];			// rows in each chunk
+		double start[];		// time of the first row of each chunk
+		double end[];		// time of the last row
+	}
+
+	/**
+	 * Part of a trace, at one level.  At level 0 min, max and mean are
+	 * the same arrays.
+	 */
+	public static class Window {
+		public int level;
+		public int numRows;
+		public double min[][];		// by column then row
+		public double max[][];
+		public double mean[][];
+	}
+
+	/**
+	 * Open a trace store for reading
+	 *
+	 * @param f		the file
+	 * @throws IOException	if it cannot be read or is not a trace store
+	 */
+	public TraceStore(File f) throws IOException {
+		file = new RandomAccessFile(f, "r");
+		try {
+			if (file.readInt() != MAGIC) {
+				throw new IOException("Not a trace store: " + f);
+			}
+			columns = new String[file.readInt()];
+			for (int c = 0; c < columns.length; c++) {
+				columns[c] = file.readUTF();
+			}
+			file.seek(file.length() - 12);
+			long indexAt = file.readLong();
+			if (file.readInt() != MAGIC) {
+				throw new IOException("Trace store not closed: " + f);
+			}
+			file.seek(indexAt);
+			levels = new Level[file.readInt()];
+			for (int k = 0; k < levels.length; k++) {
+				Level l = new Level();
+				l.numRows = file.readInt();
+				l.numChunks = file.readInt();
+				l.offset = new long[l.numChunks];
+				l.length = new int[l.numChunks];
+				l.rows = new int[l.numChunks];
+				l.start = new double[l.numChunks];
+				l.end = new double[l.numChunks];
+				for (int i = 0; i < l.numChunks; i++) {
+					l.offset[i] = file.readLong();
+					l.length[i] = file.readInt();
+					l.rows[i] = file.readInt();
+					l.start[i] = file.readDouble();
+					l.end[i] = file.readDouble();
+				}
+				levels[k] = l;
+			}
+		}
+		catch (IOException ie) {
+			file.close();
+			throw ie;
+		}
+		cache = new LinkedHashMap<Long, double[][]>(16, 0.75F, true) {
+			protected boolean removeEldestEntry(Map.Entry<Long, double[][]> e) {
+				return size() > CACHE_CHUNKS;
+			}
+		};
+	}
+
+	/**
+	 * @return number of levels, 1 if there are only the rows themselves
+	 */
+	public int getNumLevels() {
+		return levels.length;
+	}
+
+	/**
+	 * @param level		a level
+	 * @return			its number of rows
+	 */
+	public int getNumRows(int level) {
+		return levels[level].numRows;
+	}
+
+	/**
+	 * @return time of the first row
+	 */
+	public double getStartTime() {
+		return levels[0].numChunks == 0 ? 0 : levels[0].start[0];
+	}
+
+	/**
+	 * @return time of the last row
+	 */
+	public double getEndTime() {
+		Level l = levels[0];
+		return l.numChunks == 0 ? 0 : l.end[l.numChunks - 1];
+	}
+
+	/**
+	 * Read part of the trace at the finest level which gives no more
+	 * than about maxRows rows
+	 *
+	 * @param t0		start time
+	 * @param t1		end time
+	 * @param maxRows	most rows wanted
+	 * @return			the rows at least partly in the window
+	 * @throws IOException	if the file cannot be read
+	 */
+	public Window read(double t0, double t1, int maxRows) throws IOException {
+		int k = 0;
+		while (k < levels.length - 1 && estimateRows(k, t0, t1) > maxRows) {
+			k++;
+		}
+		return read(k, t0, t1);
+	}
+
+	/**
+	 * @return rows of a level in a window, taking the rows of each
+	 * 			chunk to be spread evenly in time
+	 */
+	protected double estimateRows(int k, double t0, double t1) {
+		Level l = levels[k];
+		double n = 0;
+		for (int i = first(l, t0); i < l.numChunks && l.start[i] <= t1; i++) {
+			double span = l.end[i] - l.start[i];
+			if (span <= 0) {
+				n += l.rows[i];
+			} else {
+				double overlap = Math.min(t1, l.end[i]) - Math.max(t0, l.start[i]);
+				n += l.rows[i] * Math.max(0, Math.min(1, overlap / span));
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * @return first chunk of a level ending at or after a time
+	 */
+	protected static int first(Level l, double t) {
+		int lo = 0;
+		int hi = l.numChunks;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (l.end[mid] < t) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Read part of the trace at one level
+	 *
+	 * @param k			the level
+	 * @param t0		start time
+	 * @param t1		end time
+	 * @return			the rows at least partly in the window
+	 * @throws IOException	if the file cannot be read
+	 */
+	public synchronized Window read(int k, double t0, double t1) throws IOException {
+		Level l = levels[k];
+		int stats = k == 0 ? 1 : 3;
+		ArrayList<double[][]> chunks = new ArrayList<double[][]>();
+		int n = 0;
+		for (int i = first(l, t0); i < l.numChunks && l.start[i] <= t1; i++) {
+			double chunk[][] = chunk(k, i);
+			chunks.add(chunk);
+			n += l.rows[i];
+		}
+
+		// Keep the rows overlapping the window: at level 0 a row is an
+		// instant, above it spans from its min time to its max time
+		Window w = new Window();
+		w.level = k;
+		w.min = new double[columns.length][n];
+		w.max = stats == 1 ? w.min : new double[columns.length][n];
+		w.mean = stats == 1 ? w.min : new double[columns.length][n];
+		int r = 0;
+		for (double chunk[][] : chunks) {
+			int rows = chunk[0].length;
+			for (int j = 0; j < rows; j++) {
+				double from = chunk[0][j];
+				double to = chunk[stats == 1 ? 0 : 1][j];
+				if (to < t0 || from > t1) {
+					continue;
+				}
+				for (int c = 0; c < columns.length; c++) {
+					w.min[c][r] = chunk[c * stats][j];
+					if (stats == 3) {
+						w.max[c][r] = chunk[c * stats + 1][j];
+						w.mean[c][r] = chunk[c * stats + 2][j];
+					}
+				}
+				r++;
+			}
+		}
+		w.numRows = r;
+		return w;
+	}
+
+	/**
+	 * @return a chunk's arrays, one per column at level 0 and min, max
+	 * 			and mean of each column above
+	 */
+	protected double[][] chunk(int k, int i) throws IOException {
+		Long key = ((long) k << 32) | i;
+		double chunk[][] = cache.get(key);
+		if (chunk != null) {
+			return chunk;
+		}
+		Level l = levels[k];
+		byte packed[] = new byte[l.length[i]];
+		file.seek(l.offset[i]);
+		file.readFully(packed);
+		int arrays = columns.length * (k == 0 ? 1 : 3);
+		byte planes[] = new byte[arrays * l.rows[i] * 8];
+		Inflater inf = new Inflater();
+		try {
+			inf.setInput(packed);
+			int got = inf.inflate(planes);
+			if (got != planes.length) {
+				throw new IOException("Short chunk " + i + " of level " + k);
+			}
+		}
+		catch (DataFormatException de) {
+			throw new IOException("Bad chunk " + i + " of level " + k + ": " + de.getMessage());
+		}
+		finally {
+			inf.end();
+		}
+		chunk = new double[arrays][];
+		for (int a = 0; a < arrays; a++) {
+			chunk[a] = unshuffle(planes, a * l.rows[i] * 8, l.rows[i]);
+		}
+		cache.put(key, chunk);
+		return chunk;
+	}
+
+	/**
+	 * Close the file
+	 *
+	 * @throws IOException	if it cannot be closed
+	 */
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * Write n values as eight planes of bytes, most significant first
+	 */
+	protected static void shuffle(double v[], int n, byte out[], int at) {
+		for (int j = 0; j < n; j++) {
+			long bits = Double.doubleToRawLongBits(v[j]);
+			for (int b = 0; b < 8; b++) {
+				out[at + b * n + j] = (byte) (bits >>> (56 - 8 * b));
+			}
+		}
+	}
+
+	/**
+	 * Read n values written by shuffle()
+	 */
+	protected static double[] unshuffle(byte in[], int at, int n) {
+		double v[] = new double[n];
+		for (int j = 0; j < n; j++) {
+			long bits = 0;
+			for (int b = 0; b < 8; b++) {
+				bits = (bits << 8) | (in[at + b * n + j] & 0xFF);
+			}
+			v[j] = Double.longBitsToDouble(bits);
+		}
+		return v;
+	}
+
+	/**
+	 * Writes a trace store a row at a time.  Nothing can be read from
+	 * the file until it is closed.
+	 */
+	public static class Writer {
+
+		protected String columns[];
+		protected DataOutputStream out;
+		protected long position;				// bytes written
+		protected ArrayList<LevelWriter> levels = new ArrayList<LevelWriter>();
+		protected Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		protected byte planes[] = new byte[0];
+		protected byte packed[] = new byte[0];
+
+		/**
+		 * One level's chunk being filled and the row of the next level
+		 * being summed
+		 */
+		protected class LevelWriter {
+			int k;
+			int numRows;
+			double min[][];			// by column then row of the chunk
+			double max[][];
+			double mean[][];
+			int rows;				// rows in the chunk
+			ArrayList<long[]> chunkPos = new ArrayList<long[]>();		// offset, length, rows
+			ArrayList<double[]> chunkTimes = new ArrayList<double[]>();	// start, end
+
+			// Next level's row
+			double accMin[];
+			double accMax[];
+			double accSum[];
+			long accWeight;			// rows of level 0 summed
+			int accRows;			// rows of this level summed
+
+			LevelWriter(int k) {
+				this.k = k;
+				int n = columns.length;
+				min = new double[n][CHUNK_ROWS];
+				max = k == 0 ? min : new double[n][CHUNK_ROWS];
+				mean = k == 0 ? min : new double[n][CHUNK_ROWS];
+				accMin = new double[n];
+				accMax = new double[n];
+				accSum = new double[n];
+			}
+
+			void add(double rmin[], double rmax[], double rmean[], long weight) throws IOException {
+				for (int c = 0; c < columns.length; c++) {
+					min[c][rows] = rmin[c];
+					if (k > 0) {
+						max[c][rows] = rmax[c];
+						mean[c][rows] = rmean[c];
+					}
+					if (accRows == 0) {
+						accMin[c] = rmin[c];
+						accMax[c] = rmax[c];
+						accSum[c] = 0;
+					} else {
+						accMin[c] = Math.min(accMin[c], rmin[c]);
+						accMax[c] = Math.max(accMax[c], rmax[c]);
+					}
+					accSum[c] += rmean[c] * weight;
+				}
+				accWeight += weight;
+				accRows++;
+				rows++;
+				numRows++;
+				if (rows == CHUNK_ROWS) {
+					flush();
+				}
+				if (accRows == FACTOR) {
+					pushUp();
+				}
+			}
+
+			/**
+			 * Pass the row being summed to the next level
+			 */
+			void pushUp() throws IOException {
+				if (levels.size() == k + 1) {
+					levels.add(new LevelWriter(k + 1));
+				}
+				double m[] = new double[columns.length];
+				for (int c = 0; c < m.length; c++) {
+					m[c] = accSum[c] / accWeight;
+				}
+				long w = accWeight;
+				accRows = 0;
+				accWeight = 0;
+				levels.get(k + 1).add(accMin.clone(), accMax.clone(), m, w);
+			}
+
+			/**
+			 * Write the chunk being filled
+			 */
+			void flush() throws IOException {
+				if (rows == 0) {
+					return;
+				}
+				int arrays = columns.length * (k == 0 ? 1 : 3);
+				int size = arrays * rows * 8;
+				if (planes.length < size) {
+					planes = new byte[size];
+					packed = new byte[size + size / 16 + 64];
+				}
+				int a = 0;
+				for (int c = 0; c < columns.length; c++) {
+					shuffle(min[c], rows, planes, a++ * rows * 8);
+					if (k > 0) {
+						shuffle(max[c], rows, planes, a++ * rows * 8);
+						shuffle(mean[c], rows, planes, a++ * rows * 8);
+					}
+				}
+				deflater.reset();
+				deflater.setInput(planes, 0, size);
+				deflater.finish();
+				int len = 0;
+				while (!deflater.finished()) {
+					if (len == packed.length) {
+						packed = Arrays.copyOf(packed, packed.length * 2);
+					}
+					len += deflater.deflate(packed, len, packed.length - len);
+				}
+				out.write(packed, 0, len);
+				chunkPos.add(new long[] {position, len, rows});
+				chunkTimes.add(new double[] {min[0][0], (k == 0 ? min : max)[0][rows - 1]});
+				position += len;
+				rows = 0;
+			}
+		}
+
+		/**
+		 * Constructor for a trace store Writer
+		 *
+		 * @param f			file to write
+		 * @param columns	column names, time first
+		 * @throws IOException	if the file cannot be written
+		 */
+		public Writer(File f, String columns[]) throws IOException {
+			this.columns = columns.clone();
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 16));
+			out.writeInt(MAGIC);
+			out.writeInt(columns.length);
+			for (String name : columns) {
+				out.writeUTF(name);
+			}
+			position = out.size();
+			levels.add(new LevelWriter(0));
+		}
+
+		/**
+		 * Add a row, in time order
+		 *
+		 * @param row	a value for each column
+		 * @throws IOException	if the file cannot be written
+		 */
+		public void add(double row[]) throws IOException {
+			levels.get(0).add(row, row, row, 1);
+		}
+
+		/**
+		 * Finish the levels and write the index
+		 *
+		 * @throws IOException	if the file cannot be written
+		 */
+		public void close() throws IOException {
+			try {
+				// Rows part summed go up to levels which already exist
+				for (int k = 0; k < levels.size(); k++) {
+					LevelWriter l = levels.get(k);
+					if (l.accRows > 0 && k + 1 < levels.size()) {
+						l.pushUp();
+					}
+					l.flush();
+				}
+				long indexAt = position;
+				out.writeInt(levels.size());
+				for (LevelWriter l : levels) {
+					out.writeInt(l.numRows);
+					out.writeInt(l.chunkPos.size());
+					for (int i = 0; i < l.chunkPos.size(); i++) {
+						long p[] = l.chunkPos.get(i);
+						double t[] = l.chunkTimes.get(i);
+						out.writeLong(p[0]);
+						out.writeInt((int) p[1]);
+						out.writeInt((int) p[2]);
+						out.writeDouble(t[0]);
+						out.writeDouble(t[1]);
+					}
+				}
+				out.writeLong(indexAt);
+				out.writeInt(MAGIC);
+			}
+			finally {
+				deflater.end();
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * Convert a results.dat file to a trace store, or print a window of
+	 * a trace store
+	 * @param args	results.dat and trace store files, or a trace store
+	 * 				file, start and end times and most rows wanted
+	 */
+	public static void main(String[] args) {
+		if (args.length == 2) {
+			try {
+				BufferedReader in = new BufferedReader(new FileReader(args[0]));
+				Writer w = null;
+				String line;
+				long start = System.currentTimeMillis();
+				int n = 0;
+				int lineNum = 0;
+				int numCols = 0;
+				int skipped = 0;
+				while ((line = in.readLine()) != null) {
+					lineNum++;
+					String fields[] = line.split(",\\s*");
+					if (w == null) {
+						// the column headings, named as far as they go
+						if (line.startsWith("Time")) {
+							in.mark(1 << 16);
+							String first = in.readLine();
+							in.reset();
+							numCols = first == null ? fields.length : first.split(",\\s*").length;
+							String names[] = new String[numCols];
+							for (int c = 0; c < numCols; c++) {
+								names[c] = c < fields.length ? fields[c] : "Column " + (c + 1);
+							}
+							w = new Writer(new File(args[1]), names);
+						}
+						continue;
+					}
+					if (line.trim().isEmpty() || line.indexOf('=') >= 0) {
+						// blank, or one of the closing summary lines
+						continue;
+					}
+					if (fields.length != numCols) {
+						System.err.println(args[0] + " line " + lineNum + ": " + fields.length + " columns, not " + numCols + ", skipped");
+						skipped++;
+						continue;
+					}
+					double row[] = new double[fields.length];
+					try {
+						for (int c = 0; c < row.length; c++) {
+							row[c] = Double.parseDouble(fields[c]);
+						}
+					}
+					catch (NumberFormatException ne) {
+						System.err.println(args[0] + " line " + lineNum + ": " + ne.getMessage() + ", skipped");
+						skipped++;
+						continue;
+					}
+					w.add(row);
+					n++;
+				}
+				in.close();
+				if (w != null) {
+					w.close();
+				}
+				System.out.println(n + " rows, " + skipped + " skipped, in " + (System.currentTimeMillis() - start) + " ms, "
+						+ new File(args[0]).length() + " bytes to " + new File(args[1]).length());
+			}
+			catch (IOException ie) {
+				System.err.println("IOException: " + args[1] + " " + ie);
+			}
+		} else if (args.length == 4) {
+			try {
+				long start = System.nanoTime();
+				TraceStore ts = new TraceStore(new File(args[0]));
+				Window w = ts.read(Double.parseDouble(args[1]), Double.parseDouble(args[2]), Integer.parseInt(args[3]));
+				long took = System.nanoTime() - start;
+				System.out.println("Level " + w.level + ", " + w.numRows + " rows in " + took / 1000 + " us");
+				for (int r = 0; r < w.numRows; r++) {
+					StringBuilder sb = new StringBuilder();
+					for (int c = 0; c < ts.columns.length; c++) {
+						sb.append(c > 0 ? ", " : "").append(w.mean[c][r]);
+						if (w.level > 0 && c > 0) {
+							sb.append(" [").append(w.min[c][r]).append(", ").append(w.max[c][r]).append("]");
+						}
+					}
+					System.out.println(sb);
+				}
+				ts.close();
+			}
+			catch (IOException ie) {
+				System.err.println("IOException: " + args[0] + " " + ie);
+			}
+		} else {
+			System.err.println("Usage: TraceStore results.dat results.trace | TraceStore results.trace t0 t1 rows");
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/*****************************************************************************
+ *
+ *  VectorStepKernel
+ *
+ *  Class counting down the programme steps of a fleet held in columns
+ *  using SIMD instructions for dwgrid simulation
+ *
+ *  Copyright (c) Trevor Marshall 2011
+ *
+ *  This file is part of dwgrid.
+ *
+ *  dwgrid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  dwgrid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with dwgrid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ****************************************************************************/
+package net.trevorm.simulation.dwgrid;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * StepKernel using the Vector API.  A whole vector of machines is
+ * counted down at once, delayed machines (sign bit set) masked out, and
+ * the machines whose step has ended are found from the mask of lanes
+ * with no more than t ticks left - usually empty, so the scalar work
+ * is rare.
+ *
+ * Only loaded through StepKernel.create(), so the rest of the
+ * simulation runs on JVMs without jdk.incubator.vector.
+ *
+ * @author trevorm
+ *
+ */
+public class VectorStepKernel extends StepKernel {
+
+	private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+	/**
+	 * Count down the running machines
+	 *
+	 * @param state	packed state of each machine, as DishwasherFleet,
+	 * 					delayed machines are not counting
+	 * @param num		number of machines
+	 * @param t			ticks to take off
+	 * @param ended		filled with the machines whose step has ended,
+	 * 					in ascending order, their state left as it was
+	 * @return			number of machines in ended
+	 */
+	public int countDown(int state[], int num, int t, int ended[]) {
+		int count = 0;
+		int lanes = SPECIES.length();
+		int bound = SPECIES.loopBound(num);
+		IntVector ticks = IntVector.broadcast(SPECIES, t);
+		int n = 0;
+		for (; n < bound; n += lanes) {
+			IntVector st = IntVector.fromArray(SPECIES, state, n);
+			VectorMask<Integer> running = st.compare(VectorOperators.GE, 0);
+			VectorMask<Integer> done = st.and(DishwasherFleet.REMAIN_BITS).compare(VectorOperators.LE, t).and(running);
+			st.lanewise(VectorOperators.SUB, ticks, running.andNot(done)).intoArray(state, n);
+			if (done.anyTrue()) {
+				long bits = done.toLong();
+				while (bits != 0) {
+					ended[count++] = n + Long.numberOfTrailingZeros(bits);
+					bits &= bits - 1;
+				}
+			}
+		}
+		for (; n < num; n++) {
+			int st = state[n];
+			if (st >= 0) {
+				if ((st & DishwasherFleet.REMAIN_BITS) <= t) {
+					ended[count++] = n;
+				} else {
+					state[n] = st - t;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return a name for the kernel
+	 */
+	public String getName() {
+		return "vector " + SPECIES.length() + " x int";
+	}
+}
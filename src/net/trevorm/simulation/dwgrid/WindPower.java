@@ -96,7 +96,7 @@ public class WindPower {
 	
 	/**
 	 * Read the next time/power pair from the file
-	 * @return wind power
+	 * @return wind power, or -1 at the end of the file
 	 */
 	public float readNextWind() {
 		String line;
@@ -107,6 +107,10 @@ public class WindPower {
 			System.err.println("IO Exception: " + ie);
 			return -1.0F;
 		}
+		if (line == null) {
+			// end of the file
+			return -1.0F;
+		}
 		String[] temp = new String[2];
 		String delim  = ",";
 		temp = line.split(delim);